@@ -0,0 +1,61 @@
+package com.github.ddth.com.cassdir;
+
+/**
+ * Codec applied to file data blocks before they are stored, see
+ * {@link CassandraDirectory#setBlockCodec(BlockCodec)}.
+ *
+ * <p>
+ * Each stored block carries a small header naming its codec, so blocks written
+ * with different codecs (and blocks written by cassdir 0.1.1 and earlier) can
+ * be read side by side.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public enum BlockCodec {
+    /**
+     * Blocks are stored as-is.
+     */
+    NONE(0),
+
+    /**
+     * LZ4 compression: fast, moderate ratio.
+     */
+    LZ4(1),
+
+    /**
+     * Deflate compression: better ratio, slower.
+     */
+    DEFLATE(2);
+
+    private final byte id;
+
+    private BlockCodec(int id) {
+        this.id = (byte) id;
+    }
+
+    /**
+     * Codec's id, as stored in block headers.
+     *
+     * @return
+     */
+    public byte id() {
+        return id;
+    }
+
+    /**
+     * Gets a codec by its id.
+     *
+     * @param id
+     * @return {@code null} if no codec has the specified id
+     */
+    public static BlockCodec valueOf(byte id) {
+        for (BlockCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
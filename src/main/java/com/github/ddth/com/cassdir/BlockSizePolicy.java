@@ -0,0 +1,127 @@
+package com.github.ddth.com.cassdir;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.IOContext;
+
+/**
+ * Chooses the block size of a file when it is created, see
+ * {@link CassandraDirectory#setBlockSizePolicy(BlockSizePolicy)}.
+ *
+ * <p>
+ * The block size is looked up by file extension (e.g. small blocks for
+ * randomly accessed {@code "tip"}, {@code "tim"} files, large blocks for
+ * sequentially read {@code "fdt"} files), then by {@link IOContext.Context}
+ * (e.g. {@code MERGE}), then falls back to {@link #getDefaultBlockSize()}.
+ * Override {@link #blockSize(String, IOContext)} for other rules.
+ * </p>
+ *
+ * <p>
+ * A file's block size is stored in its metadata and used by all readers, so
+ * changing the policy only affects files created afterwards.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class BlockSizePolicy {
+
+    public final static int MIN_BLOCK_SIZE = 1024; // 1Kb
+    public final static int MAX_BLOCK_SIZE = 8 * 1024 * 1024; // 8Mb
+
+    private int defaultBlockSize = CassandraDirectory.BLOCK_SIZE;
+    private Map<String, Integer> extensionBlockSizes = Collections.emptyMap();
+    private Map<IOContext.Context, Integer> contextBlockSizes = Collections.emptyMap();
+
+    private static int checkBlockSize(int blockSize) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE
+                    + " and " + MAX_BLOCK_SIZE + "!");
+        }
+        return blockSize;
+    }
+
+    public int getDefaultBlockSize() {
+        return defaultBlockSize;
+    }
+
+    /**
+     * Sets block size of files not matched by any other rule (default
+     * {@link CassandraDirectory#BLOCK_SIZE}).
+     *
+     * @param defaultBlockSize
+     * @return
+     */
+    public BlockSizePolicy setDefaultBlockSize(int defaultBlockSize) {
+        this.defaultBlockSize = checkBlockSize(defaultBlockSize);
+        return this;
+    }
+
+    public Map<String, Integer> getExtensionBlockSizes() {
+        return extensionBlockSizes;
+    }
+
+    /**
+     * Sets block size of files with the specified extensions.
+     *
+     * @param blockSize
+     * @param extensions
+     * @return
+     */
+    public BlockSizePolicy setBlockSize(int blockSize, String... extensions) {
+        checkBlockSize(blockSize);
+        Map<String, Integer> result = new HashMap<String, Integer>(extensionBlockSizes);
+        if (extensions != null) {
+            for (String ext : extensions) {
+                if (ext != null) {
+                    result.put(ext.startsWith(".") ? ext.substring(1) : ext, blockSize);
+                }
+            }
+        }
+        this.extensionBlockSizes = Collections.unmodifiableMap(result);
+        return this;
+    }
+
+    public Map<IOContext.Context, Integer> getContextBlockSizes() {
+        return contextBlockSizes;
+    }
+
+    /**
+     * Sets block size of files (not matched by extension) created within the
+     * specified {@link IOContext.Context}.
+     *
+     * @param blockSize
+     * @param context
+     * @return
+     */
+    public BlockSizePolicy setBlockSize(int blockSize, IOContext.Context context) {
+        checkBlockSize(blockSize);
+        Map<IOContext.Context, Integer> result = new HashMap<IOContext.Context, Integer>(
+                contextBlockSizes);
+        result.put(context, blockSize);
+        this.contextBlockSizes = Collections.unmodifiableMap(result);
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Chooses the block size of a new file.
+     *
+     * @param fileName
+     * @param ioContext
+     *            can be {@code null}
+     * @return block size, in bytes, between {@link #MIN_BLOCK_SIZE} and
+     *         {@link #MAX_BLOCK_SIZE}
+     */
+    public int blockSize(String fileName, IOContext ioContext) {
+        String ext = IndexFileNames.getExtension(fileName);
+        Integer result = ext != null ? extensionBlockSizes.get(ext) : null;
+        if (result == null && ioContext != null) {
+            result = contextBlockSizes.get(ioContext.context);
+        }
+        return result != null ? result.intValue() : defaultBlockSize;
+    }
+}
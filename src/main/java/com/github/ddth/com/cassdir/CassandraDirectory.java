@@ -1,33 +1,81 @@
 package com.github.ddth.com.cassdir;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.CRC32;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.store.BaseDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.ThreadInterruptedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
 import com.github.ddth.cacheadapter.ICache;
 import com.github.ddth.cacheadapter.ICacheFactory;
+import com.github.ddth.com.cassdir.internal.BlockFormat;
+import com.github.ddth.com.cassdir.internal.BlockKey;
+import com.github.ddth.com.cassdir.internal.BufferPool;
 import com.github.ddth.com.cassdir.internal.CassandraLockFactory;
+import com.github.ddth.com.cassdir.internal.DiskBlockCache;
+import com.github.ddth.com.cassdir.internal.FileInfoCodec;
+import com.github.ddth.com.cassdir.internal.LatencyTracker;
+import com.github.ddth.com.cassdir.internal.OffHeapBlockCache;
 import com.github.ddth.cql.CqlUtils;
 import com.github.ddth.cql.SessionManager;
 
@@ -39,11 +87,124 @@ import com.github.ddth.cql.SessionManager;
  */
 public class CassandraDirectory extends BaseDirectory {
 
+    /**
+     * Default block size, also block size of files whose metadata has no
+     * block size (see {@link #setBlockSizePolicy(BlockSizePolicy)}).
+     */
     public final static int BLOCK_SIZE = 64 * 1024; // 64Kb
     public final static String DEFAULT_TBL_METADATA = "directory_metadata";
     public final static String DEFAULT_TBL_FILEDATA = "file_data";
+    /* since v0.1.2, see getGeneration() */
+    public final static String DEFAULT_TBL_GENERATION = "directory_generation";
     public final static ConsistencyLevel DEFAULT_CONSISTENCY_LEVEL = ConsistencyLevel.LOCAL_QUORUM;
 
+    /**
+     * Max number of blocks a single {@link IndexInput} reads ahead.
+     */
+    public final static int DEFAULT_READ_AHEAD_MAX_BLOCKS = 8;
+
+    /**
+     * Max number of read-ahead requests in flight per directory.
+     */
+    public final static int DEFAULT_READ_AHEAD_MAX_INFLIGHT = 64;
+
+    /**
+     * Number of consecutive sequential block loads before read-ahead kicks
+     * in.
+     */
+    private final static int READ_AHEAD_TRIGGER = 2;
+
+    /**
+     * Default fetch size (number of blocks per page) of range reads, see
+     * {@link #setRangeReadFetchSize(int)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static int DEFAULT_RANGE_READ_FETCH_SIZE = 16;
+
+    /**
+     * Default fetch size (number of files per page) of the metadata scan of
+     * {@link #listAll()}, see {@link #setListAllFetchSize(int)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static int DEFAULT_LIST_ALL_FETCH_SIZE = 1000;
+
+    /**
+     * Default number of threads of the directory's worker pool, see
+     * {@link #setWorkerThreads(int)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static int DEFAULT_WORKER_THREADS = 8;
+
+    /**
+     * Default max number of block writes in flight per {@link IndexOutput},
+     * see {@link #setWriteMaxInflight(int)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static int DEFAULT_WRITE_MAX_INFLIGHT = 4;
+
+    /**
+     * Default max number of blocks being copied at a time by
+     * {@link #copyFrom(Directory, String, String, IOContext)}, see
+     * {@link #setCopyMaxInflight(int)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static int DEFAULT_COPY_MAX_INFLIGHT = 16;
+
+    /**
+     * Default max number of delete statements in flight, see
+     * {@link #setDeleteMaxInflight(int)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static int DEFAULT_DELETE_MAX_INFLIGHT = 64;
+
+    /**
+     * Default lease duration of locks, see {@link #setLockLeaseMs(long)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static long DEFAULT_LOCK_LEASE_MS = 60 * 1000; // 1 min
+
+    /**
+     * Max number of metadata deletes per (single-partition) batch of
+     * {@link #deleteFiles(Collection)}.
+     */
+    private final static int DELETE_BATCH_SIZE = 100;
+
+    /**
+     * Default max number of bytes of idle block buffers kept for reuse, see
+     * {@link #setBufferPoolSize(long)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static long DEFAULT_BUFFER_POOL_SIZE = 32 * 1024 * 1024; // 32Mb
+
+    /**
+     * Defaults of hedged block reads, see {@link #setHedgedReads(boolean)}.
+     * 
+     * @since 0.1.2
+     */
+    public final static double DEFAULT_HEDGE_DELAY_PERCENTILE = 0.95;
+    public final static long DEFAULT_HEDGE_MIN_DELAY_MS = 2;
+    public final static long DEFAULT_HEDGE_MAX_DELAY_MS = 1000;
+    public final static double DEFAULT_HEDGE_MAX_RATIO = 0.05;
+    /* min number of samples before the percentile is trusted */
+    private final static int HEDGE_MIN_SAMPLES = 100;
+    /* extra hedges allowed on top of the ratio, e.g. at startup */
+    private final static int HEDGE_BURST = 10;
+
+    private final static Executor SAME_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private ConsistencyLevel consistencyLevelReadFileData = DEFAULT_CONSISTENCY_LEVEL;
     private ConsistencyLevel consistencyLevelWriteFileData = DEFAULT_CONSISTENCY_LEVEL;
     private ConsistencyLevel consistencyLevelReadFileInfo = DEFAULT_CONSISTENCY_LEVEL;
@@ -54,36 +215,111 @@ public class CassandraDirectory extends BaseDirectory {
 
     private String tableFiledata = DEFAULT_TBL_FILEDATA;
     private String tableMetadata = DEFAULT_TBL_METADATA;
+    private String tableGeneration = DEFAULT_TBL_GENERATION;
+    private String directoryId;
     public final static String COL_FILE_NAME = "filename";
     public final static String COL_FILE_SIZE = "filesize";
     public final static String COL_FILE_ID = "fileid";
+    /* per-file block size, see setBlockSizePolicy(BlockSizePolicy) */
+    public final static String COL_BLOCK_SIZE = "blocksize";
     public final static String COL_BLOCK_NUM = "blocknum";
     public final static String COL_BLOCK_DATA = "blockdata";
+    /* inline data of small files, see setInlineFileThreshold(int) */
+    public final static String COL_FILE_DATA = "filedata";
+    /* directory id, see setDirectoryId(String) */
+    public final static String COL_DIR_ID = "dirid";
+    /* directory generation, see getGeneration() */
+    public final static String COL_DIR_NAME = "dirname";
+    public final static String COL_GENERATION = "generation";
 
-    private String CQL_REMOVE_FILE = "DELETE FROM {0} WHERE " + COL_FILE_NAME + "=?";
-    private String CQL_REMOVE_FILEDATA = "DELETE FROM {0} WHERE " + COL_FILE_ID + "=? AND "
-            + COL_BLOCK_NUM + "=?";
+    /*
+     * Templates of statements on metadata & data tables: {1} (" AND dirid=?"),
+     * {2} (" WHERE dirid=?"), {3} (",dirid") and {4} (",?") expand to empty
+     * strings unless the directory is namespaced (see setDirectoryId(String));
+     * the directory id is always bound last.
+     */
+    private final static String TPL_REMOVE_FILE = "DELETE FROM {0} WHERE " + COL_FILE_NAME + "=?{1}";
+    private final static String TPL_REMOVE_FILEDATA = "DELETE FROM {0} WHERE " + COL_FILE_ID + "=? AND "
+            + COL_BLOCK_NUM + "=?{1}";
+    /* only for FileDataLayout.CLUSTERED: all blocks of a file at once */
+    private final static String TPL_REMOVE_FILEDATA_ALL = "DELETE FROM {0} WHERE " + COL_FILE_ID
+            + "=?{1}";
 
-    private String CQL_LOAD_FILEDATA = "SELECT "
+    private final static String TPL_LOAD_FILEDATA = "SELECT "
             + StringUtils.join(new String[] { COL_FILE_ID, COL_BLOCK_NUM, COL_BLOCK_DATA }, ",")
-            + " FROM {0} WHERE " + COL_FILE_ID + "=? AND " + COL_BLOCK_NUM + "=?";
-    private String CQL_WRITE_FILEDATA = "UPDATE {0} SET " + COL_BLOCK_DATA + "=? WHERE "
-            + COL_FILE_ID + "=? AND " + COL_BLOCK_NUM + "=?";
-
-    private String CQL_GET_FILEINFO = "SELECT "
-            + StringUtils.join(new String[] { COL_FILE_NAME, COL_FILE_SIZE, COL_FILE_ID }, ",")
-            + " FROM {0} WHERE " + COL_FILE_NAME + "=?";
-    private String CQL_GET_ALL_FILES = "SELECT "
-            + StringUtils.join(new String[] { COL_FILE_NAME }, ",") + " FROM {0}";
-
-    private String CQL_ENSURE_FILE = "UPDATE {0} SET " + COL_FILE_ID + "=? WHERE " + COL_FILE_NAME
-            + "=?";
-    private String CQL_UPDATE_FILEINFO = "UPDATE {0} SET " + COL_FILE_SIZE + "=?," + COL_FILE_ID
-            + "=? WHERE " + COL_FILE_NAME + "=?";
-
-    private String CQL_LOCK = "INSERT INTO {0} ("
+            + " FROM {0} WHERE " + COL_FILE_ID + "=? AND " + COL_BLOCK_NUM + "=?{1}";
+    private final static String TPL_WRITE_FILEDATA = "UPDATE {0} SET " + COL_BLOCK_DATA + "=? WHERE "
+            + COL_FILE_ID + "=? AND " + COL_BLOCK_NUM + "=?{1}";
+    /* only for FileDataLayout.CLUSTERED */
+    private final static String TPL_LOAD_FILEDATA_RANGE = "SELECT "
+            + StringUtils.join(new String[] { COL_FILE_ID, COL_BLOCK_NUM, COL_BLOCK_DATA }, ",")
+            + " FROM {0} WHERE " + COL_FILE_ID + "=? AND " + COL_BLOCK_NUM + ">=? AND "
+            + COL_BLOCK_NUM + "<?{1}";
+
+    private final static String TPL_GET_FILEINFO = "SELECT "
+            + StringUtils.join(new String[] { COL_FILE_NAME, COL_FILE_SIZE, COL_FILE_ID,
+                    COL_BLOCK_SIZE }, ",") + " FROM {0} WHERE " + COL_FILE_NAME + "=?{1}";
+    private final static String TPL_GET_ALL_FILES = "SELECT "
+            + StringUtils.join(new String[] { COL_FILE_NAME, COL_FILE_SIZE, COL_FILE_ID,
+                    COL_BLOCK_SIZE }, ",") + " FROM {0}{2}";
+    /*
+     * only when inline small files is enabled: the write time of inline data
+     * tells inline files apart, without reading the data
+     */
+    private final static String TPL_GET_ALL_FILES_INLINE = "SELECT "
+            + StringUtils.join(new String[] { COL_FILE_NAME, COL_FILE_SIZE, COL_FILE_ID,
+                    COL_BLOCK_SIZE, "writetime(" + COL_FILE_DATA + ")" }, ",") + " FROM {0}{2}";
+
+    private final static String TPL_UPDATE_FILEINFO = "UPDATE {0} SET " + COL_FILE_SIZE + "=?," + COL_FILE_ID
+            + "=?," + COL_BLOCK_SIZE + "=? WHERE " + COL_FILE_NAME + "=?{1}";
+
+    /* only when inline small files is enabled */
+    private final static String TPL_GET_FILEINFO_INLINE = "SELECT "
+            + StringUtils.join(new String[] { COL_FILE_NAME, COL_FILE_SIZE, COL_FILE_ID,
+                    COL_BLOCK_SIZE, COL_FILE_DATA }, ",") + " FROM {0} WHERE " + COL_FILE_NAME
+            + "=?{1}";
+    private final static String TPL_UPDATE_FILEINFO_INLINE = "UPDATE {0} SET " + COL_FILE_SIZE
+            + "=?," + COL_FILE_ID + "=?," + COL_BLOCK_SIZE + "=?," + COL_FILE_DATA + "=? WHERE "
+            + COL_FILE_NAME + "=?{1}";
+
+    private final static String TPL_GET_GENERATION = "SELECT " + COL_GENERATION + " FROM {0} WHERE "
+            + COL_DIR_NAME + "=?";
+    /*
+     * the generation is written with itself as timestamp: concurrent changes
+     * never make the stored value go backwards
+     */
+    private final static String TPL_UPDATE_GENERATION = "UPDATE {0} USING TIMESTAMP ? SET "
+            + COL_GENERATION + "=? WHERE " + COL_DIR_NAME + "=?";
+
+    /*
+     * locks are leases (TTL): the directory id is bound before TTL and
+     * condition, see bindLockValues(...)
+     */
+    private final static String TPL_LOCK = "INSERT INTO {0} ("
             + StringUtils.join(new String[] { COL_FILE_NAME, COL_FILE_ID }, ",")
-            + ") VALUES (?, ?) IF NOT EXISTS";
+            + "{3}) VALUES (?, ?{4}) IF NOT EXISTS USING TTL ?";
+    private final static String TPL_RENEW_LOCK = "UPDATE {0} USING TTL ? SET " + COL_FILE_ID
+            + "=? WHERE " + COL_FILE_NAME + "=?{1} IF " + COL_FILE_ID + "=?";
+    private final static String TPL_UNLOCK = "DELETE FROM {0} WHERE " + COL_FILE_NAME + "=?{1} IF "
+            + COL_FILE_ID + "=?";
+
+    private String CQL_REMOVE_FILE;
+    private String CQL_REMOVE_FILEDATA;
+    private String CQL_REMOVE_FILEDATA_ALL;
+    private String CQL_LOAD_FILEDATA;
+    private String CQL_WRITE_FILEDATA;
+    private String CQL_LOAD_FILEDATA_RANGE;
+    private String CQL_GET_FILEINFO;
+    private String CQL_GET_ALL_FILES;
+    private String CQL_GET_ALL_FILES_INLINE;
+    private String CQL_UPDATE_FILEINFO;
+    private String CQL_GET_FILEINFO_INLINE;
+    private String CQL_UPDATE_FILEINFO_INLINE;
+    private String CQL_LOCK;
+    private String CQL_RENEW_LOCK;
+    private String CQL_UNLOCK;
+    private String CQL_GET_GENERATION;
+    private String CQL_UPDATE_GENERATION;
 
     private Logger LOGGER = LoggerFactory.getLogger(CassandraDirectory.class);
 
@@ -95,7 +331,71 @@ public class CassandraDirectory extends BaseDirectory {
 
     private ICacheFactory cacheFactory;
     private String cacheName;
+    private ICache cache;
     private String cacheKeyAllFiles = "ALL_FILES";
+    /* last generation known to this instance, -1 to read the stored one */
+    private long lastGeneration = -1;
+    private final Object generationLock = new Object();
+
+    private long bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+    private BufferPool bufferPool = new BufferPool(bufferPoolSize);
+
+    private long blockCacheSize = 0;
+    private OffHeapBlockCache blockCache;
+
+    private String diskCacheDir;
+    private long diskCacheSize = 0;
+    private DiskBlockCache diskCache;
+
+    private FileDataLayout fileDataLayout = FileDataLayout.PARTITION_PER_BLOCK;
+    private int rangeReadFetchSize = DEFAULT_RANGE_READ_FETCH_SIZE;
+    private int listAllFetchSize = DEFAULT_LIST_ALL_FETCH_SIZE;
+
+    private int inlineFileThreshold = 0;
+    private BlockCodec blockCodec = BlockCodec.NONE;
+    private BlockSizePolicy blockSizePolicy;
+    private int writeMaxInflight = DEFAULT_WRITE_MAX_INFLIGHT;
+    private int copyMaxInflight = DEFAULT_COPY_MAX_INFLIGHT;
+    private int deleteMaxInflight = DEFAULT_DELETE_MAX_INFLIGHT;
+    private long lockLeaseMs = DEFAULT_LOCK_LEASE_MS;
+    private ScheduledExecutorService lockHeartbeat;
+    private final BlockPurger blockPurger = new BlockPurger();
+    private ConcurrentMap<String, CassandraIndexOutput> openOutputs = new ConcurrentHashMap<String, CassandraIndexOutput>();
+    /*
+     * metadata of the last files published by this instance's outputs, so
+     * that renaming a just-written file (e.g. pending_segments_N) needs no
+     * read
+     */
+    private final static int RECENTLY_PUBLISHED_SIZE = 16;
+    private final Map<String, FileInfo> recentlyPublished = Collections
+            .synchronizedMap(new LinkedHashMap<String, FileInfo>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FileInfo> eldest) {
+                    return size() > RECENTLY_PUBLISHED_SIZE;
+                }
+            });
+
+    private int workerThreads = DEFAULT_WORKER_THREADS;
+    private ExecutorService workerPool;
+    private Set<String> warmedUpFileIds = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private boolean hedgedReads = false;
+    private double hedgeDelayPercentile = DEFAULT_HEDGE_DELAY_PERCENTILE;
+    private long hedgeMinDelayMs = DEFAULT_HEDGE_MIN_DELAY_MS;
+    private long hedgeMaxDelayMs = DEFAULT_HEDGE_MAX_DELAY_MS;
+    private double hedgeMaxRatio = DEFAULT_HEDGE_MAX_RATIO;
+    private LatencyTracker blockReadLatency = new LatencyTracker(1000);
+    private AtomicLong blockReads = new AtomicLong(), hedgedBlockReads = new AtomicLong(),
+            hedgeWins = new AtomicLong();
+
+    private int readAheadMaxBlocks = DEFAULT_READ_AHEAD_MAX_BLOCKS;
+    private int readAheadMaxInflight = DEFAULT_READ_AHEAD_MAX_INFLIGHT;
+    private AtomicInteger readAheadInflight = new AtomicInteger(0);
+
+    private ConcurrentMap<String, PreparedStatement> preparedStatements = new ConcurrentHashMap<String, PreparedStatement>();
 
     /*----------------------------------------------------------------------*/
     public CassandraDirectory(String cassandraHostsAndPorts, String cassandraUser,
@@ -126,6 +426,44 @@ public class CassandraDirectory extends BaseDirectory {
         return this;
     }
 
+    public String getDirectoryId() {
+        return directoryId;
+    }
+
+    /**
+     * Namespaces the directory: {@code dirid} becomes the partition key of
+     * the metadata table (listing a directory is a single-partition read) and
+     * part of the partition key of the data table, so that many directories
+     * can share the same tables. Requires the namespaced schema (see
+     * {@code dbschema/cassdir-ns.cql}); {@code null} (default) to use the
+     * non-namespaced schema.
+     * 
+     * @param directoryId
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setDirectoryId(String directoryId) {
+        this.directoryId = StringUtils.isEmpty(directoryId) ? null : directoryId;
+        return this;
+    }
+
+    public String getTableGeneration() {
+        return tableGeneration;
+    }
+
+    /**
+     * Sets name of the table storing directories' generations, see
+     * {@link #getGeneration()}.
+     * 
+     * @param tableGeneration
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setTableGeneration(String tableGeneration) {
+        this.tableGeneration = tableGeneration;
+        return this;
+    }
+
     public String getCassandraHostsAndPorts() {
         return cassandraHostsAndPorts;
     }
@@ -245,256 +583,1781 @@ public class CassandraDirectory extends BaseDirectory {
         return this;
     }
 
-    /*----------------------------------------------------------------------*/
-    public ICacheFactory getCacheFactory() {
-        return cacheFactory;
+    public int getReadAheadMaxBlocks() {
+        return readAheadMaxBlocks;
     }
 
-    public CassandraDirectory setCacheFactory(ICacheFactory cacheFactory) {
-        this.cacheFactory = cacheFactory;
+    /**
+     * Sets max number of blocks a single {@link IndexInput} reads ahead when
+     * sequential access is detected. Set to {@code 0} to disable read-ahead.
+     * 
+     * @param readAheadMaxBlocks
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setReadAheadMaxBlocks(int readAheadMaxBlocks) {
+        this.readAheadMaxBlocks = readAheadMaxBlocks;
         return this;
     }
 
-    public String getCacheName() {
-        return cacheName;
+    public int getReadAheadMaxInflight() {
+        return readAheadMaxInflight;
     }
 
-    public CassandraDirectory setCacheName(String cacheName) {
-        this.cacheName = cacheName;
+    /**
+     * Sets max number of read-ahead requests in flight for the whole
+     * directory.
+     * 
+     * @param readAheadMaxInflight
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setReadAheadMaxInflight(int readAheadMaxInflight) {
+        this.readAheadMaxInflight = readAheadMaxInflight;
         return this;
     }
 
-    private String cacheKeyDataBlock(FileInfo fileInfo, int blockNum) {
-        return fileInfo.id() + ":" + blockNum;
+    public FileDataLayout getFileDataLayout() {
+        return fileDataLayout;
     }
 
-    private String cacheKeyFileInfo(FileInfo fileInfo) {
-        return fileInfo.name();
+    /**
+     * Sets layout of the file data table. Must match the table's schema:
+     * {@link FileDataLayout#PARTITION_PER_BLOCK} for
+     * {@code dbschema/cassdir.cql} (default),
+     * {@link FileDataLayout#CLUSTERED} for {@code dbschema/cassdir-v2.cql}.
+     * 
+     * @param fileDataLayout
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setFileDataLayout(FileDataLayout fileDataLayout) {
+        this.fileDataLayout = fileDataLayout != null ? fileDataLayout
+                : FileDataLayout.PARTITION_PER_BLOCK;
+        return this;
     }
 
-    private String cacheKeyFileInfo(String fileName) {
-        return fileName;
+    public int getRangeReadFetchSize() {
+        return rangeReadFetchSize;
     }
 
-    /*----------------------------------------------------------------------*/
-    public void init() {
-        if (sessionManager == null) {
-            myOwnSessionManager = true;
-            sessionManager = new SessionManager();
-            sessionManager.init();
-        }
-        CQL_REMOVE_FILE = MessageFormat.format(CQL_REMOVE_FILE, tableMetadata);
-        CQL_REMOVE_FILEDATA = MessageFormat.format(CQL_REMOVE_FILEDATA, tableFiledata);
-
-        CQL_LOAD_FILEDATA = MessageFormat.format(CQL_LOAD_FILEDATA, tableFiledata);
-        CQL_WRITE_FILEDATA = MessageFormat.format(CQL_WRITE_FILEDATA, tableFiledata);
-
-        CQL_GET_FILEINFO = MessageFormat.format(CQL_GET_FILEINFO, tableMetadata);
-        CQL_GET_ALL_FILES = MessageFormat.format(CQL_GET_ALL_FILES, tableMetadata);
-
-        CQL_ENSURE_FILE = MessageFormat.format(CQL_ENSURE_FILE, tableMetadata);
-        CQL_UPDATE_FILEINFO = MessageFormat.format(CQL_UPDATE_FILEINFO, tableMetadata);
-
-        CQL_LOCK = MessageFormat.format(CQL_LOCK, tableMetadata);
+    /**
+     * Sets number of blocks fetched per page by a range read (only with
+     * {@link FileDataLayout#CLUSTERED}).
+     * 
+     * @param rangeReadFetchSize
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setRangeReadFetchSize(int rangeReadFetchSize) {
+        this.rangeReadFetchSize = rangeReadFetchSize > 0 ? rangeReadFetchSize
+                : DEFAULT_RANGE_READ_FETCH_SIZE;
+        return this;
     }
 
-    public void destroy() {
-        if (myOwnSessionManager && sessionManager != null) {
-            sessionManager.destroy();
-            sessionManager = null;
-        }
+    public int getListAllFetchSize() {
+        return listAllFetchSize;
     }
 
-    private Session getSession() {
-        return sessionManager.getSession(cassandraHostsAndPorts, cassandraUser, cassandraPassword,
-                cassandraKeyspace);
+    /**
+     * Sets number of files fetched per page by the metadata scan of
+     * {@link #listAll()}.
+     * 
+     * @param listAllFetchSize
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setListAllFetchSize(int listAllFetchSize) {
+        this.listAllFetchSize = listAllFetchSize > 0 ? listAllFetchSize
+                : DEFAULT_LIST_ALL_FETCH_SIZE;
+        return this;
     }
 
-    private ICache getCache() {
-        return cacheFactory != null && cacheName != null ? cacheFactory.createCache(cacheName)
-                : null;
+    public int getInlineFileThreshold() {
+        return inlineFileThreshold;
     }
 
     /**
-     * Loads a file's block data from storage.
+     * Files of at most this size (in bytes) are stored inline in the
+     * metadata table ({@code filedata} column, see
+     * {@code dbschema/cassdir.cql}) instead of the file data table, so that
+     * writing or opening & reading them takes one round trip. {@code 0}
+     * (default) disables inlining; must not be enabled if the metadata table
+     * does not have the {@code filedata} column. Capped at
+     * {@link #BLOCK_SIZE}; only files that fit in their first block are
+     * inlined.
      * 
-     * @param fileInfo
-     * @param blockNum
-     * @return {@code null} if file and/or block does not exist, otherwise a
-     *         {@code byte[]} with minimum {@link #BLOCK_SIZE} length is
-     *         returned
+     * @param inlineFileThreshold
+     * @return
+     * @since 0.1.2
      */
-    private byte[] readFileBlock(FileInfo fileInfo, int blockNum) {
-        ICache cache = getCache();
-        final String CACHE_KEY = cacheKeyDataBlock(fileInfo, blockNum);
-        byte[] dataArr = (byte[]) (cache != null ? cache.get(CACHE_KEY) : null);
-        if (LOGGER.isTraceEnabled()) {
-            if (dataArr != null) {
-                LOGGER.trace("readFileBlock(" + fileInfo.name() + " - " + fileInfo.id() + "/"
-                        + blockNum + ") --> cache hit!");
-            } else {
-                LOGGER.trace("readFileBlock(" + fileInfo.name() + " - " + fileInfo.id() + "/"
-                        + blockNum + ") --> cache missed!");
-            }
-        }
-        if (dataArr == null) {
-            Session session = getSession();
-            Row row = CqlUtils.executeOne(session, CQL_LOAD_FILEDATA, consistencyLevelReadFileData,
-                    fileInfo.id(), blockNum);
-            ByteBuffer data = row != null ? row.getBytes(COL_BLOCK_DATA) : null;
-            dataArr = data != null ? data.array() : null;
-            if (cache != null) {
-                cache.set(CACHE_KEY, dataArr);
-            }
-        }
-        return dataArr != null ? (dataArr.length >= BLOCK_SIZE ? dataArr : Arrays.copyOf(dataArr,
-                BLOCK_SIZE)) : null;
+    public CassandraDirectory setInlineFileThreshold(int inlineFileThreshold) {
+        this.inlineFileThreshold = Math.max(0, Math.min(BLOCK_SIZE, inlineFileThreshold));
+        return this;
+    }
+
+    public BlockCodec getBlockCodec() {
+        return blockCodec;
     }
 
     /**
-     * Write a file's block data to storage.
+     * Sets codec of blocks written from now on (default
+     * {@link BlockCodec#NONE}). Blocks are encoded on the directory's worker
+     * pool, off the writer's thread; blocks written with any codec, and by
+     * older versions, remain readable. Caches hold blocks encoded, blocks are
+     * decoded when loaded by an input.
      * 
-     * @param fileInfo
-     * @param blockNum
-     * @param data
+     * @param blockCodec
+     * @return
+     * @since 0.1.2
      */
-    private void writeFileBlock(FileInfo fileInfo, int blockNum, byte[] data) {
-        Session session = getSession();
-        CqlUtils.execute(session, CQL_WRITE_FILEDATA, consistencyLevelWriteFileData,
-                ByteBuffer.wrap(data), fileInfo.id(), blockNum);
-        ICache cache = getCache();
-        if (cache != null) {
-            final String CACHE_KEY = cacheKeyDataBlock(fileInfo, blockNum);
-            cache.set(CACHE_KEY, data);
-            if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace("writeFileBlock(" + fileInfo.name() + " - " + fileInfo.id() + "/"
-                        + blockNum + ") --> update cache!");
-            }
-        }
+    public CassandraDirectory setBlockCodec(BlockCodec blockCodec) {
+        this.blockCodec = blockCodec != null ? blockCodec : BlockCodec.NONE;
+        return this;
+    }
+
+    public BlockSizePolicy getBlockSizePolicy() {
+        return blockSizePolicy;
     }
 
     /**
-     * Gets a file's metadata info.
+     * Sets policy choosing block size of new files (by extension and/or
+     * {@link IOContext}); {@code null} (default) for {@link #BLOCK_SIZE}.
+     * Each file's block size is stored in its metadata ({@code blocksize}
+     * column, see {@code dbschema/cassdir.cql}) and honoured by all readers.
+     * Blocks larger than {@link #BLOCK_SIZE} bypass the local disk cache.
      * 
-     * @param filename
+     * @param blockSizePolicy
      * @return
+     * @since 0.1.2
      */
-    private FileInfo getFileInfo(String filename) {
-        ICache cache = getCache();
-        final String CACHE_KEY = cacheKeyFileInfo(filename);
-        FileInfo fileInfo = (FileInfo) (cache != null ? cache.get(CACHE_KEY) : null);
-        if (fileInfo == null) {
-            Session session = getSession();
-            Row row = CqlUtils.executeOne(session, CQL_GET_FILEINFO, consistencyLevelReadFileInfo,
-                    filename);
-            if (row != null) {
-                fileInfo = FileInfo.newInstance(row);
-                if (cache != null) {
-                    cache.set(CACHE_KEY, fileInfo);
-                }
-            }
-        }
-        return fileInfo;
+    public CassandraDirectory setBlockSizePolicy(BlockSizePolicy blockSizePolicy) {
+        this.blockSizePolicy = blockSizePolicy;
+        return this;
     }
 
-    @SuppressWarnings("unchecked")
-    private FileInfo[] getAllFileInfo() {
-        if (LOGGER.isTraceEnabled()) {
-            final String logMsg = "getAllFileInfo() is called";
-            LOGGER.trace(logMsg);
-        }
-        ICache cache = getCache();
-        List<FileInfo> result = (List<FileInfo>) (cache != null ? cache.get(cacheKeyAllFiles)
-                : null);
-        if (result == null) {
-            Session session = getSession();
-            ResultSet rs = CqlUtils.execute(session, CQL_GET_ALL_FILES,
-                    consistencyLevelReadFileInfo);
-            List<Row> allRows = rs != null ? rs.all() : new ArrayList<Row>();
-            result = new ArrayList<FileInfo>();
-            for (Row row : allRows) {
-                FileInfo fileInfo = getFileInfo(row.getString(COL_FILE_NAME));
-                if (fileInfo != null) {
-                    result.add(fileInfo);
-                }
-            }
-            if (cache != null) {
-                cache.set(cacheKeyAllFiles, result);
-            }
-        }
-        return result != null ? result.toArray(FileInfo.EMPTY_ARRAY) : FileInfo.EMPTY_ARRAY;
+    public int getWriteMaxInflight() {
+        return writeMaxInflight;
     }
 
     /**
-     * Ensures a file's existence.
+     * Sets max number of asynchronous block writes in flight per
+     * {@link IndexOutput}; the writer blocks when the window is full.
      * 
-     * @param filename
+     * @param writeMaxInflight
      * @return
+     * @since 0.1.2
      */
-    private FileInfo ensureFile(String filename) {
-        if (LOGGER.isTraceEnabled()) {
-            String logMsg = "ensureFile(" + filename + ") is called";
-            LOGGER.trace(logMsg);
-        }
-        FileInfo fileInfo = FileInfo.newInstance(filename);
-        Session session = getSession();
-        CqlUtils.execute(session, CQL_ENSURE_FILE, consistencyLevelWriteFileInfo, fileInfo.id(),
-                fileInfo.name());
-        ICache cache = getCache();
-        if (cache != null) {
-            final String CACHE_KEY = cacheKeyFileInfo(fileInfo);
-            cache.set(CACHE_KEY, fileInfo);
-            cache.delete(cacheKeyAllFiles);
-        }
-        return getFileInfo(filename);
+    public CassandraDirectory setWriteMaxInflight(int writeMaxInflight) {
+        this.writeMaxInflight = writeMaxInflight > 0 ? writeMaxInflight
+                : DEFAULT_WRITE_MAX_INFLIGHT;
+        return this;
+    }
+
+    public int getCopyMaxInflight() {
+        return copyMaxInflight;
     }
 
     /**
-     * Updates a file's metadata.
+     * Sets max number of blocks being copied at a time by a block-level
+     * {@link #copyFrom(Directory, String, String, IOContext)}.
      * 
-     * @param fileInfo
+     * @param copyMaxInflight
      * @return
+     * @since 0.1.2
      */
-    private FileInfo updateFileInfo(FileInfo fileInfo) {
-        if (LOGGER.isTraceEnabled()) {
-            String logMsg = "updateFile(" + fileInfo.name() + "/" + fileInfo.id() + "/"
-                    + fileInfo.size() + ") is called";
-            LOGGER.trace(logMsg);
-        }
-        Session session = getSession();
-        CqlUtils.execute(session, CQL_UPDATE_FILEINFO, consistencyLevelWriteFileInfo,
-                fileInfo.size(), fileInfo.id(), fileInfo.name());
-        ICache cache = getCache();
-        if (cache != null) {
-            final String CACHE_KEY = cacheKeyFileInfo(fileInfo);
-            cache.set(CACHE_KEY, fileInfo);
-            cache.delete(cacheKeyAllFiles);
-        }
-        return fileInfo;
+    public CassandraDirectory setCopyMaxInflight(int copyMaxInflight) {
+        this.copyMaxInflight = copyMaxInflight > 0 ? copyMaxInflight : DEFAULT_COPY_MAX_INFLIGHT;
+        return this;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void close() throws IOException {
-        destroy();
+    public int getDeleteMaxInflight() {
+        return deleteMaxInflight;
     }
 
     /**
-     * {@inheritDoc}
+     * Sets max number of delete statements in flight, directory-wide for
+     * background removal of deleted files' blocks, per call for
+     * {@link #deleteFiles(Collection)}'s metadata deletes.
+     * 
+     * @param deleteMaxInflight
+     * @return
+     * @since 0.1.2
      */
-    @Override
-    public IndexOutput createOutput(String name, IOContext ioContext) throws IOException {
-        FileInfo fileInfo = ensureFile(name);
-        if (fileInfo == null) {
-            throw new IOException("File [" + name + "] cannot be created!");
-        }
-        return new CassandraIndexOutput(fileInfo);
+    public CassandraDirectory setDeleteMaxInflight(int deleteMaxInflight) {
+        this.deleteMaxInflight = deleteMaxInflight > 0 ? deleteMaxInflight
+                : DEFAULT_DELETE_MAX_INFLIGHT;
+        return this;
+    }
+
+    public long getLockLeaseMs() {
+        return lockLeaseMs;
     }
 
     /**
-     * {@inheritDoc}
+     * Sets lease duration of locks: a lock's row expires (TTL) unless renewed
+     * by its holder, every third of the lease, so that a lock held by a
+     * crashed writer is released after at most one lease. {@code 0} for locks
+     * that never expire (as in v0.1.1). Rounded up to whole seconds.
+     * 
+     * @param lockLeaseMs
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setLockLeaseMs(long lockLeaseMs) {
+        this.lockLeaseMs = lockLeaseMs > 0 ? (lockLeaseMs + 999) / 1000 * 1000 : 0;
+        return this;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Sets number of threads of the directory's worker pool (used by
+     * background tasks such as warmup, block encoding and copying). Takes
+     * effect when the pool is (re)created.
+     * 
+     * @param workerThreads
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads > 0 ? workerThreads : DEFAULT_WORKER_THREADS;
+        return this;
+    }
+
+    public boolean isHedgedReads() {
+        return hedgedReads;
+    }
+
+    /**
+     * Enables/disables hedged block reads: if a block fetch has not returned
+     * after a delay (see {@link #setHedgeDelayPercentile(double)}), a
+     * duplicate request is sent and whichever answer arrives first is used.
+     * The duplicate is routed by the driver's load balancing policy, e.g. a
+     * {@code TokenAwarePolicy} with replica shuffling sends it to another
+     * replica most of the time. Block data is immutable, so hedging is always
+     * safe.
+     * 
+     * @param hedgedReads
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setHedgedReads(boolean hedgedReads) {
+        this.hedgedReads = hedgedReads;
+        return this;
+    }
+
+    public double getHedgeDelayPercentile() {
+        return hedgeDelayPercentile;
+    }
+
+    /**
+     * Sets the percentile of recent block read latencies used as hedge
+     * delay, e.g. {@code 0.95} sends a duplicate request for reads slower
+     * than p95.
+     * 
+     * @param hedgeDelayPercentile
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setHedgeDelayPercentile(double hedgeDelayPercentile) {
+        this.hedgeDelayPercentile = hedgeDelayPercentile;
+        return this;
+    }
+
+    public long getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    /**
+     * Sets lower bound of hedge delay.
+     * 
+     * @param hedgeMinDelayMs
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setHedgeMinDelayMs(long hedgeMinDelayMs) {
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+        return this;
+    }
+
+    public long getHedgeMaxDelayMs() {
+        return hedgeMaxDelayMs;
+    }
+
+    /**
+     * Sets upper bound of hedge delay, also used until enough latency samples
+     * have been collected.
+     * 
+     * @param hedgeMaxDelayMs
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setHedgeMaxDelayMs(long hedgeMaxDelayMs) {
+        this.hedgeMaxDelayMs = hedgeMaxDelayMs;
+        return this;
+    }
+
+    public double getHedgeMaxRatio() {
+        return hedgeMaxRatio;
+    }
+
+    /**
+     * Caps hedge traffic: number of duplicate requests is kept under this
+     * ratio of block reads, e.g. {@code 0.05} for at most 5% extra reads.
+     * 
+     * @param hedgeMaxRatio
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setHedgeMaxRatio(double hedgeMaxRatio) {
+        this.hedgeMaxRatio = hedgeMaxRatio;
+        return this;
+    }
+
+    /**
+     * Number of block reads sent to Cassandra (excluding read-ahead).
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    public long getBlockReads() {
+        return blockReads.get();
+    }
+
+    /**
+     * Number of duplicate (hedge) requests sent.
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    public long getHedgedBlockReads() {
+        return hedgedBlockReads.get();
+    }
+
+    /**
+     * Number of hedge requests that answered before the original request.
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /*----------------------------------------------------------------------*/
+    public ICacheFactory getCacheFactory() {
+        return cacheFactory;
+    }
+
+    public CassandraDirectory setCacheFactory(ICacheFactory cacheFactory) {
+        this.cacheFactory = cacheFactory;
+        this.cache = null;
+        return this;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public CassandraDirectory setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+        this.cache = null;
+        return this;
+    }
+
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    /**
+     * Sets size (in bytes) of the process-local off-heap block cache. Set to
+     * {@code 0} to disable the block cache. The cache is (re)created by
+     * {@link #init()}.
+     * 
+     * <p>
+     * The off-heap block cache is consulted before the {@link ICache} (if
+     * configured), which then acts as a second tier.
+     * </p>
+     * 
+     * @param blockCacheSize
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setBlockCacheSize(long blockCacheSize) {
+        this.blockCacheSize = blockCacheSize;
+        return this;
+    }
+
+    /**
+     * Gets the process-local off-heap block cache, e.g. to read its
+     * statistics.
+     * 
+     * @return {@code null} if block cache is disabled
+     * @since 0.1.2
+     */
+    public OffHeapBlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public String getDiskCacheDir() {
+        return diskCacheDir;
+    }
+
+    /**
+     * Sets local directory (preferably on fast local SSD) for the on-disk block
+     * cache. The cache is (re)opened by {@link #init()}.
+     * 
+     * <p>
+     * The on-disk block cache sits below the off-heap block cache and above
+     * the {@link ICache} (if configured).
+     * </p>
+     * 
+     * @param diskCacheDir
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setDiskCacheDir(String diskCacheDir) {
+        this.diskCacheDir = diskCacheDir;
+        return this;
+    }
+
+    public long getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
+    /**
+     * Sets size (in bytes) of the on-disk block cache. Set to {@code 0} to
+     * disable the on-disk block cache.
+     * 
+     * @param diskCacheSize
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setDiskCacheSize(long diskCacheSize) {
+        this.diskCacheSize = diskCacheSize;
+        return this;
+    }
+
+    /**
+     * Gets the on-disk block cache, e.g. to read its statistics.
+     * 
+     * @return {@code null} if on-disk block cache is disabled
+     * @since 0.1.2
+     */
+    public DiskBlockCache getDiskCache() {
+        return diskCache;
+    }
+
+    public long getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+
+    /**
+     * Sets max number of bytes of idle block buffers kept for reuse by
+     * {@link IndexOutput}s, block encoding and copying; {@code 0} disables
+     * pooling. The pool is (re)created by {@link #init()}.
+     * 
+     * @param bufferPoolSize
+     * @return
+     * @since 0.1.2
+     */
+    public CassandraDirectory setBufferPoolSize(long bufferPoolSize) {
+        this.bufferPoolSize = Math.max(0, bufferPoolSize);
+        return this;
+    }
+
+    /**
+     * Gets the block buffer pool, e.g. to read its statistics.
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    private String cacheKeyDataBlock(FileInfo fileInfo, int blockNum) {
+        return fileInfo.id() + ":" + blockNum;
+    }
+
+    private String cacheKeyFileInfo(FileInfo fileInfo) {
+        return cacheKeyFileInfo(fileInfo.name());
+    }
+
+    private String cacheKeyFileInfo(String fileName) {
+        return directoryId != null ? directoryId + "/" + fileName : fileName;
+    }
+
+    private String cacheKeyAllFiles() {
+        return cacheKeyFileInfo(cacheKeyAllFiles);
+    }
+
+    /**
+     * Formats a CQL template of a statement on metadata/data table.
+     * 
+     * @param template
+     * @param table
+     * @return
+     * @since 0.1.2
+     */
+    private String formatCql(String template, String table) {
+        return directoryId != null ? MessageFormat.format(template, table, " AND " + COL_DIR_ID
+                + "=?", " WHERE " + COL_DIR_ID + "=?", "," + COL_DIR_ID, ",?") : MessageFormat
+                .format(template, table, "", "", "", "");
+    }
+
+    /**
+     * Appends the directory id (if namespaced) to bind values of a statement
+     * on metadata/data table.
+     * 
+     * @param values
+     * @return
+     * @since 0.1.2
+     */
+    private Object[] bindValues(Object... values) {
+        return directoryId != null ? ArrayUtils.add(values, directoryId) : values;
+    }
+
+    /**
+     * Bind values of a lock statement: the directory id (if namespaced) goes
+     * between the key values and the trailing values (TTL, condition).
+     * 
+     * @param values
+     * @param trailingValues
+     * @return
+     * @since 0.1.2
+     */
+    private Object[] bindLockValues(Object[] values, Object... trailingValues) {
+        return ArrayUtils.addAll(bindValues(values), trailingValues);
+    }
+
+    /**
+     * Key of the directory's generation.
+     */
+    private String generationKey() {
+        return directoryId != null ? tableMetadata + "/" + directoryId : tableMetadata;
+    }
+
+    /*----------------------------------------------------------------------*/
+    public void init() {
+        if (sessionManager == null) {
+            myOwnSessionManager = true;
+            sessionManager = new SessionManager();
+            sessionManager.init();
+        }
+        CQL_REMOVE_FILE = formatCql(TPL_REMOVE_FILE, tableMetadata);
+        CQL_REMOVE_FILEDATA = formatCql(TPL_REMOVE_FILEDATA, tableFiledata);
+        CQL_REMOVE_FILEDATA_ALL = formatCql(TPL_REMOVE_FILEDATA_ALL, tableFiledata);
+
+        CQL_LOAD_FILEDATA = formatCql(TPL_LOAD_FILEDATA, tableFiledata);
+        CQL_WRITE_FILEDATA = formatCql(TPL_WRITE_FILEDATA, tableFiledata);
+        CQL_LOAD_FILEDATA_RANGE = formatCql(TPL_LOAD_FILEDATA_RANGE, tableFiledata);
+
+        CQL_GET_FILEINFO = formatCql(TPL_GET_FILEINFO, tableMetadata);
+        CQL_GET_ALL_FILES = formatCql(TPL_GET_ALL_FILES, tableMetadata);
+        CQL_GET_ALL_FILES_INLINE = formatCql(TPL_GET_ALL_FILES_INLINE, tableMetadata);
+
+        CQL_UPDATE_FILEINFO = formatCql(TPL_UPDATE_FILEINFO, tableMetadata);
+        CQL_GET_FILEINFO_INLINE = formatCql(TPL_GET_FILEINFO_INLINE, tableMetadata);
+        CQL_UPDATE_FILEINFO_INLINE = formatCql(TPL_UPDATE_FILEINFO_INLINE,
+                tableMetadata);
+
+        CQL_LOCK = formatCql(TPL_LOCK, tableMetadata);
+        CQL_RENEW_LOCK = formatCql(TPL_RENEW_LOCK, tableMetadata);
+        CQL_UNLOCK = formatCql(TPL_UNLOCK, tableMetadata);
+        CQL_GET_GENERATION = MessageFormat.format(TPL_GET_GENERATION, tableGeneration);
+        CQL_UPDATE_GENERATION = MessageFormat.format(TPL_UPDATE_GENERATION, tableGeneration);
+
+        if (bufferPoolSize != bufferPool.getCapacity()) {
+            bufferPool.clear();
+            bufferPool = new BufferPool(bufferPoolSize);
+        }
+
+        if (blockCache != null
+                && (blockCacheSize <= 0 || blockCacheSize != blockCache.getCapacity())) {
+            blockCache.clear();
+            blockCache = null;
+        }
+        if (blockCache == null && blockCacheSize > 0) {
+            blockCache = new OffHeapBlockCache(blockCacheSize);
+        }
+
+        if (diskCache != null) {
+            diskCache.destroy();
+            diskCache = null;
+        }
+        if (diskCacheSize > 0 && !StringUtils.isBlank(diskCacheDir)) {
+            DiskBlockCache diskCache = new DiskBlockCache(new File(diskCacheDir), diskCacheSize,
+                    BlockFormat.maxEncodedLength(BLOCK_SIZE));
+            try {
+                diskCache.init();
+                this.diskCache = diskCache;
+            } catch (Exception e) {
+                LOGGER.error("Can not open disk cache at [" + diskCacheDir
+                        + "], disk cache is disabled: " + e.getMessage(), e);
+                diskCache.destroy();
+            }
+        }
+    }
+
+    public void destroy() {
+        // removal of deleted files' blocks needs the session
+        awaitBlockPurges();
+        if (myOwnSessionManager && sessionManager != null) {
+            sessionManager.destroy();
+            sessionManager = null;
+        }
+        preparedStatements.clear();
+        synchronized (this) {
+            if (workerPool != null) {
+                workerPool.shutdownNow();
+                workerPool = null;
+            }
+            if (lockHeartbeat != null) {
+                lockHeartbeat.shutdownNow();
+                lockHeartbeat = null;
+            }
+        }
+        if (blockCache != null) {
+            blockCache.clear();
+        }
+        if (diskCache != null) {
+            diskCache.destroy();
+            diskCache = null;
+        }
+        bufferPool.clear();
+        recentlyPublished.clear();
+    }
+
+    private Session getSession() {
+        return sessionManager.getSession(cassandraHostsAndPorts, cassandraUser, cassandraPassword,
+                cassandraKeyspace);
+    }
+
+    /**
+     * Gets the thread renewing leases of locks, creating it if needed.
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    private synchronized ScheduledExecutorService getLockHeartbeat() {
+        if (lockHeartbeat == null) {
+            lockHeartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "cassdir-lock-heartbeat");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return lockHeartbeat;
+    }
+
+    /**
+     * Gets the directory's worker pool, creating it if needed.
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    private synchronized ExecutorService getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+                private AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "cassdir-worker-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return workerPool;
+    }
+
+    private ICache getCache() {
+        if (cache == null && cacheFactory != null && cacheName != null) {
+            cache = cacheFactory.createCache(cacheName);
+        }
+        return cache;
+    }
+
+    /**
+     * Executes a CQL statement asynchronously.
+     * 
+     * @param cql
+     * @param consistencyLevel
+     * @param bindValues
+     * @return
+     * @since 0.1.2
+     */
+    private ResultSetFuture executeAsync(String cql, ConsistencyLevel consistencyLevel,
+            Object... bindValues) {
+        return executePagedAsync(cql, consistencyLevel, 0, bindValues);
+    }
+
+    /**
+     * Executes a CQL statement (on metadata/data table, see
+     * {@link #bindValues(Object...)}) asynchronously, with a specific page
+     * size.
+     * 
+     * @param cql
+     * @param consistencyLevel
+     * @param fetchSize
+     *            page size, {@code 0} to use driver's default
+     * @param bindValues
+     * @return
+     * @since 0.1.2
+     */
+    private ResultSetFuture executePagedAsync(String cql, ConsistencyLevel consistencyLevel,
+            int fetchSize, Object... bindValues) {
+        BoundStatement stm = bindStatement(cql, consistencyLevel, bindValues);
+        if (fetchSize > 0) {
+            stm.setFetchSize(fetchSize);
+        }
+        return getSession().executeAsync(stm);
+    }
+
+    /**
+     * Prepares a CQL statement, once per directory.
+     * 
+     * @param cql
+     * @return
+     * @since 0.1.2
+     */
+    private PreparedStatement prepareStatement(String cql) {
+        PreparedStatement pstm = preparedStatements.get(cql);
+        if (pstm == null) {
+            pstm = getSession().prepare(cql);
+            PreparedStatement existing = preparedStatements.putIfAbsent(cql, pstm);
+            if (existing != null) {
+                pstm = existing;
+            }
+        }
+        return pstm;
+    }
+
+    /**
+     * Prepares (once) and binds a CQL statement on metadata/data table.
+     * 
+     * @param cql
+     * @param consistencyLevel
+     * @param bindValues
+     * @return
+     * @since 0.1.2
+     */
+    private BoundStatement bindStatement(String cql, ConsistencyLevel consistencyLevel,
+            Object... bindValues) {
+        BoundStatement stm = prepareStatement(cql).bind(bindValues(bindValues));
+        stm.setConsistencyLevel(consistencyLevel);
+        return stm;
+    }
+
+    /**
+     * Extracts block data from a result row.
+     * 
+     * @param row
+     * @return a read-only {@link ByteBuffer} spanning exactly the block's data
+     *         (position {@code 0}), or {@code null}
+     */
+    private static ByteBuffer blockData(Row row) {
+        ByteBuffer data = row != null ? row.getBytes(COL_BLOCK_DATA) : null;
+        return data != null ? data.slice().asReadOnlyBuffer() : null;
+    }
+
+    private static byte[] toByteArray(ByteBuffer data) {
+        byte[] result = new byte[data.remaining()];
+        data.duplicate().get(result);
+        return result;
+    }
+
+    /**
+     * An asynchronous fetch of a contiguous range of a file's blocks, fired by
+     * read-ahead.
+     * 
+     * @since 0.1.2
+     */
+    private static class BlockFetch {
+        private final ResultSetFuture future;
+        private final int fromBlock, toBlock;
+        private int pending;
+        private Map<Integer, ByteBuffer> blocks;
+
+        /**
+         * @param future
+         * @param fromBlock
+         *            first block (inclusive)
+         * @param toBlock
+         *            last block (exclusive)
+         */
+        public BlockFetch(ResultSetFuture future, int fromBlock, int toBlock) {
+            this.future = future;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.pending = toBlock - fromBlock;
+        }
+
+        /**
+         * Waits for the fetch to complete and takes a block out of it.
+         * 
+         * @param blockNum
+         * @return the block's data, {@code null} if the block does not exist
+         */
+        public synchronized ByteBuffer take(int blockNum) {
+            pending--;
+            if (blocks == null) {
+                blocks = new HashMap<Integer, ByteBuffer>();
+                for (Row row : future.getUninterruptibly()) {
+                    ByteBuffer data = blockData(row);
+                    if (data != null) {
+                        blocks.put(row.getInt(COL_BLOCK_NUM), data);
+                    }
+                }
+            }
+            return blocks.remove(blockNum);
+        }
+
+        /**
+         * Marks a block as no longer needed. The fetch is cancelled once all of
+         * its blocks are discarded.
+         * 
+         * @param blockNum
+         */
+        public synchronized void discard(int blockNum) {
+            if (--pending <= 0) {
+                if (blocks != null) {
+                    blocks.clear();
+                } else {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fires an asynchronous fetch of a range of a file's blocks, used by
+     * read-ahead.
+     * 
+     * <p>
+     * Leading blocks that are already in the off-heap block cache are skipped.
+     * With {@link FileDataLayout#CLUSTERED} the rest of the range is fetched
+     * by a single (paged) range query; otherwise only the first block is
+     * fetched.
+     * </p>
+     * 
+     * @param fileInfo
+     * @param fromBlock
+     *            first block (inclusive)
+     * @param toBlock
+     *            last block (exclusive)
+     * @return {@code null} if all blocks are already in the off-heap block
+     *         cache or the directory's read-ahead limit has been reached
+     * @since 0.1.2
+     */
+    private BlockFetch prefetchFileBlocks(FileInfo fileInfo, int fromBlock, int toBlock) {
+        if (fileInfo.data() != null) {
+            return null;
+        }
+        BlockKey key = fileInfo.idKey();
+        while (fromBlock < toBlock && blockCache != null && key != null
+                && blockCache.contains(key.idHi, key.idLo, fromBlock)) {
+            fromBlock++;
+        }
+        if (fromBlock >= toBlock) {
+            return null;
+        }
+        final boolean rangeRead = fileDataLayout == FileDataLayout.CLUSTERED;
+        if (!rangeRead) {
+            toBlock = fromBlock + 1;
+        }
+        final int numBlocks = toBlock - fromBlock;
+        if (readAheadInflight.addAndGet(numBlocks) > readAheadMaxInflight) {
+            readAheadInflight.addAndGet(-numBlocks);
+            return null;
+        }
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("prefetchFileBlocks(" + fileInfo.name() + " - " + fileInfo.id() + "/"
+                    + fromBlock + "-" + toBlock + ")");
+        }
+        ResultSetFuture future;
+        try {
+            future = rangeRead ? executePagedAsync(CQL_LOAD_FILEDATA_RANGE,
+                    consistencyLevelReadFileData, rangeReadFetchSize, fileInfo.id(), fromBlock,
+                    toBlock) : executeAsync(CQL_LOAD_FILEDATA, consistencyLevelReadFileData,
+                    fileInfo.id(), fromBlock);
+        } catch (RuntimeException e) {
+            readAheadInflight.addAndGet(-numBlocks);
+            throw e;
+        }
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                readAheadInflight.addAndGet(-numBlocks);
+            }
+        }, SAME_THREAD_EXECUTOR);
+        return new BlockFetch(future, fromBlock, toBlock);
+    }
+
+    /**
+     * Loads a file's block data from storage, using the result of a previous
+     * read-ahead if available.
+     * 
+     * @param fileInfo
+     * @param blockNum
+     * @param prefetch
+     *            result of {@link #prefetchFileBlocks(FileInfo, int, int)}
+     *            that covers the block, can be {@code null}
+     * @param scratch
+     *            see {@link #readCachedFileBlock(FileInfo, int, ByteBuffer)}
+     * @return {@code null} if file and/or block does not exist, otherwise a
+     *         read-only {@link ByteBuffer} holding the block's (decoded) data
+     *         (which can be shorter than the file's block size)
+     * @throws IOException
+     *             if the block can not be decoded
+     * @since 0.1.2
+     */
+    private ByteBuffer readFileBlock(FileInfo fileInfo, int blockNum, BlockFetch prefetch,
+            ByteBuffer scratch) throws IOException {
+        byte[] inlineData = fileInfo.data();
+        if (inlineData != null) {
+            return blockNum == 0 ? ByteBuffer.wrap(inlineData).asReadOnlyBuffer() : null;
+        }
+        ByteBuffer data = readStoredFileBlock(fileInfo, blockNum, prefetch, scratch);
+        return data != null ? BlockFormat.decode(data, "block [" + blockNum + "] of file ["
+                + fileInfo.name() + "/" + fileInfo.id() + "]") : null;
+    }
+
+    /**
+     * Loads a file's block as stored (i.e. encoded, see {@link BlockFormat})
+     * from cache tiers or Cassandra.
+     * 
+     * @param fileInfo
+     * @param blockNum
+     * @param prefetch
+     * @param scratch
+     * @return
+     * @since 0.1.2
+     */
+    private ByteBuffer readStoredFileBlock(FileInfo fileInfo, int blockNum, BlockFetch prefetch,
+            ByteBuffer scratch) {
+        ByteBuffer data = null;
+        if (prefetch != null) {
+            try {
+                data = prefetch.take(blockNum);
+            } catch (Exception e) {
+                LOGGER.warn("Read-ahead of [" + fileInfo.name() + "/" + blockNum + "] failed: "
+                        + e.getMessage());
+            }
+            if (data != null) {
+                traceReadFileBlock(fileInfo, blockNum, "read-ahead hit");
+                cacheFileBlock(fileInfo, blockNum, data, true, true);
+                return data;
+            }
+        }
+
+        data = readCachedFileBlock(fileInfo, blockNum, scratch);
+        if (data != null) {
+            return data;
+        }
+
+        traceReadFileBlock(fileInfo, blockNum, "cache missed");
+        blockReads.incrementAndGet();
+        Row row;
+        if (hedgedReads) {
+            row = loadFileBlockHedged(fileInfo, blockNum);
+        } else {
+            Session session = getSession();
+            row = CqlUtils.executeOne(session, CQL_LOAD_FILEDATA, consistencyLevelReadFileData,
+                    bindValues(fileInfo.id(), blockNum));
+        }
+        data = blockData(row);
+        if (data != null) {
+            cacheFileBlock(fileInfo, blockNum, data, true, true);
+        }
+        return data;
+    }
+
+    /**
+     * Loads a file's block data from the cache tiers (off-heap block cache,
+     * local disk cache, {@link ICache}), back-filling upper tiers.
+     * 
+     * @param fileInfo
+     * @param blockNum
+     * @param scratch
+     *            buffer of at least {@link BlockFormat#maxEncodedLength(int)}
+     *            bytes (of the file's block size), cleared, that receives a
+     *            block found in the off-heap block cache or the disk cache so
+     *            that hits allocate nothing; the result is then backed by it
+     *            (and its position is past the block). If {@code null}, a
+     *            buffer is allocated.
+     * @return {@code null} if the block is not cached
+     * @since 0.1.2
+     */
+    private ByteBuffer readCachedFileBlock(FileInfo fileInfo, int blockNum, ByteBuffer scratch) {
+        ByteBuffer data;
+        ByteBuffer dst = scratch != null || (blockCache == null && diskCache == null) ? scratch
+                : ByteBuffer.allocate(BlockFormat.maxEncodedLength(fileInfo.blockSize()));
+        BlockKey key = fileInfo.idKey();
+        if (blockCache != null && key != null) {
+            dst.clear();
+            if (blockCache.get(key.idHi, key.idLo, blockNum, dst) >= 0) {
+                traceReadFileBlock(fileInfo, blockNum, "block cache hit");
+                data = dst.duplicate();
+                data.flip();
+                return data.asReadOnlyBuffer();
+            }
+        }
+
+        if (diskCache != null && key != null) {
+            dst.clear();
+            if (diskCache.get(key.idHi, key.idLo, blockNum, dst) >= 0) {
+                traceReadFileBlock(fileInfo, blockNum, "disk cache hit");
+                data = dst.duplicate();
+                data.flip();
+                data = data.asReadOnlyBuffer();
+                cacheFileBlock(fileInfo, blockNum, data, false, false);
+                return data;
+            }
+        }
+
+        ICache cache = getCache();
+        byte[] dataArr = (byte[]) (cache != null ? cache.get(cacheKeyDataBlock(fileInfo,
+                blockNum)) : null);
+        if (dataArr != null) {
+            traceReadFileBlock(fileInfo, blockNum, "cache hit");
+            data = ByteBuffer.wrap(dataArr).asReadOnlyBuffer();
+            cacheFileBlock(fileInfo, blockNum, data, true, false);
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * Current hedge delay, in nanoseconds.
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    private long hedgeDelayNanos() {
+        long delay = blockReadLatency.getCount() >= HEDGE_MIN_SAMPLES ? blockReadLatency
+                .getPercentile(hedgeDelayPercentile) : -1;
+        long min = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMs);
+        long max = Math.max(min, TimeUnit.MILLISECONDS.toNanos(hedgeMaxDelayMs));
+        return delay < 0 ? max : Math.max(min, Math.min(max, delay));
+    }
+
+    /**
+     * Reserves budget for a hedge request.
+     * 
+     * @return {@code false} if hedge traffic cap has been reached
+     * @since 0.1.2
+     */
+    private boolean acquireHedge() {
+        long allowed = (long) (blockReads.get() * hedgeMaxRatio) + HEDGE_BURST;
+        if (hedgedBlockReads.incrementAndGet() > allowed) {
+            hedgedBlockReads.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private static Row resultRow(ResultSetFuture future) {
+        try {
+            return future.get().one();
+        } catch (InterruptedException e) {
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause
+                    : new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Loads a file's block from Cassandra, sending a duplicate request if the
+     * first one does not return within the hedge delay.
+     * 
+     * @param fileInfo
+     * @param blockNum
+     * @return
+     * @since 0.1.2
+     */
+    private Row loadFileBlockHedged(FileInfo fileInfo, int blockNum) {
+        final long start = System.nanoTime();
+        final ResultSetFuture primary = executeAsync(CQL_LOAD_FILEDATA,
+                consistencyLevelReadFileData, fileInfo.id(), blockNum);
+        primary.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (!primary.isCancelled()) {
+                    blockReadLatency.record(System.nanoTime() - start);
+                }
+            }
+        }, SAME_THREAD_EXECUTOR);
+        try {
+            return primary.get(hedgeDelayNanos(), TimeUnit.NANOSECONDS).one();
+        } catch (TimeoutException e) {
+            // fall through to hedge
+        } catch (InterruptedException e) {
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause
+                    : new RuntimeException(cause);
+        }
+        if (!acquireHedge()) {
+            return resultRow(primary);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Hedging read of [" + fileInfo.name() + "/" + blockNum + "] after "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+        final ResultSetFuture hedge = executeAsync(CQL_LOAD_FILEDATA,
+                consistencyLevelReadFileData, fileInfo.id(), blockNum);
+        final BlockingQueue<ResultSetFuture> completed = new ArrayBlockingQueue<ResultSetFuture>(2);
+        for (final ResultSetFuture future : new ResultSetFuture[] { primary, hedge }) {
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    completed.offer(future);
+                }
+            }, SAME_THREAD_EXECUTOR);
+        }
+        try {
+            ResultSetFuture first = completed.take();
+            ResultSetFuture other = first == primary ? hedge : primary;
+            Row row;
+            try {
+                row = resultRow(first);
+            } catch (RuntimeException e) {
+                // first answer is an error, wait for the other one
+                first = other;
+                row = resultRow(completed.take());
+            }
+            if (first == hedge) {
+                hedgeWins.incrementAndGet();
+                blockReadLatency.record(System.nanoTime() - start);
+                primary.cancel(true);
+            } else {
+                hedge.cancel(true);
+            }
+            return row;
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            hedge.cancel(true);
+            throw new ThreadInterruptedException(e);
+        }
+    }
+
+    private void traceReadFileBlock(FileInfo fileInfo, int blockNum, String msg) {
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("readFileBlock(" + fileInfo.name() + " - " + fileInfo.id() + "/"
+                    + blockNum + ") --> " + msg + "!");
+        }
+    }
+
+    /**
+     * Puts a block loaded from a lower tier to the upper cache tiers.
+     * 
+     * @param fileInfo
+     * @param blockNum
+     * @param data
+     * @param toDiskCache
+     *            also put to the local disk cache
+     * @param toCache
+     *            also put to the {@link ICache}
+     * @since 0.1.2
+     */
+    private void cacheFileBlock(FileInfo fileInfo, int blockNum, ByteBuffer data,
+            boolean toDiskCache, boolean toCache) {
+        BlockKey key = fileInfo.idKey();
+        if (blockCache != null && key != null) {
+            blockCache.put(key.idHi, key.idLo, blockNum, data, false);
+        }
+        if (toDiskCache && diskCache != null && key != null) {
+            diskCache.put(key.idHi, key.idLo, blockNum, data);
+        }
+        ICache cache = toCache ? getCache() : null;
+        if (cache != null) {
+            cache.set(cacheKeyDataBlock(fileInfo, blockNum), toByteArray(data));
+        }
+    }
+
+    /**
+     * Encodes a file's block data (see {@link #setBlockCodec(BlockCodec)}) and
+     * writes it to storage (asynchronously).
+     * 
+     * @param fileInfo
+     * @param blockNum
+     * @param buffer
+     *            not retained, can be reused as soon as this method returns
+     * @param length
+     *            number of bytes of {@code buffer} to write; the last block of
+     *            a file is not padded
+     * @return
+     * @throws IOException
+     */
+    private ResultSetFuture writeFileBlock(FileInfo fileInfo, int blockNum, byte[] buffer,
+            int length) throws IOException {
+        byte[] data = bufferPool.lease(BlockFormat.maxEncodedLength(Math.max(length,
+                fileInfo.blockSize())));
+        int dataLength;
+        try {
+            dataLength = BlockFormat.encode(blockCodec, buffer, length, data);
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(data);
+            throw e;
+        }
+        return writeStoredFileBlock(fileInfo, blockNum, data, dataLength);
+    }
+
+    /**
+     * Writes a file's block, as stored (i.e. already encoded), to storage
+     * (asynchronously).
+     * 
+     * @param fileInfo
+     * @param blockNum
+     * @param data
+     *            leased from the buffer pool, returned to the pool once the
+     *            write completes
+     * @param length
+     *            number of bytes of {@code data} to write
+     * @return
+     * @since 0.1.2
+     */
+    private ResultSetFuture writeStoredFileBlock(FileInfo fileInfo, int blockNum,
+            final byte[] data, int length) {
+        final ResultSetFuture future;
+        try {
+            future = executeAsync(CQL_WRITE_FILEDATA, consistencyLevelWriteFileData,
+                    ByteBuffer.wrap(data, 0, length), fileInfo.id(), blockNum);
+        } catch (RuntimeException e) {
+            bufferPool.release(data);
+            throw e;
+        }
+        // the driver reads the buffer until the request completes
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                bufferPool.release(data);
+            }
+        }, SAME_THREAD_EXECUTOR);
+        ICache cache = getCache();
+        if (cache != null) {
+            final String CACHE_KEY = cacheKeyDataBlock(fileInfo, blockNum);
+            cache.set(CACHE_KEY, Arrays.copyOf(data, length));
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("writeFileBlock(" + fileInfo.name() + " - " + fileInfo.id() + "/"
+                        + blockNum + ") --> update cache!");
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Gets a file's metadata info, with its inline data (if any).
+     * 
+     * @param filename
+     * @return
+     */
+    private FileInfo getFileInfo(String filename) {
+        return getFileInfo(filename, true);
+    }
+
+    /**
+     * Gets a file's metadata info.
+     * 
+     * @param filename
+     * @param withData
+     *            if {@code false}, metadata-only info cached by a listing
+     *            (see {@link #getAllFileInfo(long)}) can be returned; otherwise
+     *            the file's inline data is loaded if the file is small enough
+     *            to be stored inline
+     * @return
+     * @since 0.1.2
+     */
+    private FileInfo getFileInfo(String filename, boolean withData) {
+        ICache cache = getCache();
+        final String CACHE_KEY = cacheKeyFileInfo(filename);
+        FileInfo fileInfo = cache != null ? FileInfoCodec.decode(cache.get(CACHE_KEY)) : null;
+        if (withData && fileInfo != null && fileInfo.isMetadataOnly() && inlineFileThreshold > 0
+                && (fileInfo.isInline() || (fileInfo.size() > 0
+                        && fileInfo.size() <= inlineFileThreshold))) {
+            // listed without its inline data
+            fileInfo = null;
+        }
+        if (fileInfo == null) {
+            Session session = getSession();
+            Row row = CqlUtils.executeOne(session, inlineFileThreshold > 0 ? CQL_GET_FILEINFO_INLINE
+                    : CQL_GET_FILEINFO, consistencyLevelReadFileInfo, bindValues(filename));
+            if (row != null) {
+                fileInfo = FileInfo.newInstance(row);
+                // lock rows (no size) come and go with their lease
+                if (cache != null && !row.isNull(COL_FILE_SIZE)) {
+                    cache.set(CACHE_KEY, FileInfoCodec.encode(fileInfo));
+                }
+            }
+        }
+        return fileInfo;
+    }
+
+    /**
+     * Gets metadata info of all files, with a single (paged) scan of the
+     * metadata table. Each file's metadata info is cached along the way. Lock
+     * rows are skipped.
+     * 
+     * <p>
+     * Only metadata columns are scanned: returned (and cached)
+     * {@link FileInfo}s are metadata-only, inline data of small files is
+     * loaded when needed by {@link #getFileInfo(String)}. Inline files are
+     * still known as such (see {@link FileInfo#isInline()}) if inlining is
+     * enabled.
+     * </p>
+     * 
+     * <p>
+     * The cached listing is stored together with the directory's generation
+     * it was read at (see {@link #getGeneration()}), and reused by callers
+     * that hold the same generation: changes to the directory never need to
+     * invalidate it.
+     * </p>
+     * 
+     * @param generation
+     *            directory's generation read before calling, {@code -1} to
+     *            read it (only if the cache is configured)
+     * @return
+     */
+    private FileInfo[] getAllFileInfo(long generation) {
+        if (LOGGER.isTraceEnabled()) {
+            final String logMsg = "getAllFileInfo(" + generation + ") is called";
+            LOGGER.trace(logMsg);
+        }
+        ICache cache = getCache();
+        final String CACHE_KEY = cacheKeyAllFiles();
+        if (cache != null && generation < 0) {
+            generation = getGeneration();
+        }
+        List<FileInfo> result = cache != null ? FileInfoCodec.decodeList(cache.get(CACHE_KEY),
+                generation) : null;
+        if (result == null) {
+            ResultSet rs = executePagedAsync(inlineFileThreshold > 0 ? CQL_GET_ALL_FILES_INLINE
+                    : CQL_GET_ALL_FILES, consistencyLevelReadFileInfo, listAllFetchSize)
+                    .getUninterruptibly();
+            result = new ArrayList<FileInfo>();
+            // iterating fetches next pages as needed
+            for (Row row : rs) {
+                if (row.isNull(COL_FILE_SIZE)) {
+                    // lock rows are not files
+                    continue;
+                }
+                FileInfo fileInfo = FileInfo.newInstance(row);
+                result.add(fileInfo);
+                if (cache != null) {
+                    cache.set(cacheKeyFileInfo(fileInfo), FileInfoCodec.encode(fileInfo));
+                }
+            }
+            if (cache != null) {
+                // read at (or after) the generation
+                cache.set(CACHE_KEY, FileInfoCodec.encodeList(generation, result));
+            }
+        }
+        return result != null ? result.toArray(FileInfo.EMPTY_ARRAY) : FileInfo.EMPTY_ARRAY;
+    }
+
+    /**
+     * Updates a file's metadata.
+     * 
+     * @param fileInfo
+     * @return
+     */
+    private FileInfo updateFileInfo(FileInfo fileInfo) {
+        if (LOGGER.isTraceEnabled()) {
+            String logMsg = "updateFile(" + fileInfo.name() + "/" + fileInfo.id() + "/"
+                    + fileInfo.size() + ") is called";
+            LOGGER.trace(logMsg);
+        }
+        executeFileListChange(consistencyLevelWriteFileInfo, newFileInfoUpdate(fileInfo));
+        ICache cache = getCache();
+        if (cache != null) {
+            final String CACHE_KEY = cacheKeyFileInfo(fileInfo);
+            cache.set(CACHE_KEY, FileInfoCodec.encode(fileInfo));
+        }
+        return fileInfo;
+    }
+
+    /**
+     * Builds the statement writing a file's metadata row. When inlining is
+     * enabled (see {@link #setInlineFileThreshold(int)}), the {@code filedata}
+     * column is always written, {@code null} if the file is not inline, so
+     * that inline data previously stored under the same name never outlives
+     * it.
+     * 
+     * @param fileInfo
+     * @return
+     * @since 0.1.2
+     */
+    private BoundStatement newFileInfoUpdate(FileInfo fileInfo) {
+        byte[] inlineData = fileInfo.data();
+        if (inlineData != null || inlineFileThreshold > 0) {
+            return bindStatement(CQL_UPDATE_FILEINFO_INLINE, consistencyLevelWriteFileInfo,
+                    fileInfo.size(), fileInfo.id(), fileInfo.blockSize(),
+                    inlineData != null ? ByteBuffer.wrap(inlineData) : null, fileInfo.name());
+        }
+        return bindStatement(CQL_UPDATE_FILEINFO, consistencyLevelWriteFileInfo, fileInfo.size(),
+                fileInfo.id(), fileInfo.blockSize(), fileInfo.name());
+    }
+
+    /**
+     * Gets the directory's generation: a value increased by every change to
+     * the directory's list of files (file published, deleted or renamed),
+     * written in the same batch as the change itself. It is read with a
+     * single small query, so that pollers (e.g. searchers waiting for a new
+     * commit) can cheaply detect that nothing changed, then list files at the
+     * new generation with {@link #listAll(long)}.
+     * 
+     * <p>
+     * Generations increase as long as changes are made by one instance at a
+     * time, e.g. the holder of {@code IndexWriter}'s write lock: see
+     * {@link #reserveGenerations(int)}.
+     * </p>
+     * 
+     * @return {@code 0} if the directory has never been changed
+     * @since 0.1.2
+     */
+    public long getGeneration() {
+        Session session = getSession();
+        Row row = CqlUtils.executeOne(session, CQL_GET_GENERATION, consistencyLevelReadFileInfo,
+                generationKey());
+        return row != null && !row.isNull(COL_GENERATION) ? row.getLong(COL_GENERATION) : 0;
+    }
+
+    /**
+     * Reserves the next {@code count} values of the directory's generation.
+     * 
+     * <p>
+     * Values are derived from the stored generation, read by this instance's
+     * first change and again by the first change after it obtains a lock
+     * (e.g. {@code IndexWriter}'s write lock, see
+     * {@link #forgetGeneration()}): a new writer continues from its
+     * predecessor's last value even if its clock is behind. In between, the
+     * writer goes on from its own last value, without a read. Values are also
+     * at least the current time in microseconds.
+     * </p>
+     * 
+     * @param count
+     * @return the first of the reserved values
+     * @since 0.1.2
+     */
+    private long reserveGenerations(int count) {
+        synchronized (generationLock) {
+            if (lastGeneration < 0) {
+                lastGeneration = getGeneration();
+            }
+            long first = Math.max(lastGeneration + 1, System.currentTimeMillis() * 1000);
+            lastGeneration = first + count - 1;
+            return first;
+        }
+    }
+
+    /**
+     * Makes the next change read the stored generation, e.g. after another
+     * instance may have changed the directory.
+     * 
+     * @since 0.1.2
+     */
+    private void forgetGeneration() {
+        synchronized (generationLock) {
+            lastGeneration = -1;
+        }
+    }
+
+    /**
+     * Builds the statement changing the directory's generation.
+     * 
+     * @param generation
+     * @since 0.1.2
+     */
+    private BoundStatement newGenerationStatement(long generation) {
+        BoundStatement stm = prepareStatement(CQL_UPDATE_GENERATION).bind(generation, generation,
+                generationKey());
+        stm.setConsistencyLevel(consistencyLevelWriteFileInfo);
+        return stm;
+    }
+
+    /**
+     * Builds a logged batch of statements changing the directory's list of
+     * files, together with the change of the directory's generation, so that
+     * both are applied atomically in one round trip.
+     * 
+     * @param consistencyLevel
+     * @param generation
+     *            see {@link #reserveGenerations(int)}
+     * @param statements
+     * @return
+     * @since 0.1.2
+     */
+    private BatchStatement newFileListChange(ConsistencyLevel consistencyLevel, long generation,
+            Statement... statements) {
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.LOGGED);
+        for (Statement stm : statements) {
+            batch.add(stm);
+        }
+        batch.add(newGenerationStatement(generation));
+        batch.setConsistencyLevel(consistencyLevel);
+        return batch;
+    }
+
+    /**
+     * Executes statements changing the directory's list of files, see
+     * {@link #newFileListChange(ConsistencyLevel, long, Statement...)}.
+     * 
+     * @param consistencyLevel
+     * @param statements
+     * @since 0.1.2
+     */
+    private void executeFileListChange(ConsistencyLevel consistencyLevel,
+            Statement... statements) {
+        getSession().execute(newFileListChange(consistencyLevel, reserveGenerations(1),
+                statements));
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Warms up files that have not been warmed up yet, according to a warmup
+     * policy. Call it before opening/reopening a {@code DirectoryReader} so
+     * that only new segments' files are loaded.
+     * 
+     * @param policy
+     * @return
+     * @throws IOException
+     * @since 0.1.2
+     */
+    public WarmupStats warmup(WarmupPolicy policy) throws IOException {
+        List<FileInfo> files = new ArrayList<FileInfo>();
+        for (FileInfo fileInfo : getAllFileInfo(-1)) {
+            if (policy.accept(fileInfo.name()) && !warmedUpFileIds.contains(fileInfo.id())) {
+                files.add(fileInfo);
+            }
+        }
+        return warmupFiles(policy, files);
+    }
+
+    /**
+     * Warms up specified files (files not accepted by the policy are ignored).
+     * 
+     * @param policy
+     * @param fileNames
+     * @return
+     * @throws IOException
+     * @since 0.1.2
+     */
+    public WarmupStats warmup(WarmupPolicy policy, Collection<String> fileNames)
+            throws IOException {
+        List<FileInfo> files = new ArrayList<FileInfo>();
+        for (String fileName : fileNames) {
+            FileInfo fileInfo = policy.accept(fileName) ? getFileInfo(fileName) : null;
+            if (fileInfo != null) {
+                files.add(fileInfo);
+            }
+        }
+        return warmupFiles(policy, files);
+    }
+
+    /**
+     * Creates a warmer for newly merged segments, to be used with
+     * {@link org.apache.lucene.index.IndexWriterConfig#setMergedSegmentWarmer(IndexWriter.IndexReaderWarmer)}
+     * .
+     * 
+     * @param policy
+     * @return
+     * @since 0.1.2
+     */
+    public IndexWriter.IndexReaderWarmer newMergedSegmentWarmer(final WarmupPolicy policy) {
+        return new IndexWriter.IndexReaderWarmer() {
+            @Override
+            public void warm(LeafReader reader) throws IOException {
+                if (reader instanceof SegmentReader) {
+                    warmup(policy, ((SegmentReader) reader).getSegmentInfo().files());
+                }
+            }
+        };
+    }
+
+    private WarmupStats warmupFiles(final WarmupPolicy policy, List<FileInfo> files)
+            throws IOException {
+        final WarmupStats stats = new WarmupStats(files.size());
+        if (blockCache == null && diskCache == null && getCache() == null) {
+            LOGGER.warn("No block cache is configured, warmup is skipped.");
+            stats.done();
+            return stats;
+        }
+        final Semaphore permits = new Semaphore(policy.getParallelism());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final FileInfo fileInfo : files) {
+                permits.acquire();
+                futures.add(getWorkerPool().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            warmupFile(policy, fileInfo, stats);
+                            warmedUpFileIds.add(fileInfo.id());
+                            stats.fileDone(false);
+                        } catch (Exception e) {
+                            LOGGER.warn("Error while warming up file [" + fileInfo.name() + "]: "
+                                    + e.getMessage(), e);
+                            stats.fileDone(true);
+                        } finally {
+                            permits.release();
+                        }
+                        WarmupPolicy.ProgressListener listener = policy.getProgressListener();
+                        if (listener != null) {
+                            listener.onFileWarmedUp(fileInfo.name(), stats);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        stats.done();
+        LOGGER.info("Warmup finished: " + stats);
+        return stats;
+    }
+
+    private void warmupFile(WarmupPolicy policy, FileInfo fileInfo, WarmupStats stats) {
+        long size = fileInfo.size();
+        if (fileInfo.isMetadataOnly()
+                && (fileInfo.isInline() || (size > 0 && size <= inlineFileThreshold))) {
+            // listed without its inline data
+            fileInfo = getFileInfo(fileInfo.name());
+        }
+        if (size <= 0 || fileInfo == null || fileInfo.data() != null) {
+            return;
+        }
+        int blockSize = fileInfo.blockSize();
+        int numBlocks = (int) ((size - 1) / blockSize) + 1;
+        if (policy.isPreload(fileInfo.name())) {
+            boolean pin = policy.isPin(fileInfo.name()) && blockCache != null;
+            warmupFileBlocks(fileInfo, 0, numBlocks, pin, stats);
+        } else {
+            long headerFooterBytes = Math.min(size, policy.getHeaderFooterBytes());
+            int headerEnd = (int) ((headerFooterBytes - 1) / blockSize) + 1;
+            int footerStart = (int) ((size - headerFooterBytes) / blockSize);
+            warmupFileBlocks(fileInfo, 0, headerEnd, false, stats);
+            warmupFileBlocks(fileInfo, Math.max(headerEnd, footerStart), numBlocks, false, stats);
+        }
+    }
+
+    /**
+     * Loads a range of a file's blocks into cache tiers, chunk by chunk. Each
+     * chunk's missing blocks are fetched with one range query (
+     * {@link FileDataLayout#CLUSTERED}) or concurrent single-block queries.
+     * 
+     * @param fileInfo
+     * @param fromBlock
+     *            first block (inclusive)
+     * @param toBlock
+     *            last block (exclusive)
+     * @param pin
+     * @param stats
+     */
+    private void warmupFileBlocks(FileInfo fileInfo, int fromBlock, int toBlock, boolean pin,
+            WarmupStats stats) {
+        List<Integer> missing = new ArrayList<Integer>();
+        ByteBuffer scratch = null;
+        BlockKey key = fileInfo.idKey();
+        for (int chunk = fromBlock; chunk < toBlock; chunk += rangeReadFetchSize) {
+            int chunkEnd = Math.min(toBlock, chunk + rangeReadFetchSize);
+            missing.clear();
+            for (int blockNum = chunk; blockNum < chunkEnd; blockNum++) {
+                boolean cached = blockCache != null && key != null
+                        && blockCache.contains(key.idHi, key.idLo, blockNum);
+                if (!cached) {
+                    if (scratch == null && (blockCache != null || diskCache != null)) {
+                        scratch = ByteBuffer.allocate(BlockFormat.maxEncodedLength(fileInfo
+                                .blockSize()));
+                    }
+                    cached = readCachedFileBlock(fileInfo, blockNum, scratch) != null;
+                }
+                if (cached) {
+                    stats.blockDone(false, 0, pin && key != null
+                            && blockCache.pin(key.idHi, key.idLo, blockNum));
+                } else {
+                    missing.add(blockNum);
+                }
+            }
+            if (missing.size() == 0) {
+                continue;
+            }
+            if (fileDataLayout == FileDataLayout.CLUSTERED) {
+                int first = missing.get(0), last = missing.get(missing.size() - 1);
+                for (Row row : executePagedAsync(CQL_LOAD_FILEDATA_RANGE,
+                        consistencyLevelReadFileData, rangeReadFetchSize, fileInfo.id(), first,
+                        last + 1).getUninterruptibly()) {
+                    int blockNum = row.getInt(COL_BLOCK_NUM);
+                    if (missing.contains(blockNum)) {
+                        warmupFileBlock(fileInfo, blockNum, blockData(row), pin, stats);
+                    }
+                }
+            } else {
+                List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>();
+                for (int blockNum : missing) {
+                    futures.add(executeAsync(CQL_LOAD_FILEDATA, consistencyLevelReadFileData,
+                            fileInfo.id(), blockNum));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    warmupFileBlock(fileInfo, missing.get(i), blockData(futures.get(i)
+                            .getUninterruptibly().one()), pin, stats);
+                }
+            }
+        }
+    }
+
+    private void warmupFileBlock(FileInfo fileInfo, int blockNum, ByteBuffer data, boolean pin,
+            WarmupStats stats) {
+        if (data != null) {
+            cacheFileBlock(fileInfo, blockNum, data, true, true);
+            BlockKey key = fileInfo.idKey();
+            stats.blockDone(true, data.remaining(),
+                    pin && key != null && blockCache.pin(key.idHi, key.idLo, blockNum));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        destroy();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexOutput createOutput(String name, IOContext ioContext) throws IOException {
+        // file's metadata is written when it is closed
+        FileInfo fileInfo = FileInfo.newInstance(name).withBlockSize(
+                blockSizePolicy != null ? blockSizePolicy.blockSize(name, ioContext) : BLOCK_SIZE);
+        CassandraIndexOutput output = new CassandraIndexOutput(fileInfo);
+        openOutputs.put(name, output);
+        return output;
+    }
+
+    /**
+     * {@inheritDoc}
      */
     @Override
     public IndexInput openInput(String name, IOContext ioContext) throws IOException {
@@ -507,34 +2370,35 @@ public class CassandraDirectory extends BaseDirectory {
 
     /**
      * {@inheritDoc}
+     * 
+     * <p>
+     * The file's metadata is removed before returning; its blocks are removed
+     * from storage in the background (since v0.1.2, see
+     * {@link #awaitBlockPurges()}).
+     * </p>
      */
     @Override
     public void deleteFile(String name) throws IOException {
-        FileInfo fileInfo = getFileInfo(name);
+        FileInfo fileInfo = getFileInfo(name, false);
         if (fileInfo != null) {
             if (LOGGER.isTraceEnabled()) {
                 final String logMsg = "deleteFile(" + name + "/" + fileInfo.id() + ") is called";
                 LOGGER.trace(logMsg);
             }
             ICache cache = getCache();
-            Session session = getSession();
-            CqlUtils.execute(session, CQL_REMOVE_FILE, consistencyLevelRemoveFileInfo,
-                    fileInfo.name());
+            executeFileListChange(consistencyLevelRemoveFileInfo, bindStatement(CQL_REMOVE_FILE,
+                    consistencyLevelRemoveFileInfo, fileInfo.name()));
             if (cache != null) {
                 final String CACHE_KEY = cacheKeyFileInfo(fileInfo);
                 cache.delete(CACHE_KEY);
-                cache.delete(cacheKeyAllFiles);
-            }
-            long size = fileInfo.size();
-            long numBlocks = (size / BLOCK_SIZE) + (size % BLOCK_SIZE != 0 ? 1 : 0);
-            for (int i = 0; i < numBlocks; i++) {
-                CqlUtils.execute(session, CQL_REMOVE_FILEDATA, consistencyLevelRemoveFileData,
-                        fileInfo.id(), i);
-                if (cache != null) {
-                    final String CACHE_KEY = cacheKeyDataBlock(fileInfo, i);
-                    cache.delete(CACHE_KEY);
-                }
             }
+            recentlyPublished.remove(fileInfo.name());
+            warmedUpFileIds.remove(fileInfo.id());
+            // inline files have no blocks, even if listed without their data
+            long size = fileInfo.isInline() ? 0 : fileInfo.size();
+            int blockSize = fileInfo.blockSize();
+            long numBlocks = (size / blockSize) + (size % blockSize != 0 ? 1 : 0);
+            removeFileBlocks(fileInfo, numBlocks);
         } else {
             if (LOGGER.isTraceEnabled()) {
                 final String logMsg = "deleteFile(" + name + ") is called, but file is not found";
@@ -543,12 +2407,349 @@ public class CassandraDirectory extends BaseDirectory {
         }
     }
 
+    /**
+     * Deletes files in bulk. Metadata of all files is removed first, with
+     * up to {@link #setDeleteMaxInflight(int)} batches in flight, each also
+     * changing the directory's generation; files of a namespaced directory
+     * (see {@link #setDirectoryId(String)}) are grouped in batches of up to
+     * 100 deletes, otherwise one per file. Blocks of deleted files are then removed in
+     * the background, as with {@link #deleteFile(String)}. Files not found
+     * are ignored.
+     * 
+     * @param names
+     * @throws IOException
+     *             if metadata of some files could not be removed (the others
+     *             are deleted)
+     * @since 0.1.2
+     */
+    public void deleteFiles(Collection<String> names) throws IOException {
+        if (LOGGER.isTraceEnabled()) {
+            final String logMsg = "deleteFiles(" + names + ") is called";
+            LOGGER.trace(logMsg);
+        }
+        // metadata of a namespaced directory is a single partition
+        int batchSize = directoryId != null ? DELETE_BATCH_SIZE : 1;
+        List<List<FileInfo>> groups = new ArrayList<List<FileInfo>>();
+        List<FileInfo> group = null;
+        for (String name : names) {
+            FileInfo fileInfo = getFileInfo(name, false);
+            if (fileInfo != null) {
+                if (group == null || group.size() >= batchSize) {
+                    group = new ArrayList<FileInfo>();
+                    groups.add(group);
+                }
+                group.add(fileInfo);
+            }
+        }
+        if (groups.isEmpty()) {
+            return;
+        }
+        long generation = reserveGenerations(groups.size());
+
+        final int maxInflight = deleteMaxInflight;
+        final Semaphore permits = new Semaphore(maxInflight);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final List<FileInfo> deleted = Collections.synchronizedList(new ArrayList<FileInfo>());
+        Session session = getSession();
+        try {
+            for (final List<FileInfo> files : groups) {
+                permits.acquire();
+                Statement[] removes = new Statement[files.size()];
+                for (int i = 0; i < removes.length; i++) {
+                    removes[i] = bindStatement(CQL_REMOVE_FILE, consistencyLevelRemoveFileInfo,
+                            files.get(i).name());
+                }
+                Statement stm = newFileListChange(consistencyLevelRemoveFileInfo, generation++,
+                        removes);
+                final ResultSetFuture future;
+                try {
+                    future = session.executeAsync(stm);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                    permits.release();
+                    break;
+                }
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.getUninterruptibly();
+                            deleted.addAll(files);
+                        } catch (Throwable t) {
+                            error.compareAndSet(null, t);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }, SAME_THREAD_EXECUTOR);
+            }
+            permits.acquire(maxInflight);
+            permits.release(maxInflight);
+        } catch (InterruptedException e) {
+            throw new ThreadInterruptedException(e);
+        }
+
+        ICache cache = getCache();
+        for (FileInfo fileInfo : deleted) {
+            recentlyPublished.remove(fileInfo.name());
+            if (cache != null) {
+                cache.delete(cacheKeyFileInfo(fileInfo));
+            }
+        }
+        for (FileInfo fileInfo : deleted) {
+            warmedUpFileIds.remove(fileInfo.id());
+            long size = fileInfo.isInline() ? 0 : fileInfo.size();
+            int blockSize = fileInfo.blockSize();
+            long numBlocks = (size / blockSize) + (size % blockSize != 0 ? 1 : 0);
+            removeFileBlocks(fileInfo, numBlocks);
+        }
+        Throwable t = error.get();
+        if (t != null) {
+            throw new IOException("Error deleting files: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Removes a file's blocks from local cache tiers, and (in the background,
+     * see {@link BlockPurger}) from storage. Blocks cached in the
+     * {@link ICache} are left to expire: they are keyed by file id, which is
+     * never reused.
+     * 
+     * @param fileInfo
+     * @param numBlocks
+     * @since 0.1.2
+     */
+    private void removeFileBlocks(FileInfo fileInfo, long numBlocks) {
+        BlockKey key = fileInfo.idKey();
+        if (blockCache != null && key != null) {
+            blockCache.removeFile(key.idHi, key.idLo, numBlocks);
+        }
+        if (diskCache != null && key != null) {
+            diskCache.removeFile(key.idHi, key.idLo, numBlocks);
+        }
+        blockPurger.submit(fileInfo, numBlocks);
+    }
+
+    /**
+     * Waits until blocks of all files deleted so far have been removed from
+     * storage (or failed to).
+     * 
+     * @since 0.1.2
+     */
+    public void awaitBlockPurges() {
+        blockPurger.await();
+    }
+
+    /**
+     * Creates an {@link OrphanBlockSweeper} for this directory's tables,
+     * which never considers files currently open for writing by this
+     * instance to be orphans.
+     * 
+     * <p>
+     * Note: other instances writing to the same tables are not known, the
+     * sweeper's grace period must cover their writes.
+     * </p>
+     * 
+     * @return
+     * @since 0.1.2
+     */
+    public OrphanBlockSweeper newOrphanBlockSweeper() {
+        Set<String> openFileIds = new AbstractSet<String>() {
+            @Override
+            public boolean contains(Object fileId) {
+                for (CassandraIndexOutput output : openOutputs.values()) {
+                    if (output.fileInfo.id().equals(fileId)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                final Iterator<CassandraIndexOutput> it = openOutputs.values().iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return it.next().fileInfo.id();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return openOutputs.size();
+            }
+        };
+        return new OrphanBlockSweeper(getSession()).setTableMetadata(tableMetadata)
+                .setTableFiledata(tableFiledata).setFileDataLayout(fileDataLayout)
+                .setNamespaced(directoryId != null).setExcludedFileIds(openFileIds)
+                .setConsistencyLevelRead(consistencyLevelReadFileInfo)
+                .setConsistencyLevelDelete(consistencyLevelRemoveFileData);
+    }
+
+    /**
+     * A file whose blocks are being removed from storage.
+     */
+    private static class BlockPurge {
+        private final FileInfo fileInfo;
+        private final boolean partitionDelete;
+        private final long numStatements;
+        private long next;
+        private int inflight;
+        private Throwable error;
+
+        BlockPurge(FileInfo fileInfo, long numBlocks, boolean partitionDelete) {
+            this.fileInfo = fileInfo;
+            this.partitionDelete = partitionDelete;
+            this.numStatements = partitionDelete ? 1 : numBlocks;
+        }
+    }
+
+    /**
+     * Removes deleted files' blocks from storage in the background, with at
+     * most {@link #setDeleteMaxInflight(int)} statements in flight
+     * directory-wide. With {@link FileDataLayout#CLUSTERED}, all blocks of a
+     * file are removed with a single partition delete; otherwise each block
+     * is a partition of its own and needs its own delete.
+     * 
+     * <p>
+     * Statements are sent by the submitting thread and by the completion
+     * listeners of previous statements, without blocking any of them. Blocks
+     * that fail to be removed are logged and left behind.
+     * </p>
+     * 
+     * @since 0.1.2
+     */
+    private class BlockPurger {
+        private final Deque<BlockPurge> queue = new ArrayDeque<BlockPurge>();
+        private int inflight, pending;
+        private boolean filling, refill;
+
+        void submit(FileInfo fileInfo, long numBlocks) {
+            if (numBlocks <= 0) {
+                return;
+            }
+            synchronized (this) {
+                queue.add(new BlockPurge(fileInfo, numBlocks,
+                        fileDataLayout == FileDataLayout.CLUSTERED));
+                pending++;
+            }
+            fill();
+        }
+
+        synchronized void await() {
+            try {
+                while (pending > 0) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                throw new ThreadInterruptedException(e);
+            }
+        }
+
+        /**
+         * Sends statements until the window is full; re-entrant calls (e.g.
+         * from a listener of a statement that completed immediately) only
+         * flag the running loop to go on.
+         */
+        private void fill() {
+            synchronized (this) {
+                if (filling) {
+                    refill = true;
+                    return;
+                }
+                filling = true;
+            }
+            while (true) {
+                BlockPurge purge;
+                long statement;
+                synchronized (this) {
+                    purge = inflight < deleteMaxInflight ? queue.peek() : null;
+                    if (purge == null) {
+                        if (refill) {
+                            refill = false;
+                            continue;
+                        }
+                        filling = false;
+                        return;
+                    }
+                    statement = purge.next++;
+                    if (purge.next >= purge.numStatements) {
+                        queue.poll();
+                    }
+                    inflight++;
+                    purge.inflight++;
+                }
+                send(purge, statement);
+            }
+        }
+
+        private void send(final BlockPurge purge, long blockNum) {
+            final ResultSetFuture future;
+            try {
+                future = purge.partitionDelete ? executeAsync(CQL_REMOVE_FILEDATA_ALL,
+                        consistencyLevelRemoveFileData, purge.fileInfo.id()) : executeAsync(
+                        CQL_REMOVE_FILEDATA, consistencyLevelRemoveFileData, purge.fileInfo.id(),
+                        (int) blockNum);
+            } catch (RuntimeException e) {
+                done(purge, e);
+                return;
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable error = null;
+                    try {
+                        future.getUninterruptibly();
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    done(purge, error);
+                }
+            }, SAME_THREAD_EXECUTOR);
+        }
+
+        private void done(BlockPurge purge, Throwable error) {
+            boolean finished;
+            synchronized (this) {
+                inflight--;
+                purge.inflight--;
+                if (error != null && purge.error == null) {
+                    // stop sending this file's deletes
+                    purge.error = error;
+                    queue.remove(purge);
+                    purge.next = purge.numStatements;
+                }
+                finished = purge.inflight == 0 && purge.next >= purge.numStatements;
+                if (finished && --pending == 0) {
+                    notifyAll();
+                }
+            }
+            if (finished && purge.error != null) {
+                LOGGER.warn("Cannot remove blocks of deleted file [" + purge.fileInfo.name() + "/"
+                        + purge.fileInfo.id() + "]: " + purge.error.getMessage());
+            }
+            fill();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public long fileLength(String name) throws IOException {
-        FileInfo fileInfo = getFileInfo(name);
+        FileInfo fileInfo = getFileInfo(name, false);
         if (fileInfo == null) {
             throw new FileNotFoundException("File [" + name + "] not found!");
         }
@@ -560,8 +2761,25 @@ public class CassandraDirectory extends BaseDirectory {
      */
     @Override
     public String[] listAll() throws IOException {
+        return listAll(-1);
+    }
+
+    /**
+     * Lists files of the directory at a known generation, e.g. by a poller
+     * that has just read a new value of {@link #getGeneration()}: the listing
+     * cached at that generation by any instance sharing the cache is reused
+     * without a scan nor a read of the generation.
+     * 
+     * @param generation
+     *            as returned by {@link #getGeneration()}, {@code -1} if
+     *            unknown
+     * @return
+     * @throws IOException
+     * @since 0.1.2
+     */
+    public String[] listAll(long generation) throws IOException {
         List<String> result = new ArrayList<String>();
-        for (FileInfo fileInfo : getAllFileInfo()) {
+        for (FileInfo fileInfo : getAllFileInfo(generation)) {
             result.add(fileInfo.name());
         }
         return result.toArray(ArrayUtils.EMPTY_STRING_ARRAY);
@@ -569,6 +2787,12 @@ public class CassandraDirectory extends BaseDirectory {
 
     /**
      * {@inheritDoc}
+     * 
+     * <p>
+     * The new name is written, the old one removed and the directory's
+     * generation changed with a single logged batch. Metadata of files recently published by this instance's outputs
+     * is known, so renaming them needs no read.
+     * </p>
      */
     @Override
     public void renameFile(String oldName, String newName) throws IOException {
@@ -577,19 +2801,27 @@ public class CassandraDirectory extends BaseDirectory {
             LOGGER.trace(logMsg);
         }
 
-        FileInfo fileInfo = getFileInfo(oldName);
+        FileInfo fileInfo = recentlyPublished.remove(oldName);
+        if (fileInfo == null) {
+            fileInfo = getFileInfo(oldName);
+        }
         if (fileInfo == null) {
             throw new IOException("File [" + oldName + "] not found!");
         }
-        updateFileInfo(fileInfo.name(newName));
+        FileInfo renamed = fileInfo.withName(newName);
 
-        Session session = getSession();
-        CqlUtils.execute(session, CQL_REMOVE_FILE, consistencyLevelRemoveFileInfo, oldName);
+        // new name written, old name removed & generation changed atomically,
+        // in one round trip
+        Statement update = newFileInfoUpdate(renamed);
+        Statement remove = bindStatement(CQL_REMOVE_FILE, consistencyLevelRemoveFileInfo,
+                oldName);
+        executeFileListChange(consistencyLevelWriteFileInfo, update, remove);
+
+        recentlyPublished.put(newName, renamed);
         ICache cache = getCache();
         if (cache != null) {
-            final String CACHE_KEY = cacheKeyFileInfo(oldName);
-            cache.delete(CACHE_KEY);
-            cache.delete(cacheKeyAllFiles);
+            cache.set(cacheKeyFileInfo(renamed), FileInfoCodec.encode(renamed));
+            cache.delete(cacheKeyFileInfo(oldName));
         }
     }
 
@@ -602,6 +2834,178 @@ public class CassandraDirectory extends BaseDirectory {
             final String logMsg = "sync(" + names + ") is called";
             LOGGER.trace(logMsg);
         }
+        // closed outputs have already waited for their writes; wait for the
+        // ones still open
+        for (String name : names) {
+            CassandraIndexOutput output = openOutputs.get(name);
+            if (output != null) {
+                output.awaitPendingWrites();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * If {@code from} is (or wraps) a {@link CassandraDirectory}, blocks are
+     * copied as stored (still encoded, no decoding nor re-encoding), up to
+     * {@link #setCopyMaxInflight(int)} blocks at a time. File content,
+     * including the Lucene footer checksum, is copied verbatim, and so are
+     * block size and codec(s). As with {@link IndexOutput}s, the destination
+     * file's metadata is written once all blocks are stored; on failure the
+     * blocks copied so far are removed.
+     * </p>
+     * 
+     * @since 0.1.2
+     */
+    @Override
+    public void copyFrom(Directory from, String src, String dest, IOContext context)
+            throws IOException {
+        Directory source = FilterDirectory.unwrap(from);
+        if (!(source instanceof CassandraDirectory)) {
+            super.copyFrom(from, src, dest, context);
+            return;
+        }
+        CassandraDirectory fromDir = (CassandraDirectory) source;
+        FileInfo srcInfo = fromDir.getFileInfo(src);
+        if (srcInfo == null) {
+            throw new FileNotFoundException("File [" + src + "] not found!");
+        }
+        FileInfo destInfo = FileInfo.newInstance(dest).withSize(srcInfo.size())
+                .withBlockSize(srcInfo.blockSize());
+        byte[] inlineData = srcInfo.data();
+        if (inlineData != null) {
+            if (inlineData.length <= inlineFileThreshold) {
+                destInfo = destInfo.withData(inlineData);
+            } else if (inlineData.length > 0) {
+                try {
+                    writeFileBlock(destInfo, 0, inlineData, inlineData.length).getUninterruptibly();
+                } catch (RuntimeException e) {
+                    removeFileBlocks(destInfo, 1);
+                    throw new IOException("Error copying file [" + src + "] to [" + dest + "]: "
+                            + e.getMessage(), e);
+                }
+            }
+            updateFileInfo(destInfo);
+            return;
+        }
+        long t1 = System.currentTimeMillis();
+        long size = srcInfo.size();
+        int blockSize = srcInfo.blockSize();
+        long numBlocks = (size / blockSize) + (size % blockSize != 0 ? 1 : 0);
+        try {
+            copyFileBlocks(fromDir, srcInfo, destInfo, numBlocks);
+        } catch (IOException | RuntimeException e) {
+            removeFileBlocks(destInfo, numBlocks);
+            throw e;
+        }
+        updateFileInfo(destInfo);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("copyFrom(" + src + "," + dest + "): " + numBlocks + " block(s) in "
+                    + (System.currentTimeMillis() - t1) + " ms");
+        }
+    }
+
+    /**
+     * Copies a file's blocks, as stored, from another directory.
+     * 
+     * <p>
+     * Blocks are taken from the source directory's cache tiers if possible,
+     * otherwise loaded asynchronously; writes are issued from the worker pool
+     * so that the driver's I/O threads are never blocked.
+     * </p>
+     * 
+     * @param fromDir
+     * @param srcInfo
+     * @param destInfo
+     * @param numBlocks
+     * @throws IOException
+     * @since 0.1.2
+     */
+    private void copyFileBlocks(CassandraDirectory fromDir, final FileInfo srcInfo,
+            final FileInfo destInfo, long numBlocks) throws IOException {
+        final int maxInflight = copyMaxInflight;
+        final Semaphore permits = new Semaphore(maxInflight);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        try {
+            for (int i = 0; i < numBlocks && error.get() == null; i++) {
+                permits.acquire();
+                final int blockNum = i;
+                ByteBuffer cached = fromDir.readCachedFileBlock(srcInfo, blockNum, null);
+                if (cached != null) {
+                    copyFileBlock(destInfo, blockNum, cached, permits, error);
+                    continue;
+                }
+                final ResultSetFuture load;
+                try {
+                    load = fromDir.executeAsync(fromDir.CQL_LOAD_FILEDATA,
+                            fromDir.consistencyLevelReadFileData, srcInfo.id(), blockNum);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                    permits.release();
+                    break;
+                }
+                load.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        ByteBuffer data;
+                        try {
+                            data = blockData(load.getUninterruptibly().one());
+                            if (data == null) {
+                                throw new IOException("Block [" + blockNum + "] of file ["
+                                        + srcInfo.name() + "] is missing!");
+                            }
+                        } catch (Throwable t) {
+                            error.compareAndSet(null, t);
+                            permits.release();
+                            return;
+                        }
+                        copyFileBlock(destInfo, blockNum, data, permits, error);
+                    }
+                }, getWorkerPool());
+            }
+            permits.acquire(maxInflight);
+            permits.release(maxInflight);
+        } catch (InterruptedException e) {
+            throw new ThreadInterruptedException(e);
+        }
+        Throwable t = error.get();
+        if (t != null) {
+            throw new IOException("Error copying file [" + srcInfo.name() + "] to ["
+                    + destInfo.name() + "]: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Writes a copied block, releasing its permit once the write completes.
+     */
+    private void copyFileBlock(FileInfo destInfo, int blockNum, ByteBuffer data,
+            final Semaphore permits, final AtomicReference<Throwable> error) {
+        final ResultSetFuture write;
+        try {
+            int length = data.remaining();
+            byte[] buffer = bufferPool.lease(Math.max(length,
+                    BlockFormat.maxEncodedLength(destInfo.blockSize())));
+            data.duplicate().get(buffer, 0, length);
+            write = writeStoredFileBlock(destInfo, blockNum, buffer, length);
+        } catch (Throwable t) {
+            error.compareAndSet(null, t);
+            permits.release();
+            return;
+        }
+        write.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write.getUninterruptibly();
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    permits.release();
+                }
+            }
+        }, SAME_THREAD_EXECUTOR);
     }
 
     /*----------------------------------------------------------------------*/
@@ -612,43 +3016,162 @@ public class CassandraDirectory extends BaseDirectory {
     /**
      * Cassandra implementation of {@link Lock}.
      * 
+     * <p>
+     * Since v0.1.2 a lock is a lease (see {@link #setLockLeaseMs(long)}):
+     * obtained with a single conditional insert with TTL, then renewed in the
+     * background by conditional updates. A lock whose renewal finds the row
+     * gone or owned by another id is lost. {@link #close()} only removes the
+     * row if still owned. Lock rows have no size and are not files: they are
+     * neither listed nor cached, and do not change the directory's
+     * generation.
+     * </p>
+     * 
      * @author Thanh Nguyen <btnguyen2k@gmail.com>
      * @since 0.1.0
      */
     private class CassandraLock extends Lock {
 
-        private FileInfo fileInfo;
+        private final Logger LOGGER = LoggerFactory.getLogger(CassandraLock.class);
+
+        private final FileInfo fileInfo;
+        private final long leaseMs = lockLeaseMs;
+        private volatile boolean held = false;
+        private volatile long leaseExpiry;
+        private ScheduledFuture<?> heartbeat;
 
         public CassandraLock(String fileName) {
             fileInfo = FileInfo.newInstance(fileName);
         }
 
+        private int ttlSeconds() {
+            return (int) (leaseMs / 1000);
+        }
+
+        private boolean leaseValid() {
+            return held && (leaseMs <= 0 || System.currentTimeMillis() < leaseExpiry);
+        }
+
+        /**
+         * Result of a conditional statement; no result row means not applied.
+         */
+        private boolean wasApplied(Row row) {
+            return row != null && row.getBool("[applied]");
+        }
+
+        /**
+         * Id of the current holder, from the result of a conditional
+         * statement that was not applied.
+         */
+        private String holder(Row row) {
+            return row != null && row.getColumnDefinitions().contains(COL_FILE_ID) ? row
+                    .getString(COL_FILE_ID) : null;
+        }
+
         /**
          * {@inheritDoc}
          */
         @Override
-        public boolean obtain() throws IOException {
-            Session session = getSession();
-            CqlUtils.execute(session, CQL_LOCK, consistencyLevelLock, fileInfo.name(),
-                    fileInfo.id());
-            FileInfo lockFile = getFileInfo(fileInfo.name());
-            return lockFile != null && StringUtils.equals(lockFile.id(), fileInfo.id());
+        public synchronized boolean obtain() throws IOException {
+            if (leaseValid()) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            Row row = CqlUtils.executeOne(getSession(), CQL_LOCK, consistencyLevelLock,
+                    bindLockValues(new Object[] { fileInfo.name(), fileInfo.id() }, ttlSeconds()));
+            if (!wasApplied(row)) {
+                failureReason = new IOException("Lock [" + fileInfo.name() + "] is held by ["
+                        + holder(row) + "]");
+                return false;
+            }
+            held = true;
+            leaseExpiry = now + leaseMs;
+            // the previous holder may have changed the directory
+            forgetGeneration();
+            if (leaseMs > 0) {
+                long period = Math.max(1, leaseMs / 3);
+                heartbeat = getLockHeartbeat().scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        renew();
+                    }
+                }, period, period, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        /**
+         * Renews the lease, called by the heartbeat.
+         */
+        private synchronized void renew() {
+            if (!held) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            try {
+                Row row = CqlUtils.executeOne(getSession(), CQL_RENEW_LOCK, consistencyLevelLock,
+                        bindLockValues(new Object[] { ttlSeconds(), fileInfo.id(),
+                                fileInfo.name() }, fileInfo.id()));
+                if (wasApplied(row)) {
+                    leaseExpiry = now + leaseMs;
+                } else {
+                    String holder = holder(row);
+                    lost(holder != null ? "now held by [" + holder + "]" : "lock expired");
+                }
+            } catch (Exception e) {
+                if (System.currentTimeMillis() >= leaseExpiry) {
+                    lost(e.getMessage());
+                } else {
+                    LOGGER.warn("Cannot renew lock [" + fileInfo.name() + "/" + fileInfo.id()
+                            + "], will retry: " + e.getMessage());
+                }
+            }
+        }
+
+        private void lost(String reason) {
+            held = false;
+            stopHeartbeat();
+            LOGGER.error("Lost lock [" + fileInfo.name() + "/" + fileInfo.id() + "]: " + reason);
+        }
+
+        private void stopHeartbeat() {
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+                heartbeat = null;
+            }
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        public void close() throws IOException {
-            deleteFile(fileInfo.name());
+        public synchronized void close() throws IOException {
+            stopHeartbeat();
+            if (!held) {
+                return;
+            }
+            held = false;
+            Row row = CqlUtils.executeOne(getSession(), CQL_UNLOCK, consistencyLevelLock,
+                    bindLockValues(new Object[] { fileInfo.name() }, fileInfo.id()));
+            if (!wasApplied(row)) {
+                LOGGER.warn("Lock [" + fileInfo.name() + "/" + fileInfo.id()
+                        + "] was no longer held when released");
+            }
         }
 
         /**
          * {@inheritDoc}
+         * 
+         * <p>
+         * Reads the lock's row (not the cache): expired leases are not locked.
+         * </p>
          */
         @Override
         public boolean isLocked() throws IOException {
-            return getFileInfo(fileInfo.name()) != null;
+            if (leaseValid()) {
+                return true;
+            }
+            return CqlUtils.executeOne(getSession(), CQL_GET_FILEINFO, consistencyLevelLock,
+                    bindValues(fileInfo.name())) != null;
         }
     }
 
@@ -656,6 +3179,22 @@ public class CassandraDirectory extends BaseDirectory {
     /**
      * Cassandra implementation of {@link IndexOutput}.
      * 
+     * <p>
+     * Commit protocol (since v0.1.2): blocks are streamed to storage under a
+     * fresh file id; at {@link #close()}, once all block writes have
+     * succeeded, size and id are published with a single metadata write. Until
+     * then the file is not visible, so readers never see a partially written
+     * length. If any write fails, no metadata is written and the blocks
+     * already stored are removed (best effort).
+     * </p>
+     * 
+     * <p>
+     * The output is marked closed before its blocks are flushed and its
+     * metadata published: if {@link #close()} fails, the file's blocks are
+     * discarded and the file does not exist; calling {@link #close()} again
+     * is a no-op, the file must be written again with a new output.
+     * </p>
+     * 
      * @author Thanh Nguyen <btnguyen2k@gmail.com>
      * @since 0.1.0
      */
@@ -669,11 +3208,24 @@ public class CassandraDirectory extends BaseDirectory {
 
         private int bufferOffset = 0;
         private int blockNum = 0;
-        private byte[] buffer = new byte[CassandraDirectory.BLOCK_SIZE];
+        private final int blockSize;
+        private byte[] buffer;
+        /* buffer[0..crcOffset) has been fed to crc */
+        private int crcOffset = 0;
+
+        /* window of asynchronous block writes, and first write error */
+        private final int maxInflight;
+        private final Semaphore inflight;
+        private final AtomicReference<Throwable> writeError = new AtomicReference<Throwable>();
+        private boolean closed = false;
 
         public CassandraIndexOutput(FileInfo fileInfo) {
             super(fileInfo.name());
             this.fileInfo = fileInfo;
+            this.blockSize = fileInfo.blockSize();
+            this.buffer = bufferPool.lease(blockSize);
+            this.maxInflight = writeMaxInflight;
+            this.inflight = new Semaphore(maxInflight);
         }
 
         /**
@@ -681,18 +3233,108 @@ public class CassandraDirectory extends BaseDirectory {
          */
         @Override
         public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                closeInternal();
+            } catch (IOException e) {
+                discardBlocks();
+                throw e;
+            } catch (RuntimeException e) {
+                discardBlocks();
+                throw e;
+            } finally {
+                openOutputs.remove(fileInfo.name(), this);
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+
+        /**
+         * Removes blocks written so far, after a failure.
+         */
+        private void discardBlocks() {
+            inflight.acquireUninterruptibly(maxInflight);
+            inflight.release(maxInflight);
+            try {
+                removeFileBlocks(fileInfo, blockNum);
+            } catch (Exception e) {
+                LOGGER.warn("Cannot remove blocks of failed file [" + fileInfo.name() + "/"
+                        + fileInfo.id() + "]: " + e.getMessage());
+            }
+        }
+
+        private void closeInternal() throws IOException {
+            if (inlineFileThreshold > 0 && blockNum == 0 && bytesWritten <= inlineFileThreshold) {
+                fileInfo = fileInfo.withSize(bytesWritten).withData(
+                        Arrays.copyOf(buffer, bufferOffset));
+                updateFileInfo(fileInfo);
+                recentlyPublished.put(fileInfo.name(), fileInfo);
+                bufferOffset = 0;
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("close[" + fileInfo.name() + "," + fileInfo.id() + "] --> inline "
+                            + bytesWritten + " bytes");
+                }
+                return;
+            }
             flushBlock();
+            awaitPendingWrites();
+            // all blocks are stored, now publish file's metadata
+            updateFileInfo(fileInfo = fileInfo.withSize(bytesWritten));
+            recentlyPublished.put(fileInfo.name(), fileInfo);
         }
 
-        synchronized private void flushBlock() {
+        /**
+         * Sends the current block to storage asynchronously, blocking while
+         * the window of in-flight writes is full. Blocks to be compressed are
+         * encoded and sent from the directory's worker pool.
+         */
+        private void flushBlock() throws IOException {
             if (bufferOffset > 0) {
+                updateChecksum();
+                checkWriteError();
                 long t1 = System.currentTimeMillis();
-                writeFileBlock(fileInfo, blockNum, buffer);
+                try {
+                    inflight.acquire();
+                } catch (InterruptedException e) {
+                    throw new ThreadInterruptedException(e);
+                }
+                final byte[] data = buffer;
+                final int length = bufferOffset, num = blockNum;
+                // the current buffer is handed over to sendBlock
+                buffer = bufferPool.lease(blockSize);
+                try {
+                    if (blockCodec == BlockCodec.NONE) {
+                        sendBlock(num, data, length);
+                    } else {
+                        try {
+                            getWorkerPool().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        sendBlock(num, data, length);
+                                    } catch (Throwable t) {
+                                        writeError.compareAndSet(null, t);
+                                        inflight.release();
+                                    }
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            bufferPool.release(data);
+                            throw e;
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // the block's data is gone, fail subsequent flushes too
+                    writeError.compareAndSet(null, e);
+                    inflight.release();
+                    throw new IOException("Error writing block [" + blockNum + "] of file ["
+                            + fileInfo.name() + "]: " + e.getMessage(), e);
+                }
                 blockNum++;
-                bufferOffset = 0;
-                buffer = new byte[BLOCK_SIZE];
-                fileInfo.size(bytesWritten);
-                updateFileInfo(fileInfo);
+                bufferOffset = crcOffset = 0;
                 long t2 = System.currentTimeMillis();
                 if (LOGGER.isTraceEnabled()) {
                     LOGGER.trace("flushBlock[" + fileInfo.name() + "," + (blockNum - 1) + ","
@@ -701,16 +3343,65 @@ public class CassandraDirectory extends BaseDirectory {
             }
         }
 
+        /**
+         * Encodes and writes a block, releasing its window permit once the
+         * write completes. {@code data} is returned to the buffer pool once
+         * encoded.
+         */
+        private void sendBlock(int blockNum, byte[] data, int length) throws IOException {
+            final ResultSetFuture future;
+            try {
+                future = writeFileBlock(fileInfo, blockNum, data, length);
+            } finally {
+                bufferPool.release(data);
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.getUninterruptibly();
+                    } catch (Throwable t) {
+                        writeError.compareAndSet(null, t);
+                    } finally {
+                        inflight.release();
+                    }
+                }
+            }, SAME_THREAD_EXECUTOR);
+        }
+
+        private void checkWriteError() throws IOException {
+            Throwable t = writeError.get();
+            if (t != null) {
+                throw new IOException("Error writing file [" + fileInfo.name() + "]: "
+                        + t.getMessage(), t);
+            }
+        }
+
+        /**
+         * Waits for all block writes sent so far to complete.
+         * 
+         * @throws IOException
+         *             if any of the writes failed
+         * @since 0.1.2
+         */
+        public void awaitPendingWrites() throws IOException {
+            try {
+                inflight.acquire(maxInflight);
+            } catch (InterruptedException e) {
+                throw new ThreadInterruptedException(e);
+            }
+            inflight.release(maxInflight);
+            checkWriteError();
+        }
+
         /**
          * {@inheritDoc}
          */
         @Override
         public void writeByte(byte b) throws IOException {
-            crc.update(b);
             buffer[bufferOffset++] = b;
             bytesWritten++;
-            fileInfo.size(bytesWritten);
-            if (bufferOffset >= CassandraDirectory.BLOCK_SIZE) {
+            if (bufferOffset >= blockSize) {
                 flushBlock();
             }
         }
@@ -720,14 +3411,85 @@ public class CassandraDirectory extends BaseDirectory {
          */
         @Override
         public void writeBytes(byte[] b, int offset, int length) throws IOException {
-            long t1 = System.currentTimeMillis();
-            for (int i = 0; i < length; i++) {
-                writeByte(b[offset + i]);
-            }
-            long t2 = System.currentTimeMillis();
             if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace("writeBytes[" + fileInfo.name() + "/" + offset + "/" + length
-                        + "] in " + (t2 - t1) + " ms");
+                LOGGER.trace("writeBytes[" + fileInfo.name() + "/" + offset + "/" + length + "]");
+            }
+            while (length > 0) {
+                int numBytes = Math.min(length, blockSize - bufferOffset);
+                System.arraycopy(b, offset, buffer, bufferOffset, numBytes);
+                bufferOffset += numBytes;
+                bytesWritten += numBytes;
+                offset += numBytes;
+                length -= numBytes;
+                if (bufferOffset >= blockSize) {
+                    flushBlock();
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @since 0.1.2
+         */
+        @Override
+        public void writeShort(short i) throws IOException {
+            if (bufferOffset + 2 > blockSize) {
+                super.writeShort(i);
+                return;
+            }
+            buffer[bufferOffset++] = (byte) (i >> 8);
+            buffer[bufferOffset++] = (byte) i;
+            bytesWritten += 2;
+            if (bufferOffset >= blockSize) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @since 0.1.2
+         */
+        @Override
+        public void writeInt(int i) throws IOException {
+            if (bufferOffset + 4 > blockSize) {
+                super.writeInt(i);
+                return;
+            }
+            buffer[bufferOffset++] = (byte) (i >> 24);
+            buffer[bufferOffset++] = (byte) (i >> 16);
+            buffer[bufferOffset++] = (byte) (i >> 8);
+            buffer[bufferOffset++] = (byte) i;
+            bytesWritten += 4;
+            if (bufferOffset >= blockSize) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @since 0.1.2
+         */
+        @Override
+        public void writeLong(long i) throws IOException {
+            if (bufferOffset + 8 > blockSize) {
+                super.writeLong(i);
+                return;
+            }
+            writeInt((int) (i >> 32));
+            writeInt((int) i);
+        }
+
+        /**
+         * Feeds bytes buffered since last call to the checksum, so that
+         * checksum is computed over whole ranges rather than byte by byte.
+         */
+        private void updateChecksum() {
+            if (bufferOffset > crcOffset) {
+                crc.update(buffer, crcOffset, bufferOffset - crcOffset);
+                crcOffset = bufferOffset;
             }
         }
 
@@ -736,6 +3498,7 @@ public class CassandraDirectory extends BaseDirectory {
          */
         @Override
         public long getChecksum() throws IOException {
+            updateChecksum();
             return crc.getValue();
         }
 
@@ -761,18 +3524,43 @@ public class CassandraDirectory extends BaseDirectory {
 
         private CassandraDirectory cassDir;
         private FileInfo fileInfo;
+        private int blockSize;
 
         private boolean isSlice = false;
-        private byte[] block;
+
+        /*
+         * Lucene files are write-once, so block data is immutable: it is held
+         * as a read-only buffer and shared (via duplicate()) with clones and
+         * slices. Only the buffer's position belongs to this input.
+         */
+        private ByteBuffer block;
         private int blockOffset = 0;
         private int blockNum = 0;
 
+        /*
+         * Receives blocks found in the off-heap block cache. Once the current
+         * block (backed by it) is shared with a clone or slice, the buffer is
+         * handed over with the block and a new one is allocated at next load.
+         */
+        private ByteBuffer scratch;
+        private boolean blockInScratch = false;
+
         private long offset, end, pos;
 
+        /*
+         * Read-ahead state: number of consecutive sequential block loads,
+         * current read-ahead window (in blocks) and blocks being fetched in
+         * background (a range fetch is mapped from each of its blocks).
+         */
+        private int sequentialLoads = 0;
+        private int readAheadWindow = 0;
+        private Map<Integer, BlockFetch> readAheadBlocks = new HashMap<Integer, BlockFetch>();
+
         public CassandraIndexInput(CassandraDirectory cassDir, FileInfo fileInfo) {
             super(fileInfo.name());
             this.cassDir = cassDir;
             this.fileInfo = fileInfo;
+            this.blockSize = fileInfo.blockSize();
             this.offset = 0L;
             this.pos = 0L;
             this.end = fileInfo.size();
@@ -783,23 +3571,131 @@ public class CassandraDirectory extends BaseDirectory {
             super(resourceDesc);
             this.cassDir = another.cassDir;
             this.fileInfo = another.fileInfo;
+            this.blockSize = another.blockSize;
             this.offset = another.offset + offset;
             this.end = this.offset + length;
-            this.blockNum = another.blockNum;
-            this.blockOffset = another.blockOffset;
-            // if (another.block != null) {
-            // this.block = Arrays.copyOf(another.block, another.block.length);
-            // }
+            this.blockNum = (int) (this.offset / blockSize);
+            if (another.block != null && another.blockNum == this.blockNum) {
+                // blocks are immutable: share parent's current block instead of
+                // reloading it
+                this.block = another.block.duplicate();
+                another.releaseScratch();
+            }
             seek(0);
         }
 
-        private void loadBlock(int blockNum) {
+        private void loadBlock(int blockNum) throws IOException {
             if (LOGGER.isTraceEnabled()) {
                 final String logMsg = "loadBlock(" + fileInfo.name() + "/" + blockNum + ")";
                 LOGGER.trace(logMsg);
             }
-            block = cassDir.readFileBlock(fileInfo, blockNum);
+            boolean sequential = block != null && blockNum == this.blockNum + 1;
+            adjustReadAhead(sequential, blockNum);
+            if (scratch == null && (cassDir.blockCache != null || cassDir.diskCache != null)) {
+                scratch = ByteBuffer.allocate(BlockFormat.maxEncodedLength(blockSize));
+            }
+            if (scratch != null) {
+                scratch.clear();
+            }
+            block = cassDir.readFileBlock(fileInfo, blockNum, readAheadBlocks.remove(blockNum),
+                    scratch);
+            blockInScratch = scratch != null && scratch.position() > 0;
             this.blockNum = blockNum;
+            readAhead(blockNum);
+        }
+
+        /**
+         * Gives up the scratch buffer if the current block is backed by it,
+         * before the block is shared.
+         */
+        private void releaseScratch() {
+            if (blockInScratch) {
+                scratch = null;
+                blockInScratch = false;
+            }
+        }
+
+        /**
+         * Grows the read-ahead window on sequential access, shrinks it and
+         * drops no-longer-useful fetches otherwise.
+         * 
+         * @param sequential
+         * @param blockNum
+         */
+        private void adjustReadAhead(boolean sequential, int blockNum) {
+            int maxBlocks = cassDir.readAheadMaxBlocks;
+            if (sequential) {
+                sequentialLoads++;
+                if (sequentialLoads >= READ_AHEAD_TRIGGER) {
+                    readAheadWindow = Math.min(maxBlocks,
+                            readAheadWindow > 0 ? readAheadWindow * 2 : 2);
+                }
+            } else {
+                sequentialLoads = 0;
+                readAheadWindow /= 2;
+            }
+            if (readAheadBlocks.size() > 0) {
+                Iterator<Map.Entry<Integer, BlockFetch>> it = readAheadBlocks.entrySet()
+                        .iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Integer, BlockFetch> entry = it.next();
+                    int num = entry.getKey().intValue();
+                    if (num < blockNum || num > blockNum + readAheadWindow) {
+                        entry.getValue().discard(num);
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Fires background fetches for the blocks following {@code blockNum},
+         * according to the current read-ahead window.
+         * 
+         * @param blockNum
+         */
+        private void readAhead(int blockNum) {
+            if (readAheadWindow <= 0) {
+                return;
+            }
+            if (cassDir.fileDataLayout == FileDataLayout.CLUSTERED
+                    && readAheadBlocks.size() > readAheadWindow / 2) {
+                // range reads: refill in batches rather than one block at a time
+                return;
+            }
+            int lastBlock = (int) Math.min((end - 1) / blockSize, blockNum
+                    + readAheadWindow);
+            int num = blockNum + 1;
+            while (num <= lastBlock) {
+                if (readAheadBlocks.containsKey(num)) {
+                    num++;
+                    continue;
+                }
+                // fetch the whole gap up to the next block already being fetched
+                int gapEnd = num + 1;
+                while (gapEnd <= lastBlock && !readAheadBlocks.containsKey(gapEnd)) {
+                    gapEnd++;
+                }
+                BlockFetch fetch = cassDir.prefetchFileBlocks(fileInfo, num, gapEnd);
+                if (fetch == null) {
+                    if (cassDir.readAheadInflight.get() >= cassDir.readAheadMaxInflight) {
+                        break;
+                    }
+                    num = gapEnd;
+                    continue;
+                }
+                for (int i = fetch.fromBlock; i < fetch.toBlock; i++) {
+                    readAheadBlocks.put(i, fetch);
+                }
+                num = fetch.toBlock;
+            }
+        }
+
+        private void cancelReadAhead() {
+            for (Map.Entry<Integer, BlockFetch> entry : readAheadBlocks.entrySet()) {
+                entry.getValue().discard(entry.getKey().intValue());
+            }
+            readAheadBlocks.clear();
         }
 
         /**
@@ -816,9 +3712,16 @@ public class CassandraDirectory extends BaseDirectory {
             clone.blockNum = blockNum;
             clone.blockOffset = blockOffset;
             if (block != null) {
-                clone.block = Arrays.copyOf(block, block.length);
+                // blocks are immutable: share content, but not position
+                clone.block = block.duplicate();
+                releaseScratch();
             }
+            clone.scratch = null;
+            clone.blockInScratch = false;
             clone.isSlice = this.isSlice;
+            clone.sequentialLoads = 0;
+            clone.readAheadWindow = 0;
+            clone.readAheadBlocks = new HashMap<Integer, BlockFetch>();
             return clone;
         }
 
@@ -827,7 +3730,7 @@ public class CassandraDirectory extends BaseDirectory {
          */
         @Override
         public void close() throws IOException {
-            // EMPTY
+            cancelReadAhead();
         }
 
         /**
@@ -864,11 +3767,17 @@ public class CassandraDirectory extends BaseDirectory {
             }
 
             this.pos = pos;
-            long newBlockNum = (pos + offset) / CassandraDirectory.BLOCK_SIZE;
+            long newBlockNum = (pos + offset) / blockSize;
             if (newBlockNum != blockNum) {
-                loadBlock((int) newBlockNum);
+                if (pos + offset < end) {
+                    loadBlock((int) newBlockNum);
+                } else {
+                    // seek to EOF: nothing to load
+                    block = null;
+                    blockNum = (int) newBlockNum;
+                }
             }
-            blockOffset = (int) ((pos + offset) % CassandraDirectory.BLOCK_SIZE);
+            blockOffset = (int) ((pos + offset) % blockSize);
         }
 
         /**
@@ -894,38 +3803,351 @@ public class CassandraDirectory extends BaseDirectory {
 
         /**
          * {@inheritDoc}
+         * 
+         * @since 0.1.2
          */
         @Override
-        public byte readByte() throws IOException {
-            if (pos + offset >= end) {
-                return -1;
+        public RandomAccessInput randomAccessSlice(long offset, long length) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > this.length()) {
+                throw new IllegalArgumentException("randomAccessSlice() out of bounds: " + this);
             }
+            return new CassandraRandomAccessInput(cassDir, fileInfo, this.offset + offset, length);
+        }
 
-            if (block == null) {
+        /**
+         * Makes sure the block containing current position is loaded.
+         * 
+         * @throws IOException
+         *             if the block is missing or shorter than expected
+         */
+        private void ensureBlock() throws IOException {
+            if (blockOffset >= blockSize) {
+                loadBlock(blockNum + 1);
+                blockOffset = 0;
+            } else if (block == null) {
                 loadBlock(blockNum);
             }
+            if (block == null || blockOffset >= block.limit()) {
+                throw new IOException("Block [" + blockNum + "] of file [" + fileInfo.name()
+                        + "] is missing or truncated!");
+            }
+        }
+
+        /**
+         * Checks if {@code numBytes} bytes can be read straight from current
+         * block.
+         * 
+         * @param numBytes
+         * @return
+         */
+        private boolean availableInBlock(int numBytes) {
+            return block != null && blockOffset + numBytes <= block.limit()
+                    && pos + offset + numBytes <= end;
+        }
 
-            byte data = block[blockOffset++];
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public byte readByte() throws IOException {
+            if (pos + offset >= end) {
+                throw new EOFException("read past EOF: " + this);
+            }
+            if (block == null || blockOffset >= block.limit()) {
+                ensureBlock();
+            }
             pos++;
-            if (blockOffset >= CassandraDirectory.BLOCK_SIZE) {
-                loadBlock(blockNum + 1);
+            return block.get(blockOffset++);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void readBytes(byte[] buffer, int bufferOffset, int length) throws IOException {
+            if (pos + offset + length > end) {
+                throw new EOFException("read past EOF: " + this);
+            }
+            while (length > 0) {
+                if (block == null || blockOffset >= block.limit()) {
+                    ensureBlock();
+                }
+                int numBytes = Math.min(length, block.limit() - blockOffset);
+                block.position(blockOffset);
+                block.get(buffer, bufferOffset, numBytes);
+                blockOffset += numBytes;
+                pos += numBytes;
+                bufferOffset += numBytes;
+                length -= numBytes;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public short readShort() throws IOException {
+            if (availableInBlock(2)) {
+                short value = block.getShort(blockOffset);
+                blockOffset += 2;
+                pos += 2;
+                return value;
+            }
+            return super.readShort();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int readInt() throws IOException {
+            if (availableInBlock(4)) {
+                int value = block.getInt(blockOffset);
+                blockOffset += 4;
+                pos += 4;
+                return value;
+            }
+            return super.readInt();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long readLong() throws IOException {
+            if (availableInBlock(8)) {
+                long value = block.getLong(blockOffset);
+                blockOffset += 8;
+                pos += 8;
+                return value;
+            }
+            return super.readLong();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int readVInt() throws IOException {
+            if (!availableInBlock(5)) {
+                return super.readVInt();
+            }
+            int p = blockOffset;
+            byte b = block.get(p++);
+            int value = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = block.get(p++);
+                if (shift == 28 && (b & 0xF0) != 0) {
+                    throw new IOException("Invalid vInt detected (too many bits)");
+                }
+                value |= (b & 0x7F) << shift;
+            }
+            pos += p - blockOffset;
+            blockOffset = p;
+            return value;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long readVLong() throws IOException {
+            if (!availableInBlock(9)) {
+                return super.readVLong();
+            }
+            int p = blockOffset;
+            byte b = block.get(p++);
+            long value = b & 0x7FL;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = block.get(p++);
+                if (shift == 56 && b < 0) {
+                    throw new IOException("Invalid vLong detected (negative values disallowed)");
+                }
+                value |= (b & 0x7FL) << shift;
+            }
+            pos += p - blockOffset;
+            blockOffset = p;
+            return value;
+        }
+
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Positional-read {@link RandomAccessInput} over a file's blocks.
+     * 
+     * <p>
+     * Instances hold no read position, so they can be shared across threads.
+     * The most recently used blocks are kept in a small direct-mapped table;
+     * each entry is guarded by its own lock and keeps the buffer that receives
+     * blocks found in the off-heap block cache or the disk cache, so that
+     * reloading an entry from cache allocates nothing. Reads spanning two
+     * blocks read each block separately, never holding two entries' locks.
+     * </p>
+     * 
+     * @author Thanh Nguyen <btnguyen2k@gmail.com>
+     * @since 0.1.2
+     */
+    public class CassandraRandomAccessInput implements RandomAccessInput {
+
+        private final static int NUM_CACHED_BLOCKS = 8; // must be power of 2
+
+        private final CassandraDirectory cassDir;
+        private final FileInfo fileInfo;
+        private final int blockSize;
+        private final long offset, length;
+        private final CachedBlock[] blocks = new CachedBlock[NUM_CACHED_BLOCKS];
+
+        /**
+         * @param cassDir
+         * @param fileInfo
+         * @param offset
+         *            slice's start offset in the file
+         * @param length
+         *            slice's length
+         */
+        public CassandraRandomAccessInput(CassandraDirectory cassDir, FileInfo fileInfo,
+                long offset, long length) {
+            this.cassDir = cassDir;
+            this.fileInfo = fileInfo;
+            this.blockSize = fileInfo.blockSize();
+            this.offset = offset;
+            this.length = length;
+            for (int i = 0; i < NUM_CACHED_BLOCKS; i++) {
+                blocks[i] = new CachedBlock();
+            }
+        }
+
+        /**
+         * Gets the table entry for position {@code pos} (relative to the
+         * slice), after checking that {@code numBytes} bytes are readable at
+         * that position.
+         */
+        private CachedBlock entry(long pos, int numBytes) throws EOFException {
+            if (pos < 0 || pos + numBytes > length) {
+                throw new EOFException("read past EOF: pos=" + pos + ", length=" + length + ": "
+                        + this);
             }
-            blockOffset = (int) ((pos + offset) % CassandraDirectory.BLOCK_SIZE);
+            return blocks[(int) ((offset + pos) / blockSize) & (NUM_CACHED_BLOCKS - 1)];
+        }
+
+        /**
+         * Gets the block holding position {@code pos}, (re)loading the entry if
+         * needed. Caller must hold the entry's lock.
+         */
+        private ByteBuffer block(CachedBlock entry, long pos) throws IOException {
+            int blockNum = (int) ((offset + pos) / blockSize);
+            if (entry.blockNum == blockNum) {
+                return entry.data;
+            }
+            entry.blockNum = -1;
+            entry.data = null;
+            if (entry.scratch == null
+                    && (cassDir.blockCache != null || cassDir.diskCache != null)) {
+                entry.scratch = ByteBuffer.allocate(BlockFormat.maxEncodedLength(blockSize));
+            }
+            if (entry.scratch != null) {
+                entry.scratch.clear();
+            }
+            ByteBuffer data = cassDir.readFileBlock(fileInfo, blockNum, null, entry.scratch);
+            if (data == null) {
+                throw new IOException("Block [" + blockNum + "] of file [" + fileInfo.name()
+                        + "] is missing!");
+            }
+            entry.data = data;
+            entry.blockNum = blockNum;
             return data;
         }
 
+        private int blockOffset(long pos) {
+            return (int) ((offset + pos) % blockSize);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
         @Override
-        public void readBytes(byte[] buffer, int offset, int length) throws IOException {
-            long t1 = System.currentTimeMillis();
-            for (int i = 0; i < length; i++) {
-                buffer[offset + i] = readByte();
+        public byte readByte(long pos) throws IOException {
+            CachedBlock entry = entry(pos, 1);
+            synchronized (entry) {
+                ByteBuffer data = block(entry, pos);
+                int p = blockOffset(pos);
+                if (p >= data.limit()) {
+                    throw new IOException("Block of file [" + fileInfo.name() + "] at position ["
+                            + (offset + pos) + "] is truncated!");
+                }
+                return data.get(p);
             }
-            long t2 = System.currentTimeMillis();
-            if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace("readBytes[" + fileInfo.name() + "/" + offset + "/" + length + "] in "
-                        + (t2 - t1) + " ms");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public short readShort(long pos) throws IOException {
+            CachedBlock entry = entry(pos, 2);
+            synchronized (entry) {
+                ByteBuffer data = block(entry, pos);
+                int p = blockOffset(pos);
+                if (p + 2 <= data.limit()) {
+                    return data.getShort(p);
+                }
+            }
+            return (short) (((readByte(pos) & 0xFF) << 8) | (readByte(pos + 1) & 0xFF));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int readInt(long pos) throws IOException {
+            CachedBlock entry = entry(pos, 4);
+            synchronized (entry) {
+                ByteBuffer data = block(entry, pos);
+                int p = blockOffset(pos);
+                if (p + 4 <= data.limit()) {
+                    return data.getInt(p);
+                }
+            }
+            return ((readShort(pos) & 0xFFFF) << 16) | (readShort(pos + 2) & 0xFFFF);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long readLong(long pos) throws IOException {
+            CachedBlock entry = entry(pos, 8);
+            synchronized (entry) {
+                ByteBuffer data = block(entry, pos);
+                int p = blockOffset(pos);
+                if (p + 8 <= data.limit()) {
+                    return data.getLong(p);
+                }
             }
+            return (((long) readInt(pos)) << 32) | (readInt(pos + 4) & 0xFFFFFFFFL);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "CassandraRandomAccessInput(" + fileInfo.name() + ", offset=" + offset
+                    + ", length=" + length + ")";
         }
+    }
 
+    /**
+     * An entry of {@link CassandraRandomAccessInput}'s block table: (block-num,
+     * block-data), and the buffer that receives cached blocks. Guarded by its
+     * own lock.
+     * 
+     * @since 0.1.2
+     */
+    private static class CachedBlock {
+        int blockNum = -1;
+        ByteBuffer data;
+        ByteBuffer scratch;
     }
 }
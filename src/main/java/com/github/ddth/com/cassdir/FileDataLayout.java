@@ -0,0 +1,23 @@
+package com.github.ddth.com.cassdir;
+
+/**
+ * Layout of the file data table.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public enum FileDataLayout {
+    /**
+     * Each block is its own partition, {@code PRIMARY KEY ((fileid, blocknum))}
+     * (see {@code dbschema/cassdir.cql}).
+     */
+    PARTITION_PER_BLOCK,
+
+    /**
+     * All blocks of a file are clustered in one partition,
+     * {@code PRIMARY KEY (fileid, blocknum)} (see
+     * {@code dbschema/cassdir-v2.cql}). Contiguous blocks are read with one
+     * range query.
+     */
+    CLUSTERED
+}
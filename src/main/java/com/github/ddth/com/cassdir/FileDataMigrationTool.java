@@ -0,0 +1,289 @@
+package com.github.ddth.com.cassdir;
+
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.github.ddth.cql.SessionManager;
+
+/**
+ * Copies file data blocks from one file data table to another, e.g. from a
+ * {@link FileDataLayout#PARTITION_PER_BLOCK} table ({@code dbschema/cassdir.cql})
+ * to a {@link FileDataLayout#CLUSTERED} one ({@code dbschema/cassdir-v2.cql}).
+ *
+ * <p>
+ * Files to copy are listed from the directory's metadata table, which is left
+ * untouched. Blocks are copied with asynchronous reads/writes, at most
+ * {@link #setConcurrency(int)} blocks at a time. Both tables use the same
+ * columns, so the tool works for either direction. The directory must not be
+ * written to during the migration.
+ * </p>
+ *
+ * <p>
+ * Command line usage:
+ * {@code FileDataMigrationTool <hostsAndPorts> <user> <password> <keyspace> <metadataTable> <sourceTable> <targetTable> [concurrency]}
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class FileDataMigrationTool {
+
+    public final static int DEFAULT_CONCURRENCY = 32;
+
+    private final static String TPL_GET_ALL_FILES = "SELECT "
+            + StringUtils.join(new String[] { CassandraDirectory.COL_FILE_NAME,
+                    CassandraDirectory.COL_FILE_SIZE, CassandraDirectory.COL_FILE_ID,
+                    CassandraDirectory.COL_BLOCK_SIZE }, ",")
+            + " FROM {0}";
+    private final static String TPL_LOAD_FILEDATA = "SELECT "
+            + CassandraDirectory.COL_BLOCK_DATA + " FROM {0} WHERE "
+            + CassandraDirectory.COL_FILE_ID + "=? AND " + CassandraDirectory.COL_BLOCK_NUM + "=?";
+    private final static String TPL_WRITE_FILEDATA = "UPDATE {0} SET "
+            + CassandraDirectory.COL_BLOCK_DATA + "=? WHERE " + CassandraDirectory.COL_FILE_ID
+            + "=? AND " + CassandraDirectory.COL_BLOCK_NUM + "=?";
+
+    private final static Executor SAME_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Logger LOGGER = LoggerFactory.getLogger(FileDataMigrationTool.class);
+
+    private Session session;
+    private String tableMetadata = CassandraDirectory.DEFAULT_TBL_METADATA;
+    private String tableSource = CassandraDirectory.DEFAULT_TBL_FILEDATA;
+    private String tableTarget;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private ConsistencyLevel consistencyLevelRead = CassandraDirectory.DEFAULT_CONSISTENCY_LEVEL;
+    private ConsistencyLevel consistencyLevelWrite = CassandraDirectory.DEFAULT_CONSISTENCY_LEVEL;
+
+    private AtomicLong numFiles = new AtomicLong(), numBlocks = new AtomicLong(),
+            numBytes = new AtomicLong();
+
+    public FileDataMigrationTool(Session session) {
+        this.session = session;
+    }
+
+    public String getTableMetadata() {
+        return tableMetadata;
+    }
+
+    public FileDataMigrationTool setTableMetadata(String tableMetadata) {
+        this.tableMetadata = tableMetadata;
+        return this;
+    }
+
+    public String getTableSource() {
+        return tableSource;
+    }
+
+    public FileDataMigrationTool setTableSource(String tableSource) {
+        this.tableSource = tableSource;
+        return this;
+    }
+
+    public String getTableTarget() {
+        return tableTarget;
+    }
+
+    public FileDataMigrationTool setTableTarget(String tableTarget) {
+        this.tableTarget = tableTarget;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets max number of blocks being copied at a time.
+     *
+     * @param concurrency
+     * @return
+     */
+    public FileDataMigrationTool setConcurrency(int concurrency) {
+        this.concurrency = concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+        return this;
+    }
+
+    public ConsistencyLevel getConsistencyLevelRead() {
+        return consistencyLevelRead;
+    }
+
+    public FileDataMigrationTool setConsistencyLevelRead(ConsistencyLevel consistencyLevelRead) {
+        this.consistencyLevelRead = consistencyLevelRead;
+        return this;
+    }
+
+    public ConsistencyLevel getConsistencyLevelWrite() {
+        return consistencyLevelWrite;
+    }
+
+    public FileDataMigrationTool setConsistencyLevelWrite(ConsistencyLevel consistencyLevelWrite) {
+        this.consistencyLevelWrite = consistencyLevelWrite;
+        return this;
+    }
+
+    public long getNumFiles() {
+        return numFiles.get();
+    }
+
+    public long getNumBlocks() {
+        return numBlocks.get();
+    }
+
+    public long getNumBytes() {
+        return numBytes.get();
+    }
+
+    /**
+     * Copies blocks of all files listed in the metadata table from the source
+     * table to the target table.
+     *
+     * @return number of blocks copied
+     * @throws InterruptedException
+     */
+    public long migrate() throws InterruptedException {
+        if (StringUtils.isBlank(tableTarget) || StringUtils.equals(tableSource, tableTarget)) {
+            throw new IllegalStateException("Target table must be set and differ from source table!");
+        }
+        final PreparedStatement pstmLoad = session.prepare(MessageFormat.format(
+                TPL_LOAD_FILEDATA, tableSource));
+        final PreparedStatement pstmWrite = session.prepare(MessageFormat.format(
+                TPL_WRITE_FILEDATA, tableTarget));
+        final Semaphore permits = new Semaphore(concurrency);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        SimpleStatement stmFiles = new SimpleStatement(MessageFormat.format(TPL_GET_ALL_FILES,
+                tableMetadata));
+        stmFiles.setConsistencyLevel(consistencyLevelRead);
+        ResultSet files = session.execute(stmFiles);
+        for (Row file : files) {
+            final String fileId = file.getString(CassandraDirectory.COL_FILE_ID);
+            final long fileSize = file.getLong(CassandraDirectory.COL_FILE_SIZE);
+            if (StringUtils.isBlank(fileId)) {
+                continue;
+            }
+            numFiles.incrementAndGet();
+            int blockSize = file.isNull(CassandraDirectory.COL_BLOCK_SIZE) ? 0 : file
+                    .getInt(CassandraDirectory.COL_BLOCK_SIZE);
+            long lastBlock = Math.max(0, (fileSize - 1)
+                    / (blockSize > 0 ? blockSize : CassandraDirectory.BLOCK_SIZE));
+            for (int blockNum = 0; blockNum <= lastBlock; blockNum++) {
+                permits.acquire();
+                if (error.get() != null) {
+                    permits.release();
+                    break;
+                }
+                copyBlock(pstmLoad, pstmWrite, fileId, blockNum, permits, error);
+            }
+            if (error.get() != null) {
+                break;
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Migrated file [" + file.getString(CassandraDirectory.COL_FILE_NAME)
+                        + "/" + fileId + "], " + (lastBlock + 1) + " block(s)");
+            }
+        }
+        permits.acquire(concurrency);
+        permits.release(concurrency);
+
+        Throwable t = error.get();
+        if (t != null) {
+            throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+        }
+        LOGGER.info("Migrated " + numFiles + " file(s), " + numBlocks + " block(s), " + numBytes
+                + " byte(s) from [" + tableSource + "] to [" + tableTarget + "]");
+        return numBlocks.get();
+    }
+
+    private void copyBlock(PreparedStatement pstmLoad, final PreparedStatement pstmWrite,
+            final String fileId, final int blockNum, final Semaphore permits,
+            final AtomicReference<Throwable> error) {
+        BoundStatement stmLoad = pstmLoad.bind(fileId, blockNum);
+        stmLoad.setConsistencyLevel(consistencyLevelRead);
+        final ResultSetFuture load = session.executeAsync(stmLoad);
+        load.addListener(new Runnable() {
+            @Override
+            public void run() {
+                boolean written = false;
+                try {
+                    Row row = load.getUninterruptibly().one();
+                    ByteBuffer data = row != null ? row.getBytes(CassandraDirectory.COL_BLOCK_DATA)
+                            : null;
+                    if (data != null) {
+                        BoundStatement stmWrite = pstmWrite.bind(data, fileId, blockNum);
+                        stmWrite.setConsistencyLevel(consistencyLevelWrite);
+                        final int length = data.remaining();
+                        final ResultSetFuture write = session.executeAsync(stmWrite);
+                        write.addListener(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    write.getUninterruptibly();
+                                    numBlocks.incrementAndGet();
+                                    numBytes.addAndGet(length);
+                                } catch (Throwable t) {
+                                    error.compareAndSet(null, t);
+                                } finally {
+                                    permits.release();
+                                }
+                            }
+                        }, SAME_THREAD_EXECUTOR);
+                        written = true;
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                } finally {
+                    if (!written) {
+                        permits.release();
+                    }
+                }
+            }
+        }, SAME_THREAD_EXECUTOR);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 7) {
+            System.err.println("Usage: " + FileDataMigrationTool.class.getName()
+                    + " <hostsAndPorts> <user> <password> <keyspace> <metadataTable>"
+                    + " <sourceTable> <targetTable> [concurrency]");
+            System.exit(1);
+        }
+        SessionManager sessionManager = new SessionManager();
+        sessionManager.init();
+        try {
+            Session session = sessionManager.getSession(args[0], args[1], args[2], args[3]);
+            FileDataMigrationTool tool = new FileDataMigrationTool(session)
+                    .setTableMetadata(args[4]).setTableSource(args[5]).setTableTarget(args[6]);
+            if (args.length > 7) {
+                tool.setConcurrency(Integer.parseInt(args[7]));
+            }
+            long t = System.currentTimeMillis();
+            tool.migrate();
+            System.out.println("Migrated " + tool.getNumFiles() + " file(s), "
+                    + tool.getNumBlocks() + " block(s), " + tool.getNumBytes() + " byte(s) in "
+                    + (System.currentTimeMillis() - t) + " ms");
+        } finally {
+            sessionManager.destroy();
+        }
+    }
+}
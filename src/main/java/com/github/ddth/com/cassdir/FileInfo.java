@@ -1,72 +1,253 @@
 package com.github.ddth.com.cassdir;
 
+import java.nio.ByteBuffer;
+
 import com.datastax.driver.core.Row;
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.github.ddth.com.cassdir.internal.BlockKey;
 import com.github.ddth.commons.utils.IdGenerator;
-import com.github.ddth.dao.BaseBo;
 
 /**
  * File metadata info.
- * 
+ *
+ * <p>
+ * Immutable since v0.1.2: {@code withXxx(...)} methods return a modified
+ * copy. Cached instances are stored in binary form, see
+ * {@link com.github.ddth.com.cassdir.internal.FileInfoCodec}.
+ * </p>
+ *
  * @author Thanh Nguyen <btnguyen2k@gmail.com>
  * @since 0.1.0
  */
-public class FileInfo extends BaseBo {
+public final class FileInfo {
 
     public final static FileInfo[] EMPTY_ARRAY = new FileInfo[0];
     public final static IdGenerator ID_GEN = IdGenerator.getInstance(IdGenerator.getMacAddr());
 
-    public static FileInfo newInstance() {
-        String id = ID_GEN.generateId128Hex().toLowerCase();
-        FileInfo fileInfo = new FileInfo();
-        fileInfo.id(id);
-        return fileInfo;
+    /**
+     * Creates metadata info of a new file, with a fresh id.
+     *
+     * @param name
+     * @return
+     */
+    public static FileInfo newInstance(String name) {
+        return new FileInfo(name, ID_GEN.generateId128Hex().toLowerCase(), 0, 0, null, false,
+                false);
     }
 
-    public static FileInfo newInstance(String name) {
-        FileInfo fileInfo = newInstance();
-        fileInfo.name(name);
-        return fileInfo;
+    /**
+     * Creates metadata info from its fields.
+     *
+     * @param name
+     * @param id
+     * @param size
+     * @param blockSize
+     *            {@code 0} if unknown
+     * @param data
+     *            can be {@code null}
+     * @return
+     * @since 0.1.2
+     */
+    public static FileInfo newInstance(String name, String id, long size, int blockSize,
+            byte[] data) {
+        return new FileInfo(name, id, size, blockSize, data, false, data != null);
     }
 
+    /**
+     * Creates metadata info from a row of the metadata table.
+     *
+     * @param row
+     * @return metadata-only info (see {@link #isMetadataOnly()}) if the row
+     *         has no inline data column; if it has the inline data column's
+     *         write time instead, whether the file is inline is known (see
+     *         {@link #isInline()})
+     */
     public static FileInfo newInstance(Row row) {
-        FileInfo fileInfo = newInstance();
-        fileInfo.id(row.getString("fileid"));
-        fileInfo.name(row.getString("filename"));
-        fileInfo.size(row.getLong("filesize"));
-        return fileInfo;
+        int blockSize = 0;
+        if (row.getColumnDefinitions().contains(ATTR_BLOCK_SIZE) && !row.isNull(ATTR_BLOCK_SIZE)) {
+            blockSize = row.getInt(ATTR_BLOCK_SIZE);
+        }
+        byte[] dataArr = null;
+        boolean hasDataColumn = row.getColumnDefinitions().contains(ATTR_DATA);
+        if (hasDataColumn && !row.isNull(ATTR_DATA)) {
+            ByteBuffer data = row.getBytes(ATTR_DATA);
+            dataArr = new byte[data.remaining()];
+            data.duplicate().get(dataArr);
+        }
+        boolean inline = dataArr != null;
+        if (!hasDataColumn && row.getColumnDefinitions().contains(ATTR_DATA_WRITETIME)) {
+            inline = !row.isNull(ATTR_DATA_WRITETIME);
+        }
+        return new FileInfo(row.getString(ATTR_NAME), row.getString(ATTR_ID),
+                row.getLong(ATTR_SIZE), blockSize, dataArr, !hasDataColumn, inline);
     }
 
     private final static String ATTR_NAME = "filename";
     private final static String ATTR_SIZE = "filesize";
     private final static String ATTR_ID = "fileid";
+    private final static String ATTR_DATA = "filedata";
+    private final static String ATTR_DATA_WRITETIME = "writetime(filedata)";
+    private final static String ATTR_BLOCK_SIZE = "blocksize";
+
+    private final String name;
+    private final String id;
+    private final long size;
+    private final int blockSize;
+    private final byte[] data;
+    private final boolean metadataOnly;
+    private final boolean inline;
+    private final BlockKey idKey;
+
+    private FileInfo(String name, String id, long size, int blockSize, byte[] data,
+            boolean metadataOnly, boolean inline) {
+        this(name, id, BlockKey.of(id, 0), size, blockSize, data, metadataOnly, inline);
+    }
+
+    private FileInfo(String name, String id, BlockKey idKey, long size, int blockSize,
+            byte[] data, boolean metadataOnly, boolean inline) {
+        this.name = name;
+        this.id = id;
+        this.idKey = idKey;
+        this.size = size;
+        this.blockSize = blockSize;
+        this.data = data;
+        this.metadataOnly = metadataOnly;
+        this.inline = inline;
+    }
 
-    @JsonIgnore
     public String name() {
-        return getAttribute(ATTR_NAME, String.class);
+        return name;
     }
 
-    public FileInfo name(String filename) {
-        return (FileInfo) setAttribute(ATTR_NAME, filename);
+    /**
+     * @param name
+     * @return a copy with the specified name (same id)
+     * @since 0.1.2
+     */
+    public FileInfo withName(String name) {
+        return new FileInfo(name, id, idKey, size, blockSize, data, metadataOnly, inline);
     }
 
-    @JsonIgnore
     public long size() {
-        Long result = getAttribute(ATTR_SIZE, Long.class);
-        return result != null ? result.longValue() : null;
+        return size;
     }
 
-    public FileInfo size(long filesize) {
-        return (FileInfo) setAttribute(ATTR_SIZE, filesize);
+    /**
+     * @param size
+     * @return
+     * @since 0.1.2
+     */
+    public FileInfo withSize(long size) {
+        return new FileInfo(name, id, idKey, size, blockSize, data, metadataOnly, inline);
     }
 
-    @JsonIgnore
     public String id() {
-        return getAttribute(ATTR_ID, String.class);
+        return id;
+    }
+
+    /**
+     * File's id parsed into two {@code long}s, as block caches key blocks
+     * (parsed once per file rather than per block lookup).
+     *
+     * @return key of the file's block {@code 0}, {@code null} if the id is not
+     *         a hex string of at most 32 digits
+     * @since 0.1.2
+     */
+    public BlockKey idKey() {
+        return idKey;
     }
 
-    public FileInfo id(String id) {
-        return (FileInfo) setAttribute(ATTR_ID, id);
+    /**
+     * File's block size.
+     *
+     * @return {@link CassandraDirectory#BLOCK_SIZE} if the file's metadata
+     *         has no block size (e.g. files written by v0.1.1 and earlier)
+     * @since 0.1.2
+     */
+    public int blockSize() {
+        return blockSize > 0 ? blockSize : CassandraDirectory.BLOCK_SIZE;
     }
 
+    /**
+     * @param blockSize
+     * @return
+     * @since 0.1.2
+     */
+    public FileInfo withBlockSize(int blockSize) {
+        return new FileInfo(name, id, idKey, size, blockSize, data, metadataOnly, inline);
+    }
+
+    /**
+     * File's content, if the file is stored inline in its metadata row.
+     *
+     * @return {@code null} if the file's content is stored in the file data
+     *         table; must not be modified
+     * @since 0.1.2
+     */
+    public byte[] data() {
+        return data;
+    }
+
+    /**
+     * @param data
+     *            not copied, must not be modified afterwards
+     * @return
+     * @since 0.1.2
+     */
+    public FileInfo withData(byte[] data) {
+        return new FileInfo(name, id, idKey, size, blockSize, data, false, data != null);
+    }
+
+    /**
+     * Metadata-only info has been read without the file's inline data column
+     * (e.g. by a listing of the metadata table): {@link #data()} is
+     * {@code null} even if the file is stored inline.
+     *
+     * @return
+     * @since 0.1.2
+     */
+    public boolean isMetadataOnly() {
+        return metadataOnly;
+    }
+
+    /**
+     * File is stored inline in its metadata row, even if its data is not
+     * known (metadata-only info, see {@link #isMetadataOnly()}).
+     *
+     * @return {@code false} if the file's content is stored in the file data
+     *         table, or if metadata-only info was read without the inline
+     *         data column's write time
+     * @since 0.1.2
+     */
+    public boolean isInline() {
+        return inline;
+    }
+
+    /**
+     * @return a metadata-only copy, without inline data (but still
+     *         {@link #isInline()} if the file is inline)
+     * @since 0.1.2
+     */
+    public FileInfo asMetadataOnly() {
+        return asMetadataOnly(inline);
+    }
+
+    /**
+     * @param inline
+     *            see {@link #isInline()}
+     * @return a metadata-only copy, without inline data
+     * @since 0.1.2
+     */
+    public FileInfo asMetadataOnly(boolean inline) {
+        return new FileInfo(name, id, idKey, size, blockSize, null, true, inline);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "FileInfo[name=" + name + ",id=" + id + ",size=" + size + ",blockSize="
+                + blockSize() + (inline ? ",inline" : "") + (metadataOnly ? ",metadataOnly" : "")
+                + "]";
+    }
 }
@@ -0,0 +1,624 @@
+package com.github.ddth.com.cassdir;
+
+import java.math.BigInteger;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.github.ddth.cql.SessionManager;
+
+/**
+ * Finds and removes orphan blocks: rows of the file data table whose file id
+ * is not referenced by the metadata table, e.g. left behind by a writer that
+ * crashed before closing its file, or by a block removal that failed.
+ *
+ * <p>
+ * The file data table is scanned by token range, {@link #setSplits(int)}
+ * ranges at a time by {@link #setConcurrency(int)} threads (assumes
+ * {@code Murmur3Partitioner}). A file is an orphan if its id is referenced
+ * neither before nor after the scan, is not excluded (see
+ * {@link #setExcludedFileIds(Set)}), and none of its blocks was written within
+ * the grace period ({@link #setGracePeriodMs(long)}), so that files still
+ * being written are left alone. Orphans are then removed (unless
+ * {@link #setDryRun(boolean)}), at most {@link #setMaxDeletesPerSecond(int)}
+ * deletes per second.
+ * </p>
+ *
+ * <p>
+ * Dry-run is on by default. Progress can be followed with the
+ * {@code getXxx()} counters, e.g. from another thread.
+ * </p>
+ *
+ * <p>
+ * Command line usage:
+ * {@code OrphanBlockSweeper <hostsAndPorts> <user> <password> <keyspace> <metadataTable> <filedataTable> [clustered] [namespaced] [delete]}
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class OrphanBlockSweeper {
+
+    public final static int DEFAULT_CONCURRENCY = 4;
+    public final static int DEFAULT_SPLITS = 256;
+    public final static int DEFAULT_FETCH_SIZE = 1000;
+    public final static long DEFAULT_GRACE_PERIOD_MS = 24 * 3600 * 1000L; // 1 day
+    public final static int DEFAULT_MAX_DELETES_PER_SECOND = 1000;
+
+    private final static String TPL_GET_ALL_FILE_IDS = "SELECT " + CassandraDirectory.COL_FILE_ID
+            + " FROM {0}";
+    /* {1}: partition key columns, {2}: other selected columns */
+    private final static String TPL_SCAN_FILEDATA = "SELECT {1}{2},WRITETIME("
+            + CassandraDirectory.COL_BLOCK_DATA + ") FROM {0} WHERE token({1})>? AND token({1})<=?";
+    /* {1}: " AND dirid=?" if namespaced */
+    private final static String TPL_REMOVE_FILEDATA = "DELETE FROM {0} WHERE "
+            + CassandraDirectory.COL_FILE_ID + "=? AND " + CassandraDirectory.COL_BLOCK_NUM
+            + "=?{1}";
+    private final static String TPL_REMOVE_FILEDATA_ALL = "DELETE FROM {0} WHERE "
+            + CassandraDirectory.COL_FILE_ID + "=?{1}";
+
+    private final static Executor SAME_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Logger LOGGER = LoggerFactory.getLogger(OrphanBlockSweeper.class);
+
+    private Session session;
+    private String tableMetadata = CassandraDirectory.DEFAULT_TBL_METADATA;
+    private String tableFiledata = CassandraDirectory.DEFAULT_TBL_FILEDATA;
+    private FileDataLayout fileDataLayout = FileDataLayout.PARTITION_PER_BLOCK;
+    private boolean namespaced = false;
+    private boolean dryRun = true;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int splits = DEFAULT_SPLITS;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private long gracePeriodMs = DEFAULT_GRACE_PERIOD_MS;
+    private int maxDeletesPerSecond = DEFAULT_MAX_DELETES_PER_SECOND;
+    private Set<String> excludedFileIds = Collections.emptySet();
+    private ConsistencyLevel consistencyLevelRead = CassandraDirectory.DEFAULT_CONSISTENCY_LEVEL;
+    private ConsistencyLevel consistencyLevelDelete = CassandraDirectory.DEFAULT_CONSISTENCY_LEVEL;
+
+    private AtomicLong splitsDone = new AtomicLong(), rowsScanned = new AtomicLong(),
+            referencedFiles = new AtomicLong(), orphanFiles = new AtomicLong(),
+            orphanBlocks = new AtomicLong(), deletes = new AtomicLong(),
+            failedDeletes = new AtomicLong();
+
+    /**
+     * An unreferenced file found by the scan.
+     */
+    private static class Orphan {
+        private final String dirId, fileId;
+        private final Set<Integer> blocks = new HashSet<Integer>();
+        private long rows, lastWriteTime;
+
+        Orphan(String dirId, String fileId) {
+            this.dirId = dirId;
+            this.fileId = fileId;
+        }
+    }
+
+    public OrphanBlockSweeper(Session session) {
+        this.session = session;
+    }
+
+    public String getTableMetadata() {
+        return tableMetadata;
+    }
+
+    public OrphanBlockSweeper setTableMetadata(String tableMetadata) {
+        this.tableMetadata = tableMetadata;
+        return this;
+    }
+
+    public String getTableFiledata() {
+        return tableFiledata;
+    }
+
+    public OrphanBlockSweeper setTableFiledata(String tableFiledata) {
+        this.tableFiledata = tableFiledata;
+        return this;
+    }
+
+    public FileDataLayout getFileDataLayout() {
+        return fileDataLayout;
+    }
+
+    /**
+     * Sets layout of the file data table (default
+     * {@link FileDataLayout#PARTITION_PER_BLOCK}).
+     *
+     * @param fileDataLayout
+     * @return
+     */
+    public OrphanBlockSweeper setFileDataLayout(FileDataLayout fileDataLayout) {
+        this.fileDataLayout = fileDataLayout != null ? fileDataLayout
+                : FileDataLayout.PARTITION_PER_BLOCK;
+        return this;
+    }
+
+    public boolean isNamespaced() {
+        return namespaced;
+    }
+
+    /**
+     * Sets whether the tables are namespaced (see
+     * {@link CassandraDirectory#setDirectoryId(String)}); if so, all
+     * directories sharing the tables are swept.
+     *
+     * @param namespaced
+     * @return
+     */
+    public OrphanBlockSweeper setNamespaced(boolean namespaced) {
+        this.namespaced = namespaced;
+        return this;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * In dry-run mode (default), orphans are found and counted but not
+     * removed.
+     *
+     * @param dryRun
+     * @return
+     */
+    public OrphanBlockSweeper setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets number of token ranges scanned at a time, also max number of
+     * deletes in flight.
+     *
+     * @param concurrency
+     * @return
+     */
+    public OrphanBlockSweeper setConcurrency(int concurrency) {
+        this.concurrency = concurrency > 0 ? concurrency : DEFAULT_CONCURRENCY;
+        return this;
+    }
+
+    public int getSplits() {
+        return splits;
+    }
+
+    /**
+     * Sets number of token ranges the file data table is scanned by.
+     *
+     * @param splits
+     * @return
+     */
+    public OrphanBlockSweeper setSplits(int splits) {
+        this.splits = splits > 0 ? splits : DEFAULT_SPLITS;
+        return this;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public OrphanBlockSweeper setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE;
+        return this;
+    }
+
+    public long getGracePeriodMs() {
+        return gracePeriodMs;
+    }
+
+    /**
+     * Files with a block written within the grace period are not orphans
+     * (they may still be being written). It must be longer than the time
+     * taken to write the largest file.
+     *
+     * @param gracePeriodMs
+     * @return
+     */
+    public OrphanBlockSweeper setGracePeriodMs(long gracePeriodMs) {
+        this.gracePeriodMs = Math.max(0, gracePeriodMs);
+        return this;
+    }
+
+    public int getMaxDeletesPerSecond() {
+        return maxDeletesPerSecond;
+    }
+
+    /**
+     * Throttles removal of orphans; {@code 0} for no limit.
+     *
+     * @param maxDeletesPerSecond
+     * @return
+     */
+    public OrphanBlockSweeper setMaxDeletesPerSecond(int maxDeletesPerSecond) {
+        this.maxDeletesPerSecond = Math.max(0, maxDeletesPerSecond);
+        return this;
+    }
+
+    public Set<String> getExcludedFileIds() {
+        return excludedFileIds;
+    }
+
+    /**
+     * Sets ids of files never to be considered orphans, e.g. files being
+     * written. The set is read during the sweep, so it can be a live view.
+     *
+     * @param excludedFileIds
+     * @return
+     */
+    public OrphanBlockSweeper setExcludedFileIds(Set<String> excludedFileIds) {
+        this.excludedFileIds = excludedFileIds != null ? excludedFileIds : Collections
+                .<String> emptySet();
+        return this;
+    }
+
+    public ConsistencyLevel getConsistencyLevelRead() {
+        return consistencyLevelRead;
+    }
+
+    public OrphanBlockSweeper setConsistencyLevelRead(ConsistencyLevel consistencyLevelRead) {
+        this.consistencyLevelRead = consistencyLevelRead;
+        return this;
+    }
+
+    public ConsistencyLevel getConsistencyLevelDelete() {
+        return consistencyLevelDelete;
+    }
+
+    public OrphanBlockSweeper setConsistencyLevelDelete(ConsistencyLevel consistencyLevelDelete) {
+        this.consistencyLevelDelete = consistencyLevelDelete;
+        return this;
+    }
+
+    /**
+     * Number of token ranges scanned so far (out of {@link #getSplits()}).
+     *
+     * @return
+     */
+    public long getSplitsDone() {
+        return splitsDone.get();
+    }
+
+    public long getRowsScanned() {
+        return rowsScanned.get();
+    }
+
+    /**
+     * Number of file ids referenced by the metadata table (before the scan).
+     *
+     * @return
+     */
+    public long getReferencedFiles() {
+        return referencedFiles.get();
+    }
+
+    public long getOrphanFiles() {
+        return orphanFiles.get();
+    }
+
+    /**
+     * Number of rows of orphan files.
+     *
+     * @return
+     */
+    public long getOrphanBlocks() {
+        return orphanBlocks.get();
+    }
+
+    /**
+     * Number of delete statements executed successfully.
+     *
+     * @return
+     */
+    public long getDeletes() {
+        return deletes.get();
+    }
+
+    public long getFailedDeletes() {
+        return failedDeletes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "OrphanBlockSweeper[splits=" + getSplitsDone() + "/" + splits + ",rows="
+                + getRowsScanned() + ",referenced=" + getReferencedFiles() + ",orphanFiles="
+                + getOrphanFiles() + ",orphanBlocks=" + getOrphanBlocks() + ",deletes="
+                + getDeletes() + ",failedDeletes=" + getFailedDeletes() + ",dryRun=" + dryRun
+                + "]";
+    }
+
+    /*----------------------------------------------------------------------*/
+    private Set<String> loadReferencedFileIds() {
+        SimpleStatement stm = new SimpleStatement(MessageFormat.format(TPL_GET_ALL_FILE_IDS,
+                tableMetadata));
+        stm.setConsistencyLevel(consistencyLevelRead);
+        stm.setFetchSize(fetchSize);
+        Set<String> result = new HashSet<String>();
+        for (Row row : session.execute(stm)) {
+            String fileId = row.getString(CassandraDirectory.COL_FILE_ID);
+            if (fileId != null) {
+                result.add(fileId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits the Murmur3 token ring into {@link #getSplits()} ranges.
+     *
+     * @return bounds, range {@code i} is {@code (bounds[i], bounds[i+1]]}
+     */
+    private long[] tokenRanges() {
+        BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+        BigInteger span = BigInteger.valueOf(Long.MAX_VALUE).subtract(min);
+        long[] bounds = new long[splits + 1];
+        for (int i = 0; i <= splits; i++) {
+            bounds[i] = min.add(
+                    span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(splits)))
+                    .longValue();
+        }
+        return bounds;
+    }
+
+    private void scanRange(PreparedStatement pstmScan, long fromToken, long toToken,
+            Set<String> referenced, ConcurrentMap<String, Orphan> orphans) {
+        BoundStatement stm = pstmScan.bind(fromToken, toToken);
+        stm.setConsistencyLevel(consistencyLevelRead);
+        stm.setFetchSize(fetchSize);
+        String colWriteTime = "writetime(" + CassandraDirectory.COL_BLOCK_DATA + ")";
+        for (Row row : session.execute(stm)) {
+            rowsScanned.incrementAndGet();
+            String fileId = row.getString(CassandraDirectory.COL_FILE_ID);
+            if (fileId == null || referenced.contains(fileId)) {
+                continue;
+            }
+            String dirId = namespaced ? row.getString(CassandraDirectory.COL_DIR_ID) : null;
+            String key = dirId != null ? dirId + "/" + fileId : fileId;
+            Orphan orphan = orphans.get(key);
+            if (orphan == null) {
+                orphan = new Orphan(dirId, fileId);
+                Orphan existing = orphans.putIfAbsent(key, orphan);
+                if (existing != null) {
+                    orphan = existing;
+                }
+            }
+            long writeTime = row.isNull(colWriteTime) ? 0 : row.getLong(colWriteTime);
+            synchronized (orphan) {
+                orphan.rows++;
+                orphan.blocks.add(row.getInt(CassandraDirectory.COL_BLOCK_NUM));
+                orphan.lastWriteTime = Math.max(orphan.lastWriteTime, writeTime);
+            }
+        }
+    }
+
+    /**
+     * Scans the file data table for unreferenced files.
+     */
+    private List<Orphan> scan(final Set<String> referenced) throws InterruptedException {
+        String partitionKey = (namespaced ? CassandraDirectory.COL_DIR_ID + "," : "")
+                + CassandraDirectory.COL_FILE_ID
+                + (fileDataLayout == FileDataLayout.CLUSTERED ? "" : ","
+                        + CassandraDirectory.COL_BLOCK_NUM);
+        String otherColumns = fileDataLayout == FileDataLayout.CLUSTERED ? ","
+                + CassandraDirectory.COL_BLOCK_NUM : "";
+        final PreparedStatement pstmScan = session.prepare(MessageFormat.format(
+                TPL_SCAN_FILEDATA, tableFiledata, partitionKey, otherColumns));
+        final ConcurrentMap<String, Orphan> orphans = new ConcurrentHashMap<String, Orphan>();
+        final long[] bounds = tokenRanges();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            private AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "cassdir-sweeper-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < splits; i++) {
+                final int split = i;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        scanRange(pstmScan, bounds[split], bounds[split + 1], referenced, orphans);
+                        long done = splitsDone.incrementAndGet();
+                        if (LOGGER.isDebugEnabled()) {
+                            LOGGER.debug("Scanned token range " + done + "/" + splits + ": "
+                                    + OrphanBlockSweeper.this);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+        } finally {
+            executor.shutdownNow();
+        }
+        return new ArrayList<Orphan>(orphans.values());
+    }
+
+    /**
+     * Removes an orphan's rows, throttled.
+     */
+    private void remove(Orphan orphan, PreparedStatement pstmRemove, final Semaphore permits,
+            final AtomicReference<Throwable> error, long startTime) throws InterruptedException {
+        List<Object[]> keys = new ArrayList<Object[]>();
+        if (fileDataLayout == FileDataLayout.CLUSTERED) {
+            keys.add(namespaced ? new Object[] { orphan.fileId, orphan.dirId }
+                    : new Object[] { orphan.fileId });
+        } else {
+            for (Integer blockNum : orphan.blocks) {
+                keys.add(namespaced ? new Object[] { orphan.fileId, blockNum, orphan.dirId }
+                        : new Object[] { orphan.fileId, blockNum });
+            }
+        }
+        for (Object[] key : keys) {
+            if (maxDeletesPerSecond > 0) {
+                long sent = deletes.get() + failedDeletes.get() + (concurrency
+                        - permits.availablePermits());
+                long due = startTime + sent * 1000 / maxDeletesPerSecond;
+                long wait = due - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+            permits.acquire();
+            BoundStatement stm = pstmRemove.bind(key);
+            stm.setConsistencyLevel(consistencyLevelDelete);
+            final ResultSetFuture future;
+            try {
+                future = session.executeAsync(stm);
+            } catch (RuntimeException e) {
+                error.compareAndSet(null, e);
+                failedDeletes.incrementAndGet();
+                permits.release();
+                continue;
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.getUninterruptibly();
+                        deletes.incrementAndGet();
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                        failedDeletes.incrementAndGet();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            }, SAME_THREAD_EXECUTOR);
+        }
+    }
+
+    /**
+     * Sweeps orphan blocks.
+     *
+     * @return number of orphan files found (and removed, unless dry-run)
+     * @throws InterruptedException
+     */
+    public long sweep() throws InterruptedException {
+        long t1 = System.currentTimeMillis();
+        Set<String> referenced = loadReferencedFileIds();
+        referencedFiles.set(referenced.size());
+        List<Orphan> candidates = scan(referenced);
+
+        // files published, and writes started, during the scan are not orphans
+        referenced = loadReferencedFileIds();
+        long cutoff = (System.currentTimeMillis() - gracePeriodMs) * 1000;
+        List<Orphan> orphans = new ArrayList<Orphan>();
+        for (Orphan orphan : candidates) {
+            if (!referenced.contains(orphan.fileId) && !excludedFileIds.contains(orphan.fileId)
+                    && orphan.lastWriteTime < cutoff) {
+                orphans.add(orphan);
+                orphanFiles.incrementAndGet();
+                orphanBlocks.addAndGet(orphan.rows);
+            }
+        }
+        LOGGER.info("Found " + orphans.size() + " orphan file(s), " + orphanBlocks
+                + " block(s) in [" + tableFiledata + "] in " + (System.currentTimeMillis() - t1)
+                + " ms" + (dryRun ? " (dry-run)" : ""));
+        if (dryRun || orphans.isEmpty()) {
+            return orphans.size();
+        }
+
+        String dirIdRestriction = namespaced ? " AND " + CassandraDirectory.COL_DIR_ID + "=?"
+                : "";
+        PreparedStatement pstmRemove = session.prepare(MessageFormat.format(
+                fileDataLayout == FileDataLayout.CLUSTERED ? TPL_REMOVE_FILEDATA_ALL
+                        : TPL_REMOVE_FILEDATA, tableFiledata, dirIdRestriction));
+        final Semaphore permits = new Semaphore(concurrency);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        long t2 = System.currentTimeMillis();
+        for (Orphan orphan : orphans) {
+            // re-check: an output may have been opened (and excluded) since
+            if (!excludedFileIds.contains(orphan.fileId)) {
+                remove(orphan, pstmRemove, permits, error, t2);
+            }
+        }
+        permits.acquire(concurrency);
+        permits.release(concurrency);
+        Throwable t = error.get();
+        if (t != null) {
+            LOGGER.warn("Cannot remove some orphan blocks: " + t.getMessage());
+        }
+        LOGGER.info("Removed orphan blocks: " + this);
+        return orphans.size();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 6) {
+            System.err.println("Usage: " + OrphanBlockSweeper.class.getName()
+                    + " <hostsAndPorts> <user> <password> <keyspace> <metadataTable>"
+                    + " <filedataTable> [clustered] [namespaced] [delete]");
+            System.exit(1);
+        }
+        SessionManager sessionManager = new SessionManager();
+        sessionManager.init();
+        try {
+            Session session = sessionManager.getSession(args[0], args[1], args[2], args[3]);
+            OrphanBlockSweeper sweeper = new OrphanBlockSweeper(session)
+                    .setTableMetadata(args[4]).setTableFiledata(args[5]);
+            for (int i = 6; i < args.length; i++) {
+                if (StringUtils.equalsIgnoreCase(args[i], "clustered")) {
+                    sweeper.setFileDataLayout(FileDataLayout.CLUSTERED);
+                } else if (StringUtils.equalsIgnoreCase(args[i], "namespaced")) {
+                    sweeper.setNamespaced(true);
+                } else if (StringUtils.equalsIgnoreCase(args[i], "delete")) {
+                    sweeper.setDryRun(false);
+                }
+            }
+            long t = System.currentTimeMillis();
+            long n = sweeper.sweep();
+            System.out.println((sweeper.isDryRun() ? "Found " : "Removed ") + n
+                    + " orphan file(s) in " + (System.currentTimeMillis() - t) + " ms: "
+                    + sweeper);
+        } finally {
+            sessionManager.destroy();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.ddth.com.cassdir;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexFileNames;
+
+/**
+ * Warmup policy for {@link CassandraDirectory#warmup(WarmupPolicy)}, keyed by
+ * file extension (e.g. {@code "tip"}, {@code "tim"}, {@code "dvd"},
+ * {@code "nvd"}).
+ *
+ * <ul>
+ * <li>Preload: all blocks of the file are loaded into the block cache(s).</li>
+ * <li>Pin: as preload, and the blocks are pinned in the off-heap block cache
+ * so that they are never evicted.</li>
+ * <li>Prefetch: only blocks holding the file's header and footer (first/last
+ * {@link #getHeaderFooterBytes()} bytes) are loaded.</li>
+ * </ul>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class WarmupPolicy {
+
+    /**
+     * Receives warmup progress.
+     *
+     * @since 0.1.2
+     */
+    public static interface ProgressListener {
+        /**
+         * Called each time a file has been warmed up (can be called from
+         * multiple threads).
+         *
+         * @param fileName
+         * @param stats
+         *            statistics so far
+         */
+        public void onFileWarmedUp(String fileName, WarmupStats stats);
+    }
+
+    public final static int DEFAULT_HEADER_FOOTER_BYTES = 1024;
+    public final static int DEFAULT_PARALLELISM = 4;
+
+    private Set<String> preloadExtensions = Collections.emptySet();
+    private Set<String> pinExtensions = Collections.emptySet();
+    private Set<String> prefetchExtensions = Collections.emptySet();
+    private int headerFooterBytes = DEFAULT_HEADER_FOOTER_BYTES;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private ProgressListener progressListener;
+
+    private static Set<String> toSet(String... extensions) {
+        Set<String> result = new HashSet<String>();
+        if (extensions != null) {
+            for (String ext : extensions) {
+                if (ext != null) {
+                    result.add(ext.startsWith(".") ? ext.substring(1) : ext);
+                }
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    public Set<String> getPreloadExtensions() {
+        return preloadExtensions;
+    }
+
+    /**
+     * Sets extensions of files to be fully loaded.
+     *
+     * @param extensions
+     * @return
+     */
+    public WarmupPolicy setPreloadExtensions(String... extensions) {
+        this.preloadExtensions = toSet(extensions);
+        return this;
+    }
+
+    public Set<String> getPinExtensions() {
+        return pinExtensions;
+    }
+
+    /**
+     * Sets extensions of files to be fully loaded and pinned in the off-heap
+     * block cache.
+     *
+     * @param extensions
+     * @return
+     */
+    public WarmupPolicy setPinExtensions(String... extensions) {
+        this.pinExtensions = toSet(extensions);
+        return this;
+    }
+
+    public Set<String> getPrefetchExtensions() {
+        return prefetchExtensions;
+    }
+
+    /**
+     * Sets extensions of files whose header and footer are to be loaded.
+     *
+     * @param extensions
+     * @return
+     */
+    public WarmupPolicy setPrefetchExtensions(String... extensions) {
+        this.prefetchExtensions = toSet(extensions);
+        return this;
+    }
+
+    public int getHeaderFooterBytes() {
+        return headerFooterBytes;
+    }
+
+    public WarmupPolicy setHeaderFooterBytes(int headerFooterBytes) {
+        this.headerFooterBytes = Math.max(1, headerFooterBytes);
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets max number of files being warmed up at a time.
+     *
+     * @param parallelism
+     * @return
+     */
+    public WarmupPolicy setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public WarmupPolicy setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    private static String extension(String fileName) {
+        String ext = IndexFileNames.getExtension(fileName);
+        return ext != null ? ext : "";
+    }
+
+    /**
+     * Checks if a file is to be pinned.
+     *
+     * @param fileName
+     * @return
+     */
+    public boolean isPin(String fileName) {
+        return pinExtensions.contains(extension(fileName));
+    }
+
+    /**
+     * Checks if a file is to be fully loaded (also {@code true} for pinned
+     * files).
+     *
+     * @param fileName
+     * @return
+     */
+    public boolean isPreload(String fileName) {
+        String ext = extension(fileName);
+        return preloadExtensions.contains(ext) || pinExtensions.contains(ext);
+    }
+
+    /**
+     * Checks if a file's header & footer are to be loaded.
+     *
+     * @param fileName
+     * @return
+     */
+    public boolean isPrefetch(String fileName) {
+        return prefetchExtensions.contains(extension(fileName));
+    }
+
+    /**
+     * Checks if a file is subject to warmup.
+     *
+     * @param fileName
+     * @return
+     */
+    public boolean accept(String fileName) {
+        return isPreload(fileName) || isPrefetch(fileName);
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.ddth.com.cassdir;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a {@link CassandraDirectory#warmup(WarmupPolicy)} run.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class WarmupStats {
+
+    private final int totalFiles;
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime = 0;
+    private AtomicInteger files = new AtomicInteger(), failedFiles = new AtomicInteger();
+    private AtomicLong blocks = new AtomicLong(), blocksLoaded = new AtomicLong(),
+            bytesLoaded = new AtomicLong(), blocksPinned = new AtomicLong();
+
+    public WarmupStats(int totalFiles) {
+        this.totalFiles = totalFiles;
+    }
+
+    void fileDone(boolean failed) {
+        (failed ? failedFiles : files).incrementAndGet();
+    }
+
+    void blockDone(boolean loaded, long bytes, boolean pinned) {
+        blocks.incrementAndGet();
+        if (loaded) {
+            blocksLoaded.incrementAndGet();
+            bytesLoaded.addAndGet(bytes);
+        }
+        if (pinned) {
+            blocksPinned.incrementAndGet();
+        }
+    }
+
+    void done() {
+        endTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Number of files to be warmed up.
+     *
+     * @return
+     */
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * Number of files warmed up so far.
+     *
+     * @return
+     */
+    public int getFiles() {
+        return files.get();
+    }
+
+    public int getFailedFiles() {
+        return failedFiles.get();
+    }
+
+    /**
+     * Number of blocks warmed up (including blocks that were already cached).
+     *
+     * @return
+     */
+    public long getBlocks() {
+        return blocks.get();
+    }
+
+    /**
+     * Number of blocks actually loaded from storage.
+     *
+     * @return
+     */
+    public long getBlocksLoaded() {
+        return blocksLoaded.get();
+    }
+
+    public long getBytesLoaded() {
+        return bytesLoaded.get();
+    }
+
+    public long getBlocksPinned() {
+        return blocksPinned.get();
+    }
+
+    public boolean isDone() {
+        return endTime != 0;
+    }
+
+    /**
+     * Time taken (so far) in milliseconds.
+     *
+     * @return
+     */
+    public long getElapsedMs() {
+        return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "WarmupStats[files=" + getFiles() + "/" + totalFiles + ",failed="
+                + getFailedFiles() + ",blocks=" + getBlocks() + ",loaded=" + getBlocksLoaded()
+                + ",bytes=" + getBytesLoaded() + ",pinned=" + getBlocksPinned() + ",elapsed="
+                + getElapsedMs() + "ms]";
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.ddth.com.cassdir.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Compressor;
+import org.apache.lucene.codecs.compressing.Decompressor;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.GrowableByteArrayDataOutput;
+
+import com.github.ddth.com.cassdir.BlockCodec;
+
+/**
+ * Stored format of file data blocks.
+ *
+ * <p>
+ * A stored block is a {@link #HEADER_SIZE}-byte header followed by the
+ * encoded data:
+ * </p>
+ * <ul>
+ * <li>{@code byte}: {@link #MAGIC}</li>
+ * <li>{@code byte}: codec id, see {@link BlockCodec#id()}</li>
+ * <li>{@code int}: raw (decoded) length</li>
+ * <li>{@code int}: encoded length</li>
+ * </ul>
+ *
+ * <p>
+ * Blocks written by cassdir 0.1.1 and earlier have no header and are always
+ * padded to exactly {@link #LEGACY_BLOCK_SIZE} bytes; an encoded block that
+ * would have that exact length gets one trailing padding byte, so that the
+ * two formats never collide. An encoded block that is not smaller than the
+ * raw data is stored with {@link BlockCodec#NONE}.
+ * </p>
+ *
+ * <p>
+ * Compression uses Lucene's LZ4 ({@link CompressionMode#FAST}) and Deflate (
+ * {@link CompressionMode#HIGH_COMPRESSION}) implementations.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class BlockFormat {
+
+    public final static byte MAGIC = (byte) 0xCD;
+    public final static int HEADER_SIZE = 10;
+    public final static int LEGACY_BLOCK_SIZE = 64 * 1024;
+
+    /* compressors & decompressors are stateful, one per thread */
+    private final static ThreadLocal<Compressor> LZ4_COMPRESSOR = new ThreadLocal<Compressor>() {
+        @Override
+        protected Compressor initialValue() {
+            return CompressionMode.FAST.newCompressor();
+        }
+    };
+    private final static ThreadLocal<Compressor> DEFLATE_COMPRESSOR = new ThreadLocal<Compressor>() {
+        @Override
+        protected Compressor initialValue() {
+            return CompressionMode.HIGH_COMPRESSION.newCompressor();
+        }
+    };
+    private final static ThreadLocal<Decompressor> LZ4_DECOMPRESSOR = new ThreadLocal<Decompressor>() {
+        @Override
+        protected Decompressor initialValue() {
+            return CompressionMode.FAST.newDecompressor();
+        }
+    };
+    private final static ThreadLocal<Decompressor> DEFLATE_DECOMPRESSOR = new ThreadLocal<Decompressor>() {
+        @Override
+        protected Decompressor initialValue() {
+            return CompressionMode.HIGH_COMPRESSION.newDecompressor();
+        }
+    };
+
+    /* compressed output, reused by each thread */
+    private final static ThreadLocal<GrowableByteArrayDataOutput> SCRATCH = new ThreadLocal<GrowableByteArrayDataOutput>() {
+        @Override
+        protected GrowableByteArrayDataOutput initialValue() {
+            return new GrowableByteArrayDataOutput(LEGACY_BLOCK_SIZE);
+        }
+    };
+
+    /**
+     * Max size of a stored block holding {@code rawLength} bytes of data.
+     *
+     * @param rawLength
+     * @return
+     */
+    public static int maxEncodedLength(int rawLength) {
+        return HEADER_SIZE + rawLength + 1;
+    }
+
+    /**
+     * Encodes a block.
+     *
+     * @param codec
+     * @param data
+     * @param length
+     *            number of bytes of {@code data} to encode
+     * @param out
+     *            receives the block as to be stored, must hold at least
+     *            {@link #maxEncodedLength(int)} bytes
+     * @return number of bytes written to {@code out}
+     * @throws IOException
+     */
+    public static int encode(BlockCodec codec, byte[] data, int length, byte[] out)
+            throws IOException {
+        byte[] encoded = data;
+        int encodedLength = length;
+        Compressor compressor = codec == BlockCodec.LZ4 ? LZ4_COMPRESSOR.get()
+                : (codec == BlockCodec.DEFLATE ? DEFLATE_COMPRESSOR.get() : null);
+        if (compressor != null) {
+            GrowableByteArrayDataOutput scratch = SCRATCH.get();
+            scratch.length = 0;
+            compressor.compress(data, 0, length, scratch);
+            if (scratch.length < length) {
+                encoded = scratch.bytes;
+                encodedLength = scratch.length;
+            } else {
+                codec = BlockCodec.NONE;
+            }
+        }
+        ByteBuffer.wrap(out).put(MAGIC).put(codec.id()).putInt(length).putInt(encodedLength)
+                .put(encoded, 0, encodedLength);
+        int total = HEADER_SIZE + encodedLength;
+        if (total == LEGACY_BLOCK_SIZE) {
+            out[total++] = 0;
+        }
+        return total;
+    }
+
+    /**
+     * Decodes a stored block.
+     *
+     * @param block
+     *            the block as stored (not modified)
+     * @param resourceDescription
+     *            block's description, for error messages
+     * @return a read-only {@link ByteBuffer} spanning exactly the block's raw
+     *         data (position {@code 0})
+     * @throws IOException
+     */
+    public static ByteBuffer decode(ByteBuffer block, String resourceDescription)
+            throws IOException {
+        int size = block.remaining();
+        if (size == LEGACY_BLOCK_SIZE) {
+            return block.slice().asReadOnlyBuffer();
+        }
+        int p = block.position();
+        if (size < HEADER_SIZE || block.get(p) != MAGIC) {
+            throw new CorruptIndexException("Invalid block header (size=" + size + ")",
+                    resourceDescription);
+        }
+        BlockCodec codec = BlockCodec.valueOf(block.get(p + 1));
+        int rawLength = block.getInt(p + 2);
+        int encodedLength = block.getInt(p + 6);
+        if (codec == null || rawLength < 0 || encodedLength < 0
+                || HEADER_SIZE + encodedLength > size) {
+            throw new CorruptIndexException("Invalid block header (size=" + size + ", codec="
+                    + block.get(p + 1) + ", raw=" + rawLength + ", encoded=" + encodedLength
+                    + ")", resourceDescription);
+        }
+        ByteBuffer data = block.duplicate();
+        data.position(p + HEADER_SIZE).limit(p + HEADER_SIZE + encodedLength);
+        if (codec == BlockCodec.NONE) {
+            return data.slice().asReadOnlyBuffer();
+        }
+
+        byte[] arr;
+        int offset;
+        if (data.hasArray()) {
+            arr = data.array();
+            offset = data.arrayOffset() + data.position();
+        } else {
+            arr = new byte[encodedLength];
+            data.get(arr);
+            offset = 0;
+        }
+        Decompressor decompressor = codec == BlockCodec.LZ4 ? LZ4_DECOMPRESSOR.get()
+                : DEFLATE_DECOMPRESSOR.get();
+        BytesRef result = new BytesRef();
+        decompressor.decompress(new ByteArrayDataInput(arr, offset, encodedLength), rawLength, 0,
+                rawLength, result);
+        if (result.length != rawLength) {
+            throw new CorruptIndexException("Block decoded to " + result.length
+                    + " bytes, expected " + rawLength, resourceDescription);
+        }
+        return ByteBuffer.wrap(result.bytes, result.offset, result.length).slice()
+                .asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.ddth.com.cassdir.internal;
+
+/**
+ * Key of a file's block: (file-id, block-num), with the hex file-id parsed into
+ * two {@code long}s.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public final class BlockKey {
+
+    /**
+     * Parses a file-id (hex string of up to 32 digits) into 2 longs.
+     *
+     * @param fileId
+     * @param result
+     *            {@code result[0]} receives the high 64 bits,
+     *            {@code result[1]} the low 64 bits
+     * @return {@code false} if file-id is not a hex string of at most 32
+     *         digits
+     */
+    public static boolean parseFileId(String fileId, long[] result) {
+        int len = fileId != null ? fileId.length() : 0;
+        if (len == 0 || len > 32) {
+            return false;
+        }
+        long hi = 0, lo = 0;
+        for (int i = 0; i < len; i++) {
+            int digit = Character.digit(fileId.charAt(i), 16);
+            if (digit < 0) {
+                return false;
+            }
+            hi = (hi << 4) | (lo >>> 60);
+            lo = (lo << 4) | digit;
+        }
+        result[0] = hi;
+        result[1] = lo;
+        return true;
+    }
+
+    /**
+     * Builds a key.
+     *
+     * @param fileId
+     * @param blockNum
+     * @return {@code null} if file-id is not a hex string of at most 32 digits
+     */
+    public static BlockKey of(String fileId, int blockNum) {
+        long[] id = new long[2];
+        return parseFileId(fileId, id) ? new BlockKey(id[0], id[1], blockNum) : null;
+    }
+
+    public static int hash(long idHi, long idLo, int blockNum) {
+        long h = idHi * 0x9E3779B97F4A7C15L + idLo;
+        h = (h ^ (h >>> 31)) + blockNum;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 31) ^ (h >>> 32));
+    }
+
+    public final long idHi, idLo;
+    public final int blockNum;
+
+    public BlockKey(long idHi, long idLo, int blockNum) {
+        this.idHi = idHi;
+        this.idLo = idLo;
+        this.blockNum = blockNum;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return hash(idHi, idLo, blockNum);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BlockKey)) {
+            return false;
+        }
+        BlockKey other = (BlockKey) obj;
+        return idHi == other.idHi && idLo == other.idLo && blockNum == other.blockNum;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Long.toHexString(idHi) + ":" + Long.toHexString(idLo) + "/" + blockNum;
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.ddth.com.cassdir.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of block-sized {@code byte[]} buffers with lease/release semantics, so
+ * that large buffers are recycled instead of being allocated per block.
+ *
+ * <p>
+ * Buffers are pooled by exact length (block sizes are few, e.g. one per
+ * {@code BlockSizePolicy} rule). At most {@code capacity} bytes of idle
+ * buffers are kept; buffers released beyond that are left to the garbage
+ * collector. A released buffer must not be used (nor released again) by the
+ * caller.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class BufferPool {
+
+    private final long capacity;
+    private final ConcurrentMap<Integer, Queue<byte[]>> freeBuffers = new ConcurrentHashMap<Integer, Queue<byte[]>>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong leases = new AtomicLong(), reuses = new AtomicLong(),
+            releases = new AtomicLong(), discards = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            max number of bytes of idle buffers to keep, {@code 0} to
+     *            disable pooling
+     */
+    public BufferPool(long capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    private Queue<byte[]> queue(int length) {
+        Queue<byte[]> queue = freeBuffers.get(length);
+        if (queue == null) {
+            queue = new ConcurrentLinkedQueue<byte[]>();
+            Queue<byte[]> existing = freeBuffers.putIfAbsent(length, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Leases a buffer.
+     *
+     * @param length
+     * @return a buffer of exactly {@code length} bytes (content is undefined)
+     */
+    public byte[] lease(int length) {
+        leases.incrementAndGet();
+        Queue<byte[]> queue = freeBuffers.get(length);
+        byte[] buffer = queue != null ? queue.poll() : null;
+        if (buffer != null) {
+            pooledBytes.addAndGet(-length);
+            reuses.incrementAndGet();
+            return buffer;
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer
+     *            can be {@code null}
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        releases.incrementAndGet();
+        if (pooledBytes.addAndGet(buffer.length) > capacity) {
+            pooledBytes.addAndGet(-buffer.length);
+            discards.incrementAndGet();
+            return;
+        }
+        queue(buffer.length).offer(buffer);
+    }
+
+    /**
+     * Drops all idle buffers.
+     */
+    public void clear() {
+        for (Queue<byte[]> queue : freeBuffers.values()) {
+            byte[] buffer;
+            while ((buffer = queue.poll()) != null) {
+                pooledBytes.addAndGet(-buffer.length);
+            }
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of bytes of idle buffers currently in the pool.
+     *
+     * @return
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public long getLeases() {
+        return leases.get();
+    }
+
+    /**
+     * Number of leases served by a pooled buffer (the others allocated a new
+     * one).
+     *
+     * @return
+     */
+    public long getReuses() {
+        return reuses.get();
+    }
+
+    public long getReleases() {
+        return releases.get();
+    }
+
+    /**
+     * Number of released buffers not kept because the pool was full.
+     *
+     * @return
+     */
+    public long getDiscards() {
+        return discards.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BufferPool[capacity=" + capacity + ",pooled=" + getPooledBytes() + ",leases="
+                + getLeases() + ",reuses=" + getReuses() + ",releases=" + getReleases()
+                + ",discards=" + getDiscards() + "]";
+    }
+}
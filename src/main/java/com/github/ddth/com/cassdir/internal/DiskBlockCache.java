@@ -0,0 +1,767 @@
+package com.github.ddth.com.cassdir.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Block cache on local disk, backed by memory-mapped files.
+ *
+ * <p>
+ * Cache space is split into fixed-size slots (header + up to
+ * {@code maxBlockSize} bytes of data) spread over segment files of at most
+ * {@link #SEGMENT_SIZE} bytes each. Blocks larger than {@code maxBlockSize} are
+ * not cached. Like {@link OffHeapBlockCache}, the cache is split into stripes
+ * (by key hash), each owning a contiguous range of slots and guarded by its
+ * own lock, and blocks are keyed by the file-id's two {@code long}s in an
+ * open-addressing index. Eviction is CLOCK (second chance) per stripe. Cached
+ * blocks are copied into caller-supplied buffers, so that hits allocate
+ * nothing.
+ * </p>
+ *
+ * <p>
+ * Each slot header carries the block's key, its length, a CRC32 of the data
+ * and a CRC32 of the header itself. A slot's header is invalidated before its
+ * data is overwritten, and written last. At startup the index is rebuilt from
+ * the headers that pass their CRC check; the data CRC of a recovered slot is
+ * verified when the slot is first read, so a slot torn by a crash is dropped
+ * rather than served. Slots written by this instance are not re-checked.
+ * </p>
+ *
+ * <p>
+ * {@link #destroy()} unmaps the segments (as Lucene's {@code MMapDirectory}
+ * does) rather than leaving them to the garbage collector; if the JVM does not
+ * allow it, the mappings stay until their buffers are collected.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class DiskBlockCache {
+
+    public final static long SEGMENT_SIZE = 1024L * 1024L * 1024L; // 1Gb
+    public final static int DEFAULT_NUM_STRIPES = 16;
+
+    private final static int MAGIC = 0xCA55D1C0;
+    private final static int HEADER_SIZE = 64;
+    /* header fields: magic, idHi, idLo, blockNum, length, dataCrc, headerCrc */
+    private final static int OFFSET_MAGIC = 0;
+    private final static int OFFSET_ID_HI = 4;
+    private final static int OFFSET_ID_LO = 12;
+    private final static int OFFSET_BLOCK_NUM = 20;
+    private final static int OFFSET_LENGTH = 24;
+    private final static int OFFSET_DATA_CRC = 28;
+    private final static int OFFSET_HEADER_CRC = 32;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DiskBlockCache.class);
+
+    private final File dir;
+    private final int maxBlockSize, slotSize, slotsPerSegment, numSlots, numStripes;
+    private final int stripeShift;
+    private final long capacity;
+
+    private RandomAccessFile[] files;
+    private MappedByteBuffer[] segments;
+    private volatile Stripe[] stripes;
+
+    /**
+     * Creates a new disk cache. Call {@link #init()} to open/recover it.
+     *
+     * @param dir
+     *            directory to store cache files, created if not exists
+     * @param capacity
+     *            max number of bytes of cache files
+     * @param maxBlockSize
+     *            max size of a block to be cached
+     */
+    public DiskBlockCache(File dir, long capacity, int maxBlockSize) {
+        this(dir, capacity, maxBlockSize, DEFAULT_NUM_STRIPES);
+    }
+
+    /**
+     * Creates a new disk cache. Call {@link #init()} to open/recover it.
+     *
+     * @param dir
+     *            directory to store cache files, created if not exists
+     * @param capacity
+     *            max number of bytes of cache files
+     * @param maxBlockSize
+     *            max size of a block to be cached
+     * @param numStripes
+     *            power of 2, reduced if the cache has fewer slots
+     */
+    public DiskBlockCache(File dir, long capacity, int maxBlockSize, int numStripes) {
+        if (numStripes <= 0 || Integer.bitCount(numStripes) != 1) {
+            throw new IllegalArgumentException("Number of stripes must be a power of 2!");
+        }
+        this.dir = dir;
+        this.maxBlockSize = maxBlockSize;
+        this.slotSize = HEADER_SIZE + maxBlockSize;
+        this.slotsPerSegment = (int) (SEGMENT_SIZE / slotSize);
+        long slots = capacity / slotSize;
+        if (slots <= 0 || slots > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid capacity [" + capacity + "]!");
+        }
+        this.numSlots = (int) slots;
+        this.capacity = slots * slotSize;
+        this.numStripes = Math.min(numStripes, Integer.highestOneBit(numSlots));
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(this.numStripes);
+    }
+
+    /**
+     * Opens (creating if needed) cache files and rebuilds the index from slot
+     * headers.
+     *
+     * @throws IOException
+     */
+    synchronized public void init() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create directory [" + dir + "]!");
+        }
+        int numSegments = (numSlots + slotsPerSegment - 1) / slotsPerSegment;
+        files = new RandomAccessFile[numSegments];
+        segments = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            int slotsInSegment = Math.min(slotsPerSegment, numSlots - i * slotsPerSegment);
+            long segmentBytes = (long) slotsInSegment * slotSize;
+            File file = new File(dir, "blocks-" + maxBlockSize + "-" + i + ".dat");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            if (raf.length() != segmentBytes) {
+                raf.setLength(segmentBytes);
+            }
+            files[i] = raf;
+            segments[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        // remove segment files that are no longer in use (e.g. capacity shrunk)
+        File[] existingFiles = dir.listFiles();
+        for (File file : existingFiles != null ? existingFiles : new File[0]) {
+            String name = file.getName();
+            if (name.startsWith("blocks-") && name.endsWith(".dat")) {
+                boolean inUse = false;
+                for (int i = 0; i < numSegments && !inUse; i++) {
+                    inUse = name.equals("blocks-" + maxBlockSize + "-" + i + ".dat");
+                }
+                if (!inUse && !file.delete()) {
+                    LOGGER.warn("Can not delete unused cache file [" + file + "]");
+                }
+            }
+        }
+
+        Stripe[] stripes = new Stripe[numStripes];
+        int numBlocks = 0;
+        for (int i = 0; i < numStripes; i++) {
+            int firstSlot = (int) ((long) numSlots * i / numStripes);
+            int lastSlot = (int) ((long) numSlots * (i + 1) / numStripes);
+            stripes[i] = new Stripe(i, firstSlot, lastSlot - firstSlot);
+            numBlocks += stripes[i].recover();
+        }
+        this.stripes = stripes;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Recovered " + numBlocks + " block(s) from disk cache [" + dir + "]");
+        }
+    }
+
+    /**
+     * Flushes, unmaps and closes cache files.
+     */
+    synchronized public void destroy() {
+        Stripe[] stripes = this.stripes;
+        this.stripes = null;
+        if (stripes != null) {
+            for (Stripe stripe : stripes) {
+                stripe.clear();
+            }
+        }
+        if (segments != null) {
+            for (MappedByteBuffer segment : segments) {
+                try {
+                    segment.force();
+                } catch (Exception e) {
+                    LOGGER.warn(e.getMessage(), e);
+                }
+                unmap(segment);
+            }
+            segments = null;
+        }
+        if (files != null) {
+            for (RandomAccessFile file : files) {
+                try {
+                    file.close();
+                } catch (Exception e) {
+                    LOGGER.warn(e.getMessage(), e);
+                }
+            }
+            files = null;
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    /* Java 9+: Unsafe.invokeCleaner(buffer); Java 7/8: buffer.cleaner().clean() */
+    private static Method unmapMethod;
+    private static Object unmapTarget;
+    private static volatile boolean unmapSupported = true;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unmapTarget = field.get(null);
+            unmapMethod = invokeCleaner;
+        } catch (Exception e) {
+            // not Java 9+
+        }
+    }
+
+    /**
+     * Releases a segment's mapping. The segment must not be accessed
+     * afterwards.
+     *
+     * @param segment
+     */
+    private void unmap(MappedByteBuffer segment) {
+        if (!unmapSupported) {
+            return;
+        }
+        try {
+            if (unmapMethod != null) {
+                unmapMethod.invoke(unmapTarget, segment);
+            } else {
+                Method cleanerMethod = segment.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(segment);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            unmapSupported = false;
+            LOGGER.warn("Can not unmap disk cache segments, they are released when garbage"
+                    + " collected: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Stripe from the hash's high bits, index slot (within the stripe) from
+     * its low bits.
+     */
+    private int stripeIndex(int hash) {
+        return (int) ((hash & 0xFFFFFFFFL) >>> stripeShift);
+    }
+
+    private Stripe stripe(int hash) {
+        Stripe[] stripes = this.stripes;
+        return stripes != null ? stripes[stripeIndex(hash)] : null;
+    }
+
+    /**
+     * Gets a block from cache, copying its data into {@code dst}.
+     *
+     * @param fileId
+     * @param blockNum
+     * @param dst
+     *            receives the block data from its position, which is advanced
+     *            past the copied data
+     * @return number of bytes copied, or {@code -1} if the block is not found
+     *         or does not fit in {@code dst} ({@code dst} is not changed)
+     */
+    public int get(String fileId, int blockNum, ByteBuffer dst) {
+        long[] key = new long[2];
+        return BlockKey.parseFileId(fileId, key) ? get(key[0], key[1], blockNum, dst) : -1;
+    }
+
+    /**
+     * Gets a block from cache, copying its data into {@code dst}.
+     *
+     * @param idHi
+     *            high 64 bits of the file-id
+     * @param idLo
+     *            low 64 bits of the file-id
+     * @param blockNum
+     * @param dst
+     * @return see {@link #get(String, int, ByteBuffer)}
+     */
+    public int get(long idHi, long idLo, int blockNum, ByteBuffer dst) {
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        Stripe stripe = stripe(hash);
+        return stripe != null ? stripe.get(idHi, idLo, blockNum, hash, dst) : -1;
+    }
+
+    /**
+     * Puts a block to cache, replacing existing entry (if any).
+     *
+     * @param fileId
+     * @param blockNum
+     * @param data
+     *            block data, from position to limit; the buffer's position is
+     *            not changed
+     * @return {@code false} if the block can not be cached
+     */
+    public boolean put(String fileId, int blockNum, ByteBuffer data) {
+        long[] key = new long[2];
+        return BlockKey.parseFileId(fileId, key) && put(key[0], key[1], blockNum, data);
+    }
+
+    /**
+     * Puts a block to cache, replacing existing entry (if any).
+     *
+     * @param idHi
+     * @param idLo
+     * @param blockNum
+     * @param data
+     * @return see {@link #put(String, int, ByteBuffer)}
+     */
+    public boolean put(long idHi, long idLo, int blockNum, ByteBuffer data) {
+        if (data == null || data.remaining() > maxBlockSize) {
+            return false;
+        }
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        Stripe stripe = stripe(hash);
+        return stripe != null && stripe.put(idHi, idLo, blockNum, hash, data);
+    }
+
+    /**
+     * Removes a block from cache.
+     *
+     * @param fileId
+     * @param blockNum
+     */
+    public void remove(String fileId, int blockNum) {
+        long[] key = new long[2];
+        if (BlockKey.parseFileId(fileId, key)) {
+            remove(key[0], key[1], blockNum);
+        }
+    }
+
+    /**
+     * Removes a block from cache.
+     *
+     * @param idHi
+     * @param idLo
+     * @param blockNum
+     */
+    public void remove(long idHi, long idLo, int blockNum) {
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        Stripe stripe = stripe(hash);
+        if (stripe != null) {
+            stripe.remove(idHi, idLo, blockNum, hash);
+        }
+    }
+
+    /**
+     * Removes all cached blocks of a file.
+     *
+     * @param fileId
+     * @param numBlocks
+     */
+    public void removeFile(String fileId, long numBlocks) {
+        long[] key = new long[2];
+        if (BlockKey.parseFileId(fileId, key)) {
+            removeFile(key[0], key[1], numBlocks);
+        }
+    }
+
+    /**
+     * Removes all cached blocks of a file.
+     *
+     * @param idHi
+     * @param idLo
+     * @param numBlocks
+     */
+    public void removeFile(long idHi, long idLo, long numBlocks) {
+        for (int i = 0; i < numBlocks; i++) {
+            remove(idHi, idLo, i);
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    public File getDir() {
+        return dir;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxBlockSize() {
+        return maxBlockSize;
+    }
+
+    public long getNumBlocks() {
+        long result = 0;
+        Stripe[] stripes = this.stripes;
+        for (Stripe stripe : stripes != null ? stripes : new Stripe[0]) {
+            result += stripe.numBlocks();
+        }
+        return result;
+    }
+
+    public long getHits() {
+        long result = 0;
+        Stripe[] stripes = this.stripes;
+        for (Stripe stripe : stripes != null ? stripes : new Stripe[0]) {
+            result += stripe.hits.get();
+        }
+        return result;
+    }
+
+    public long getMisses() {
+        long result = 0;
+        Stripe[] stripes = this.stripes;
+        for (Stripe stripe : stripes != null ? stripes : new Stripe[0]) {
+            result += stripe.misses.get();
+        }
+        return result;
+    }
+
+    public long getEvictions() {
+        long result = 0;
+        Stripe[] stripes = this.stripes;
+        for (Stripe stripe : stripes != null ? stripes : new Stripe[0]) {
+            result += stripe.evictions.get();
+        }
+        return result;
+    }
+
+    /**
+     * Number of blocks dropped because their data failed CRC check.
+     *
+     * @return
+     */
+    public long getCorrupted() {
+        long result = 0;
+        Stripe[] stripes = this.stripes;
+        for (Stripe stripe : stripes != null ? stripes : new Stripe[0]) {
+            result += stripe.corrupted.get();
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DiskBlockCache[dir=" + dir + ",capacity=" + capacity + ",blocks="
+                + getNumBlocks() + ",hits=" + getHits() + ",misses=" + getMisses()
+                + ",evictions=" + getEvictions() + ",corrupted=" + getCorrupted() + "]";
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * A stripe of the cache: slots {@code [firstSlot, firstSlot + numSlots)}
+     * (slot numbers within the stripe are relative), with per-slot keys kept in
+     * primitive arrays, an open-addressing (linear probing) index from key to
+     * slot, its own CLOCK hand and views of the segments (so that buffer
+     * positions are not shared between stripes).
+     */
+    private class Stripe {
+        private final int stripeIndex, firstSlot, numSlots;
+        private final ByteBuffer[] views;
+
+        /* per-slot key, only meaningful for used slots */
+        private final long[] keyHi, keyLo;
+        private final int[] keyBlock;
+        private final boolean[] used, refBits, verified;
+
+        /* index: slot + 1, 0 means empty */
+        private final int[] index;
+        private final int indexMask;
+
+        private int numBlocks = 0;
+        private int nextFreeSlot = 0, clockHand = 0;
+        private int[] freeSlots = new int[16];
+        private int numFreeSlots = 0;
+        /* set by destroy(): segments are (about to be) unmapped */
+        private boolean closed = false;
+
+        /* used to compute CRCs of data without an accessible array */
+        private final CRC32 crc = new CRC32();
+        private byte[] crcBuffer;
+
+        /* read without the stripe's lock */
+        private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(),
+                evictions = new AtomicLong(), corrupted = new AtomicLong();
+
+        Stripe(int stripeIndex, int firstSlot, int numSlots) {
+            this.stripeIndex = stripeIndex;
+            this.firstSlot = firstSlot;
+            this.numSlots = numSlots;
+            this.views = new ByteBuffer[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                views[i] = segments[i].duplicate();
+            }
+            this.keyHi = new long[numSlots];
+            this.keyLo = new long[numSlots];
+            this.keyBlock = new int[numSlots];
+            this.used = new boolean[numSlots];
+            this.refBits = new boolean[numSlots];
+            this.verified = new boolean[numSlots];
+            int indexSize = Integer.highestOneBit(numSlots * 2 - 1) << 1;
+            this.index = new int[indexSize];
+            this.indexMask = indexSize - 1;
+        }
+
+        private ByteBuffer segment(int slot) {
+            return views[(firstSlot + slot) / slotsPerSegment];
+        }
+
+        private int offset(int slot) {
+            return ((firstSlot + slot) % slotsPerSegment) * slotSize;
+        }
+
+        private int headerCrc(ByteBuffer segment, int offset) {
+            crc.reset();
+            for (int i = OFFSET_ID_HI; i < OFFSET_HEADER_CRC; i++) {
+                crc.update(segment.get(offset + i));
+            }
+            return (int) crc.getValue();
+        }
+
+        /**
+         * CRC32 of {@code data} from position to limit (position is not
+         * changed).
+         */
+        private int dataCrc(ByteBuffer data) {
+            crc.reset();
+            if (data.hasArray()) {
+                crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } else {
+                if (crcBuffer == null) {
+                    crcBuffer = new byte[maxBlockSize];
+                }
+                int length = data.remaining();
+                data.duplicate().get(crcBuffer, 0, length);
+                crc.update(crcBuffer, 0, length);
+            }
+            return (int) crc.getValue();
+        }
+
+        /**
+         * @return index position of the key, {@code -1} if not found
+         */
+        private int find(long hi, long lo, int blockNum, int hash) {
+            for (int i = hash & indexMask;; i = (i + 1) & indexMask) {
+                int slot = index[i] - 1;
+                if (slot < 0) {
+                    return -1;
+                }
+                if (keyHi[slot] == hi && keyLo[slot] == lo && keyBlock[slot] == blockNum) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * Adds a used slot (with its key set) to the index.
+         */
+        private void indexSlot(int slot, int hash) {
+            int i = hash & indexMask;
+            while (index[i] != 0) {
+                i = (i + 1) & indexMask;
+            }
+            index[i] = slot + 1;
+            numBlocks++;
+        }
+
+        /**
+         * Removes the entry at index position {@code i} (back-shifting the
+         * probe sequence); its slot is left to the caller.
+         */
+        private void unindexAt(int i) {
+            numBlocks--;
+            int hole = i;
+            for (int j = (i + 1) & indexMask; index[j] != 0; j = (j + 1) & indexMask) {
+                int s = index[j] - 1;
+                int home = BlockKey.hash(keyHi[s], keyLo[s], keyBlock[s]) & indexMask;
+                if (((j - home) & indexMask) >= ((j - hole) & indexMask)) {
+                    index[hole] = index[j];
+                    hole = j;
+                }
+            }
+            index[hole] = 0;
+        }
+
+        /**
+         * Rebuilds the stripe's index from slot headers.
+         *
+         * @return number of blocks recovered
+         */
+        synchronized int recover() {
+            int lastUsedSlot = -1;
+            for (int slot = 0; slot < numSlots; slot++) {
+                ByteBuffer segment = segment(slot);
+                int offset = offset(slot);
+                used[slot] = false;
+                verified[slot] = false;
+                if (segment.getInt(offset + OFFSET_MAGIC) == MAGIC) {
+                    int length = segment.getInt(offset + OFFSET_LENGTH);
+                    if (headerCrc(segment, offset) == segment.getInt(offset + OFFSET_HEADER_CRC)
+                            && length >= 0 && length <= maxBlockSize) {
+                        long hi = segment.getLong(offset + OFFSET_ID_HI);
+                        long lo = segment.getLong(offset + OFFSET_ID_LO);
+                        int blockNum = segment.getInt(offset + OFFSET_BLOCK_NUM);
+                        int hash = BlockKey.hash(hi, lo, blockNum);
+                        // e.g. capacity changed: slot is no longer in its key's stripe
+                        if (find(hi, lo, blockNum, hash) < 0 && stripeIndex(hash) == stripeIndex) {
+                            keyHi[slot] = hi;
+                            keyLo[slot] = lo;
+                            keyBlock[slot] = blockNum;
+                            used[slot] = true;
+                            indexSlot(slot, hash);
+                            lastUsedSlot = slot;
+                        }
+                    }
+                }
+            }
+            nextFreeSlot = lastUsedSlot + 1;
+            for (int slot = 0; slot < nextFreeSlot; slot++) {
+                if (!used[slot]) {
+                    invalidate(slot);
+                    releaseSlot(slot);
+                }
+            }
+            return numBlocks;
+        }
+
+        synchronized void clear() {
+            closed = true;
+            for (int i = 0; i < index.length; i++) {
+                index[i] = 0;
+            }
+            numBlocks = 0;
+        }
+
+        synchronized int numBlocks() {
+            return numBlocks;
+        }
+
+        private void invalidate(int slot) {
+            segment(slot).putInt(offset(slot) + OFFSET_MAGIC, 0);
+        }
+
+        private void releaseSlot(int slot) {
+            used[slot] = false;
+            refBits[slot] = false;
+            if (numFreeSlots == freeSlots.length) {
+                int[] newFreeSlots = new int[freeSlots.length * 2];
+                System.arraycopy(freeSlots, 0, newFreeSlots, 0, numFreeSlots);
+                freeSlots = newFreeSlots;
+            }
+            freeSlots[numFreeSlots++] = slot;
+        }
+
+        private int allocateSlot() {
+            if (numFreeSlots > 0) {
+                return freeSlots[--numFreeSlots];
+            }
+            if (nextFreeSlot < numSlots) {
+                return nextFreeSlot++;
+            }
+            // CLOCK
+            while (true) {
+                int slot = clockHand;
+                clockHand = (clockHand + 1) % numSlots;
+                if (!used[slot]) {
+                    return slot;
+                }
+                if (refBits[slot]) {
+                    refBits[slot] = false;
+                    continue;
+                }
+                unindexAt(find(keyHi[slot], keyLo[slot], keyBlock[slot],
+                        BlockKey.hash(keyHi[slot], keyLo[slot], keyBlock[slot])));
+                used[slot] = false;
+                evictions.incrementAndGet();
+                return slot;
+            }
+        }
+
+        synchronized int get(long hi, long lo, int blockNum, int hash, ByteBuffer dst) {
+            int i = closed ? -1 : find(hi, lo, blockNum, hash);
+            int slot = i >= 0 ? index[i] - 1 : -1;
+            ByteBuffer segment = slot >= 0 ? segment(slot) : null;
+            int offset = slot >= 0 ? offset(slot) : 0;
+            int length = segment != null ? segment.getInt(offset + OFFSET_LENGTH) : -1;
+            if (slot < 0 || length > dst.remaining()) {
+                misses.incrementAndGet();
+                return -1;
+            }
+            int start = dst.position();
+            segment.limit(offset + HEADER_SIZE + length);
+            segment.position(offset + HEADER_SIZE);
+            dst.put(segment);
+            segment.limit(segment.capacity());
+            if (!verified[slot]) {
+                // slot recovered from a previous run: check its data once
+                ByteBuffer data = dst.duplicate();
+                data.position(start);
+                data.limit(start + length);
+                if (dataCrc(data) != segment.getInt(offset + OFFSET_DATA_CRC)) {
+                    LOGGER.warn("Corrupted block [" + new BlockKey(hi, lo, blockNum)
+                            + "] in disk cache, dropped.");
+                    dst.position(start);
+                    corrupted.incrementAndGet();
+                    misses.incrementAndGet();
+                    unindexAt(i);
+                    invalidate(slot);
+                    releaseSlot(slot);
+                    return -1;
+                }
+                verified[slot] = true;
+            }
+            hits.incrementAndGet();
+            refBits[slot] = true;
+            return length;
+        }
+
+        synchronized boolean put(long hi, long lo, int blockNum, int hash, ByteBuffer data) {
+            if (closed) {
+                return false;
+            }
+            remove(hi, lo, blockNum, hash);
+            int slot = allocateSlot();
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            segment.putInt(offset + OFFSET_MAGIC, 0);
+            segment.position(offset + HEADER_SIZE);
+            segment.put(data.duplicate());
+            segment.putLong(offset + OFFSET_ID_HI, hi);
+            segment.putLong(offset + OFFSET_ID_LO, lo);
+            segment.putInt(offset + OFFSET_BLOCK_NUM, blockNum);
+            segment.putInt(offset + OFFSET_LENGTH, data.remaining());
+            segment.putInt(offset + OFFSET_DATA_CRC, dataCrc(data));
+            segment.putInt(offset + OFFSET_HEADER_CRC, headerCrc(segment, offset));
+            segment.putInt(offset + OFFSET_MAGIC, MAGIC);
+            keyHi[slot] = hi;
+            keyLo[slot] = lo;
+            keyBlock[slot] = blockNum;
+            used[slot] = true;
+            refBits[slot] = false;
+            verified[slot] = true;
+            indexSlot(slot, hash);
+            return true;
+        }
+
+        synchronized void remove(long hi, long lo, int blockNum, int hash) {
+            int i = closed ? -1 : find(hi, lo, blockNum, hash);
+            if (i >= 0) {
+                int slot = index[i] - 1;
+                unindexAt(i);
+                invalidate(slot);
+                releaseSlot(slot);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.ddth.com.cassdir.internal;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.ddth.com.cassdir.FileInfo;
+
+/**
+ * Binary form of {@link FileInfo}s, as stored in the cache tier (so that
+ * remote caches store a few bytes instead of a generically serialized
+ * object).
+ *
+ * <p>
+ * A {@link FileInfo} is encoded as:
+ * </p>
+ * <ul>
+ * <li>{@code byte}: {@link #VERSION}</li>
+ * <li>{@code short} + UTF-8 bytes: name</li>
+ * <li>{@code short} + UTF-8 bytes: id</li>
+ * <li>{@code long}: size</li>
+ * <li>{@code int}: block size</li>
+ * <li>{@code int}: length of inline data ({@code -1} if none, {@code -2} if
+ * metadata-only, see {@link FileInfo#isMetadataOnly()}, {@code -3} if
+ * metadata-only and inline, see {@link FileInfo#isInline()}) + data</li>
+ * </ul>
+ * <p>
+ * A list of {@link FileInfo}s (as listed from the metadata table) is encoded
+ * as {@link #LIST_VERSION}, a {@code long} directory generation the list was
+ * read at, an {@code int} count, then each entry without its version byte and
+ * with a {@code byte} ({@code 1} if inline, otherwise {@code 0}) instead of
+ * inline data: decoded entries are metadata-only.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class FileInfoCodec {
+
+    public final static byte VERSION = 2;
+    public final static byte LIST_VERSION = 4;
+
+    private static byte[] utf8(String str) {
+        return str != null ? str.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    private static int encodedLength(byte[] name, byte[] id) {
+        return 2 + name.length + 2 + id.length + 8 + 4;
+    }
+
+    private static void write(ByteBuffer buf, byte[] name, byte[] id, FileInfo fileInfo) {
+        buf.putShort((short) name.length).put(name).putShort((short) id.length).put(id);
+        buf.putLong(fileInfo.size()).putInt(fileInfo.blockSize());
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getShort() & 0xFFFF;
+        String result = new String(buf.array(), buf.arrayOffset() + buf.position(), len,
+                StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return result;
+    }
+
+    private static FileInfo read(ByteBuffer buf, boolean withData) {
+        String name = readString(buf);
+        String id = readString(buf);
+        long size = buf.getLong();
+        int blockSize = buf.getInt();
+        int dataLength = withData ? buf.getInt() : (buf.get() != 0 ? -3 : -2);
+        byte[] data = null;
+        if (dataLength >= 0) {
+            data = new byte[dataLength];
+            buf.get(data);
+        }
+        FileInfo fileInfo = FileInfo.newInstance(name, id, size, blockSize, data);
+        return dataLength <= -2 ? fileInfo.asMetadataOnly(dataLength == -3) : fileInfo;
+    }
+
+    /**
+     * Encodes a {@link FileInfo}.
+     *
+     * @param fileInfo
+     * @return
+     */
+    public static byte[] encode(FileInfo fileInfo) {
+        byte[] name = utf8(fileInfo.name()), id = utf8(fileInfo.id()), data = fileInfo.data();
+        ByteBuffer buf = ByteBuffer.allocate(1 + encodedLength(name, id) + 4
+                + (data != null ? data.length : 0));
+        buf.put(VERSION);
+        write(buf, name, id, fileInfo);
+        if (data != null) {
+            buf.putInt(data.length).put(data);
+        } else {
+            buf.putInt(!fileInfo.isMetadataOnly() ? -1 : (fileInfo.isInline() ? -3 : -2));
+        }
+        return buf.array();
+    }
+
+    /**
+     * Decodes a {@link FileInfo}.
+     *
+     * @param value
+     *            value read from cache
+     * @return {@code null} if {@code value} is not an encoded {@link FileInfo}
+     *         (e.g. cached by an older version), to be treated as a cache miss
+     */
+    public static FileInfo decode(Object value) {
+        if (!(value instanceof byte[])) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap((byte[]) value);
+        try {
+            return buf.get() == VERSION ? read(buf, true) : null;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a list of {@link FileInfo}s, without their inline data.
+     *
+     * @param generation
+     *            directory's generation the list was read at
+     * @param fileInfos
+     * @return
+     */
+    public static byte[] encodeList(long generation, List<FileInfo> fileInfos) {
+        int n = fileInfos.size(), length = 1 + 8 + 4;
+        byte[][] names = new byte[n][], ids = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            FileInfo fileInfo = fileInfos.get(i);
+            names[i] = utf8(fileInfo.name());
+            ids[i] = utf8(fileInfo.id());
+            length += encodedLength(names[i], ids[i]) + 1;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.put(LIST_VERSION).putLong(generation).putInt(n);
+        for (int i = 0; i < n; i++) {
+            write(buf, names[i], ids[i], fileInfos.get(i));
+            buf.put((byte) (fileInfos.get(i).isInline() ? 1 : 0));
+        }
+        return buf.array();
+    }
+
+    /**
+     * Decodes a list of {@link FileInfo}s read at a directory generation.
+     *
+     * @param value
+     *            value read from cache
+     * @param generation
+     * @return {@code null} if {@code value} is not an encoded list of
+     *         {@link FileInfo}s or was read at another generation, to be
+     *         treated as a cache miss
+     */
+    public static List<FileInfo> decodeList(Object value, long generation) {
+        if (!(value instanceof byte[])) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap((byte[]) value);
+        try {
+            if (buf.get() != LIST_VERSION || buf.getLong() != generation) {
+                return null;
+            }
+            int n = buf.getInt();
+            List<FileInfo> result = new ArrayList<FileInfo>(Math.max(0, Math.min(n, 1024)));
+            for (int i = 0; i < n; i++) {
+                result.add(read(buf, false));
+            }
+            return result;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+}
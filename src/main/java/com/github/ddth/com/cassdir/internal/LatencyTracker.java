@@ -0,0 +1,108 @@
+package com.github.ddth.com.cassdir.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, approximate latency histogram over a sliding window, used to
+ * derive percentile-based delays.
+ *
+ * <p>
+ * Latencies are recorded in microseconds into log-scaled buckets (4 buckets
+ * per power of 2, i.e. at most ~19% relative error). Two generations of
+ * buckets are kept: when the current generation has received
+ * {@code windowSize} samples it becomes the previous one and a fresh
+ * generation starts, so percentiles reflect the last {@code windowSize} to
+ * {@code 2 * windowSize} samples.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class LatencyTracker {
+
+    private final static int SUB_BUCKET_BITS = 2;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int NUM_BUCKETS = 64 * SUB_BUCKETS;
+
+    private final int windowSize;
+    private volatile AtomicLongArray current = new AtomicLongArray(NUM_BUCKETS + 1);
+    private volatile AtomicLongArray previous = new AtomicLongArray(NUM_BUCKETS + 1);
+
+    /**
+     * @param windowSize
+     *            number of samples per generation
+     */
+    public LatencyTracker(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        int log2 = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (log2 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (log2 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Upper bound (in microseconds) of a bucket.
+     */
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int log2 = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (log2 - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        AtomicLongArray buckets = current;
+        buckets.incrementAndGet(bucketOf(nanos / 1000));
+        // last slot holds number of samples of the generation
+        if (buckets.incrementAndGet(NUM_BUCKETS) == windowSize) {
+            previous = buckets;
+            current = new AtomicLongArray(NUM_BUCKETS + 1);
+        }
+    }
+
+    /**
+     * Number of samples currently in the window.
+     *
+     * @return
+     */
+    public long getCount() {
+        return current.get(NUM_BUCKETS) + previous.get(NUM_BUCKETS);
+    }
+
+    /**
+     * Gets an (approximate, upper bound) percentile of recorded latencies.
+     *
+     * @param percentile
+     *            {@code 0.0} to {@code 1.0}, e.g. {@code 0.95}
+     * @return latency in nanoseconds, {@code -1} if no sample has been
+     *         recorded
+     */
+    public long getPercentile(double percentile) {
+        AtomicLongArray cur = current, prev = previous;
+        long total = cur.get(NUM_BUCKETS) + prev.get(NUM_BUCKETS);
+        if (total <= 0) {
+            return -1;
+        }
+        long threshold = (long) Math.ceil(total * Math.max(0.0, Math.min(1.0, percentile)));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += cur.get(i) + prev.get(i);
+            if (seen >= threshold && seen > 0) {
+                return bucketUpperBound(i) * 1000;
+            }
+        }
+        return bucketUpperBound(NUM_BUCKETS - 1) * 1000;
+    }
+}
@@ -0,0 +1,680 @@
+package com.github.ddth.com.cassdir.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-local block cache that keeps block data off-heap.
+ *
+ * <p>
+ * Cache memory is a set of direct {@link ByteBuffer} slabs, cut into
+ * fixed-size slots; a block occupies as many slots as needed (chained). Blocks
+ * are keyed by (file-id, block-num), where file-id is the hex string generated
+ * by {@code FileInfo}, parsed into two {@code long}s (see
+ * {@link BlockKey#parseFileId(String, long[])}; callers that look up many blocks
+ * of a file parse its id once and use the methods taking the two {@code long}s).
+ * The cache is split into stripes, each guarded by its own lock and owning an
+ * equal share of the byte budget; slabs are allocated on first use, sized to the
+ * stripe's share. Eviction is CLOCK (second chance) per stripe. Cached blocks are
+ * copied into caller-supplied buffers, so that hits allocate nothing.
+ * </p>
+ *
+ * <p>
+ * Blocks can be pinned: a pinned block is never evicted, only removed
+ * explicitly. Pinned blocks can occupy at most {@link #getMaxPinnedRatio()}
+ * of each stripe, further pin requests cache blocks unpinned.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class OffHeapBlockCache {
+
+    public final static int DEFAULT_SLOT_SIZE = 16 * 1024; // 16Kb
+    public final static int DEFAULT_NUM_STRIPES = 16;
+    private final static int SLAB_SIZE = 4 * 1024 * 1024; // 4Mb
+    public final static double DEFAULT_MAX_PINNED_RATIO = 0.5;
+
+    private final int slotSize;
+    private final long capacity;
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private volatile double maxPinnedRatio = DEFAULT_MAX_PINNED_RATIO;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity
+     *            max number of bytes to hold, including slot waste
+     */
+    public OffHeapBlockCache(long capacity) {
+        this(capacity, DEFAULT_SLOT_SIZE, DEFAULT_NUM_STRIPES);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity
+     *            max number of bytes to hold, including slot waste
+     * @param slotSize
+     * @param numStripes
+     */
+    public OffHeapBlockCache(long capacity, int slotSize, int numStripes) {
+        if (slotSize <= 0 || SLAB_SIZE % slotSize != 0) {
+            throw new IllegalArgumentException("Slot size must divide " + SLAB_SIZE + "!");
+        }
+        if (numStripes <= 0 || Integer.bitCount(numStripes) != 1) {
+            throw new IllegalArgumentException("Number of stripes must be a power of 2!");
+        }
+        long slotsPerStripe = capacity / slotSize / numStripes;
+        if (slotsPerStripe <= 0 || slotsPerStripe > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Invalid capacity [" + capacity + "]!");
+        }
+        this.slotSize = slotSize;
+        this.capacity = slotsPerStripe * slotSize * numStripes;
+        this.stripes = new Stripe[numStripes];
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(numStripes);
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Stripe((int) slotsPerStripe);
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    /*
+     * Stripe from the hash's high bits, index slot (within the stripe) from
+     * its low bits: the two must not overlap, or entries of a stripe crowd
+     * into a fraction of its index.
+     */
+    private Stripe stripe(int hash) {
+        return stripes[(int) ((hash & 0xFFFFFFFFL) >>> stripeShift)];
+    }
+
+    /**
+     * Gets a block from cache, copying its data into {@code dst}.
+     *
+     * @param fileId
+     * @param blockNum
+     * @param dst
+     *            receives the block data from its position, which is advanced
+     *            past the copied data
+     * @return number of bytes copied, or {@code -1} if the block is not found
+     *         or does not fit in {@code dst} ({@code dst} is not changed)
+     */
+    public int get(String fileId, int blockNum, ByteBuffer dst) {
+        long[] key = new long[2];
+        return BlockKey.parseFileId(fileId, key) ? get(key[0], key[1], blockNum, dst) : -1;
+    }
+
+    /**
+     * Gets a block from cache, copying its data into {@code dst}.
+     *
+     * @param idHi
+     *            high 64 bits of the file-id
+     * @param idLo
+     *            low 64 bits of the file-id
+     * @param blockNum
+     * @param dst
+     * @return see {@link #get(String, int, ByteBuffer)}
+     */
+    public int get(long idHi, long idLo, int blockNum, ByteBuffer dst) {
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        return stripe(hash).get(idHi, idLo, blockNum, hash, dst);
+    }
+
+    /**
+     * Checks if a block is currently cached (does not count as a hit or miss).
+     *
+     * @param fileId
+     * @param blockNum
+     * @return
+     */
+    public boolean contains(String fileId, int blockNum) {
+        long[] key = new long[2];
+        return BlockKey.parseFileId(fileId, key) && contains(key[0], key[1], blockNum);
+    }
+
+    /**
+     * Checks if a block is currently cached (does not count as a hit or miss).
+     *
+     * @param idHi
+     * @param idLo
+     * @param blockNum
+     * @return
+     */
+    public boolean contains(long idHi, long idLo, int blockNum) {
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        return stripe(hash).contains(idHi, idLo, blockNum, hash);
+    }
+
+    /**
+     * Puts a block to cache, replacing existing entry (if any).
+     *
+     * @param fileId
+     * @param blockNum
+     * @param data
+     *            block data, from position to limit; the buffer's position is
+     *            not changed
+     * @return {@code false} if the block can not be cached
+     */
+    public boolean put(String fileId, int blockNum, ByteBuffer data) {
+        return put(fileId, blockNum, data, false);
+    }
+
+    /**
+     * Puts a block to cache, replacing existing entry (if any).
+     *
+     * @param fileId
+     * @param blockNum
+     * @param data
+     *            block data, from position to limit; the buffer's position is
+     *            not changed
+     * @param pin
+     *            pin the block so that it is never evicted; an already pinned
+     *            entry stays pinned
+     * @return {@code false} if the block can not be cached
+     */
+    public boolean put(String fileId, int blockNum, ByteBuffer data, boolean pin) {
+        long[] key = new long[2];
+        return BlockKey.parseFileId(fileId, key) && put(key[0], key[1], blockNum, data, pin);
+    }
+
+    /**
+     * Puts a block to cache, replacing existing entry (if any).
+     *
+     * @param idHi
+     * @param idLo
+     * @param blockNum
+     * @param data
+     * @param pin
+     * @return see {@link #put(String, int, ByteBuffer, boolean)}
+     */
+    public boolean put(long idHi, long idLo, int blockNum, ByteBuffer data, boolean pin) {
+        if (data == null) {
+            return false;
+        }
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        return stripe(hash).put(idHi, idLo, blockNum, hash, data, pin);
+    }
+
+    /**
+     * Pins a cached block so that it is never evicted.
+     *
+     * @param fileId
+     * @param blockNum
+     * @return {@code false} if the block is not cached or the pinned limit
+     *         has been reached
+     */
+    public boolean pin(String fileId, int blockNum) {
+        long[] key = new long[2];
+        return BlockKey.parseFileId(fileId, key) && pin(key[0], key[1], blockNum);
+    }
+
+    /**
+     * Pins a cached block so that it is never evicted.
+     *
+     * @param idHi
+     * @param idLo
+     * @param blockNum
+     * @return see {@link #pin(String, int)}
+     */
+    public boolean pin(long idHi, long idLo, int blockNum) {
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        return stripe(hash).pin(idHi, idLo, blockNum, hash);
+    }
+
+    /**
+     * Removes a block from cache.
+     *
+     * @param fileId
+     * @param blockNum
+     */
+    public void remove(String fileId, int blockNum) {
+        long[] key = new long[2];
+        if (BlockKey.parseFileId(fileId, key)) {
+            remove(key[0], key[1], blockNum);
+        }
+    }
+
+    /**
+     * Removes a block from cache.
+     *
+     * @param idHi
+     * @param idLo
+     * @param blockNum
+     */
+    public void remove(long idHi, long idLo, int blockNum) {
+        int hash = BlockKey.hash(idHi, idLo, blockNum);
+        stripe(hash).remove(idHi, idLo, blockNum, hash);
+    }
+
+    /**
+     * Removes all cached blocks of a file.
+     *
+     * @param fileId
+     * @param numBlocks
+     */
+    public void removeFile(String fileId, long numBlocks) {
+        long[] key = new long[2];
+        if (BlockKey.parseFileId(fileId, key)) {
+            removeFile(key[0], key[1], numBlocks);
+        }
+    }
+
+    /**
+     * Removes all cached blocks of a file.
+     *
+     * @param idHi
+     * @param idLo
+     * @param numBlocks
+     */
+    public void removeFile(long idHi, long idLo, long numBlocks) {
+        for (int i = 0; i < numBlocks; i++) {
+            remove(idHi, idLo, i);
+        }
+    }
+
+    /**
+     * Removes all entries and releases off-heap memory.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public double getMaxPinnedRatio() {
+        return maxPinnedRatio;
+    }
+
+    /**
+     * Sets max portion of the capacity that pinned blocks can occupy.
+     *
+     * @param maxPinnedRatio
+     *            {@code 0.0} to {@code 0.9}
+     * @return
+     */
+    public OffHeapBlockCache setMaxPinnedRatio(double maxPinnedRatio) {
+        this.maxPinnedRatio = Math.max(0.0, Math.min(0.9, maxPinnedRatio));
+        return this;
+    }
+
+    /**
+     * Number of bytes currently held by pinned blocks, including slot waste.
+     *
+     * @return
+     */
+    public long getPinnedBytes() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += (long) stripe.pinnedSlots() * slotSize;
+        }
+        return result;
+    }
+
+    /**
+     * Number of bytes of off-heap memory currently allocated (slabs are
+     * allocated on first use).
+     *
+     * @return
+     */
+    public long getAllocatedBytes() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.allocatedBytes();
+        }
+        return result;
+    }
+
+    public long getHits() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.hits.get();
+        }
+        return result;
+    }
+
+    public long getMisses() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.misses.get();
+        }
+        return result;
+    }
+
+    public long getEvictions() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.evictions.get();
+        }
+        return result;
+    }
+
+    /**
+     * Number of bytes currently held, including slot waste.
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += (long) stripe.usedSlots() * slotSize;
+        }
+        return result;
+    }
+
+    public long getNumBlocks() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.numEntries();
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "OffHeapBlockCache[capacity=" + capacity + ",used=" + getUsedBytes() + ",pinned="
+                + getPinnedBytes() + ",blocks="
+                + getNumBlocks() + ",hits=" + getHits() + ",misses=" + getMisses()
+                + ",evictions=" + getEvictions() + "]";
+    }
+
+    /*----------------------------------------------------------------------*/
+    private final static byte FLAG_HEAD = 1;
+    private final static byte FLAG_REF = 2;
+    private final static byte FLAG_PINNED = 4;
+
+    /**
+     * A stripe of the cache: slots with per-slot metadata kept in primitive
+     * arrays, and an open-addressing (linear probing) index from key to head
+     * slot.
+     */
+    private class Stripe {
+        private final int numSlots;
+        private final int slotsPerSlab;
+        private ByteBuffer[] slabs;
+
+        /* per-slot metadata; key & length are only meaningful for head slots */
+        private final int[] next;
+        private final long[] keyHi, keyLo;
+        private final int[] keyBlock, length;
+        private final byte[] flags;
+
+        /* index: head slot + 1, 0 means empty */
+        private final int[] index;
+        private final int indexMask;
+
+        private int freeHead = -1, allocatedSlots = 0, usedSlots = 0, numEntries = 0;
+        private int pinnedSlots = 0;
+        private int clockHand = 0;
+        /* read without the stripe's lock */
+        private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(),
+                evictions = new AtomicLong();
+
+        Stripe(int numSlots) {
+            this.numSlots = numSlots;
+            this.slotsPerSlab = SLAB_SIZE / slotSize;
+            this.slabs = new ByteBuffer[(numSlots + slotsPerSlab - 1) / slotsPerSlab];
+            next = new int[numSlots];
+            keyHi = new long[numSlots];
+            keyLo = new long[numSlots];
+            keyBlock = new int[numSlots];
+            length = new int[numSlots];
+            flags = new byte[numSlots];
+            int indexSize = Integer.highestOneBit(numSlots * 2 - 1) << 1;
+            index = new int[indexSize];
+            indexMask = indexSize - 1;
+        }
+
+        private ByteBuffer slab(int slot) {
+            int slabIndex = slot / slotsPerSlab;
+            ByteBuffer slab = slabs[slabIndex];
+            if (slab == null) {
+                // the last slab only holds the stripe's remaining slots
+                int slots = Math.min(slotsPerSlab, numSlots - slabIndex * slotsPerSlab);
+                slab = ByteBuffer.allocateDirect(slots * slotSize);
+                slabs[slabIndex] = slab;
+            }
+            return slab;
+        }
+
+        synchronized long allocatedBytes() {
+            long result = 0;
+            for (ByteBuffer slab : slabs) {
+                result += slab != null ? slab.capacity() : 0;
+            }
+            return result;
+        }
+
+        private int slotOffset(int slot) {
+            return (slot % slotsPerSlab) * slotSize;
+        }
+
+        private int find(long hi, long lo, int blockNum, int hash) {
+            for (int i = hash & indexMask;; i = (i + 1) & indexMask) {
+                int slot = index[i] - 1;
+                if (slot < 0) {
+                    return -1;
+                }
+                if (keyHi[slot] == hi && keyLo[slot] == lo && keyBlock[slot] == blockNum) {
+                    return i;
+                }
+            }
+        }
+
+        synchronized int get(long hi, long lo, int blockNum, int hash, ByteBuffer dst) {
+            int i = find(hi, lo, blockNum, hash);
+            int slot = i >= 0 ? index[i] - 1 : -1;
+            if (slot < 0 || length[slot] > dst.remaining()) {
+                misses.incrementAndGet();
+                return -1;
+            }
+            hits.incrementAndGet();
+            flags[slot] |= FLAG_REF;
+            int len = length[slot];
+            for (int copied = 0; copied < len; slot = next[slot]) {
+                int n = Math.min(slotSize, len - copied);
+                ByteBuffer slab = slab(slot);
+                int offset = slotOffset(slot);
+                slab.limit(offset + n);
+                slab.position(offset);
+                dst.put(slab);
+                slab.limit(slab.capacity());
+                copied += n;
+            }
+            return len;
+        }
+
+        synchronized boolean contains(long hi, long lo, int blockNum, int hash) {
+            return find(hi, lo, blockNum, hash) >= 0;
+        }
+
+        synchronized int pinnedSlots() {
+            return pinnedSlots;
+        }
+
+        synchronized int usedSlots() {
+            return usedSlots;
+        }
+
+        synchronized int numEntries() {
+            return numEntries;
+        }
+
+        private int slotsOf(int len) {
+            return Math.max(1, (len + slotSize - 1) / slotSize);
+        }
+
+        private boolean canPin(int slots) {
+            return pinnedSlots + slots <= (int) (numSlots * maxPinnedRatio);
+        }
+
+        synchronized boolean pin(long hi, long lo, int blockNum, int hash) {
+            int i = find(hi, lo, blockNum, hash);
+            if (i < 0) {
+                return false;
+            }
+            int slot = index[i] - 1;
+            if ((flags[slot] & FLAG_PINNED) != 0) {
+                return true;
+            }
+            int slots = slotsOf(length[slot]);
+            if (!canPin(slots)) {
+                return false;
+            }
+            flags[slot] |= FLAG_PINNED;
+            pinnedSlots += slots;
+            return true;
+        }
+
+        synchronized boolean put(long hi, long lo, int blockNum, int hash, ByteBuffer data,
+                boolean pin) {
+            int len = data.remaining();
+            int slotsNeeded = slotsOf(len);
+            int i = find(hi, lo, blockNum, hash);
+            if (i >= 0) {
+                pin |= (flags[index[i] - 1] & FLAG_PINNED) != 0;
+                removeAt(i);
+            }
+            pin = pin && canPin(slotsNeeded);
+            if (slotsNeeded > numSlots - pinnedSlots) {
+                return false;
+            }
+            while (numSlots - usedSlots < slotsNeeded) {
+                evictOne();
+            }
+            ByteBuffer src = data.duplicate();
+            int head = -1, prev = -1;
+            for (int k = 0; k < slotsNeeded; k++) {
+                int slot = allocateSlot();
+                if (prev < 0) {
+                    head = slot;
+                } else {
+                    next[prev] = slot;
+                }
+                int n = Math.min(slotSize, src.remaining());
+                if (n > 0) {
+                    ByteBuffer slab = slab(slot);
+                    slab.position(slotOffset(slot));
+                    int limit = src.limit();
+                    src.limit(src.position() + n);
+                    slab.put(src);
+                    src.limit(limit);
+                }
+                flags[slot] = 0;
+                prev = slot;
+            }
+            next[prev] = -1;
+            keyHi[head] = hi;
+            keyLo[head] = lo;
+            keyBlock[head] = blockNum;
+            length[head] = len;
+            flags[head] = FLAG_HEAD;
+            if (pin) {
+                flags[head] |= FLAG_PINNED;
+                pinnedSlots += slotsNeeded;
+            }
+            for (i = hash & indexMask; index[i] != 0; i = (i + 1) & indexMask)
+                ;
+            index[i] = head + 1;
+            numEntries++;
+            return true;
+        }
+
+        synchronized void remove(long hi, long lo, int blockNum, int hash) {
+            int i = find(hi, lo, blockNum, hash);
+            if (i >= 0) {
+                removeAt(i);
+            }
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < index.length; i++) {
+                index[i] = 0;
+            }
+            for (int i = 0; i < numSlots; i++) {
+                flags[i] = 0;
+            }
+            slabs = new ByteBuffer[slabs.length];
+            freeHead = -1;
+            allocatedSlots = usedSlots = numEntries = pinnedSlots = 0;
+            clockHand = 0;
+        }
+
+        private int allocateSlot() {
+            usedSlots++;
+            if (freeHead >= 0) {
+                int slot = freeHead;
+                freeHead = next[slot];
+                return slot;
+            }
+            return allocatedSlots++;
+        }
+
+        /**
+         * Removes the entry at index position {@code i}, returning its slots
+         * to the free list and back-shifting the probe sequence.
+         */
+        private void removeAt(int i) {
+            int slot = index[i] - 1;
+            if ((flags[slot] & FLAG_PINNED) != 0) {
+                pinnedSlots -= slotsOf(length[slot]);
+            }
+            flags[slot] = 0;
+            while (slot >= 0) {
+                int nextSlot = next[slot];
+                next[slot] = freeHead;
+                freeHead = slot;
+                usedSlots--;
+                slot = nextSlot;
+            }
+            numEntries--;
+
+            // backward-shift deletion for linear probing
+            int hole = i;
+            for (int j = (i + 1) & indexMask; index[j] != 0; j = (j + 1) & indexMask) {
+                int s = index[j] - 1;
+                int home = BlockKey.hash(keyHi[s], keyLo[s], keyBlock[s]) & indexMask;
+                if (((j - home) & indexMask) >= ((j - hole) & indexMask)) {
+                    index[hole] = index[j];
+                    hole = j;
+                }
+            }
+            index[hole] = 0;
+        }
+
+        /**
+         * CLOCK: sweeps head slots, clearing reference bits, until an
+         * unpinned entry without reference bit is found and evicted.
+         */
+        private void evictOne() {
+            while (true) {
+                int slot = clockHand;
+                clockHand = (clockHand + 1) % Math.max(1, allocatedSlots);
+                if ((flags[slot] & (FLAG_HEAD | FLAG_PINNED)) != FLAG_HEAD) {
+                    continue;
+                }
+                if ((flags[slot] & FLAG_REF) != 0) {
+                    flags[slot] &= ~FLAG_REF;
+                    continue;
+                }
+                int i = find(keyHi[slot], keyLo[slot], keyBlock[slot],
+                        BlockKey.hash(keyHi[slot], keyLo[slot], keyBlock[slot]));
+                removeAt(i);
+                evictions.incrementAndGet();
+                return;
+            }
+        }
+    }
+}
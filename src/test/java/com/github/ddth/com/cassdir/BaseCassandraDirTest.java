@@ -0,0 +1,430 @@
+package com.github.ddth.com.cassdir;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.github.ddth.cql.SessionManager;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Base class for tests that need a Cassandra cluster.
+ *
+ * <p>
+ * Cluster is configured via system properties {@code cassdir.test.hosts},
+ * {@code cassdir.test.user}, {@code cassdir.test.password} and
+ * {@code cassdir.test.keyspace} (which must exist); tests are skipped if
+ * {@code cassdir.test.hosts} is not set. Test tables are created before and
+ * dropped after each test class.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public abstract class BaseCassandraDirTest {
+
+    protected final static String TABLE_METADATA = "cassdir_test_metadata";
+    protected final static String TABLE_FILEDATA = "cassdir_test_filedata";
+    protected final static String TABLE_FILEDATA_V2 = "cassdir_test_filedata_v2";
+    protected final static String TABLE_METADATA_NS = "cassdir_test_metadata_ns";
+    protected final static String TABLE_FILEDATA_NS = "cassdir_test_filedata_ns";
+    protected final static String TABLE_GENERATION = "cassdir_test_generation";
+
+    private final static String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS " + TABLE_METADATA + " (filename VARCHAR, "
+                    + "filesize BIGINT, fileid VARCHAR, blocksize INT, filedata BLOB, "
+                    + "PRIMARY KEY (filename))",
+            "CREATE TABLE IF NOT EXISTS " + TABLE_FILEDATA + " (fileid VARCHAR, "
+                    + "blocknum INT, blockdata BLOB, PRIMARY KEY ((fileid, blocknum)))",
+            "CREATE TABLE IF NOT EXISTS " + TABLE_FILEDATA_V2 + " (fileid VARCHAR, "
+                    + "blocknum INT, blockdata BLOB, PRIMARY KEY (fileid, blocknum))",
+            "CREATE TABLE IF NOT EXISTS " + TABLE_METADATA_NS + " (dirid VARCHAR, "
+                    + "filename VARCHAR, filesize BIGINT, fileid VARCHAR, blocksize INT, "
+                    + "filedata BLOB, PRIMARY KEY (dirid, filename))",
+            "CREATE TABLE IF NOT EXISTS " + TABLE_FILEDATA_NS + " (dirid VARCHAR, "
+                    + "fileid VARCHAR, blocknum INT, blockdata BLOB, "
+                    + "PRIMARY KEY ((dirid, fileid, blocknum)))",
+            "CREATE TABLE IF NOT EXISTS " + TABLE_GENERATION + " (dirname VARCHAR, "
+                    + "generation BIGINT, PRIMARY KEY (dirname))" };
+
+    private final static String[] TABLES = { TABLE_METADATA, TABLE_FILEDATA, TABLE_FILEDATA_V2,
+            TABLE_METADATA_NS, TABLE_FILEDATA_NS, TABLE_GENERATION };
+
+    protected static String cassandraHostsAndPorts, cassandraUser, cassandraPassword,
+            cassandraKeyspace;
+    protected static SessionManager sessionManager;
+    protected static Session session;
+
+    private final List<CassandraDirectory> directories = new ArrayList<CassandraDirectory>();
+    private final List<SessionManager> sessionManagers = new ArrayList<SessionManager>();
+
+    @BeforeClass
+    public static void setupCluster() {
+        cassandraHostsAndPorts = System.getProperty("cassdir.test.hosts");
+        Assume.assumeTrue("Cassandra is not configured (-Dcassdir.test.hosts)",
+                cassandraHostsAndPorts != null && cassandraHostsAndPorts.length() > 0);
+        cassandraUser = System.getProperty("cassdir.test.user", "");
+        cassandraPassword = System.getProperty("cassdir.test.password", "");
+        cassandraKeyspace = System.getProperty("cassdir.test.keyspace", "cassdir_test");
+
+        sessionManager = new SessionManager();
+        sessionManager.init();
+        session = sessionManager.getSession(cassandraHostsAndPorts, cassandraUser,
+                cassandraPassword, cassandraKeyspace);
+        for (String cql : SCHEMA) {
+            session.execute(cql);
+        }
+    }
+
+    @AfterClass
+    public static void teardownCluster() {
+        if (sessionManager != null) {
+            try {
+                for (String table : TABLES) {
+                    session.execute("DROP TABLE IF EXISTS " + table);
+                }
+            } finally {
+                sessionManager.destroy();
+                sessionManager = null;
+                session = null;
+            }
+        }
+    }
+
+    @Before
+    public void truncateTables() {
+        for (String table : TABLES) {
+            session.execute("TRUNCATE " + table);
+        }
+    }
+
+    @After
+    public void destroyDirectories() {
+        for (CassandraDirectory dir : directories) {
+            dir.destroy();
+        }
+        directories.clear();
+        for (SessionManager sm : sessionManagers) {
+            sm.destroy();
+        }
+        sessionManagers.clear();
+    }
+
+    /**
+     * Creates an initialized directory on the test tables, with default
+     * settings. Callers that change settings call
+     * {@link CassandraDirectory#init()} again. Directories are destroyed after
+     * each test.
+     *
+     * @param fileDataLayout
+     * @param directoryId
+     *            {@code null} for a non-namespaced directory
+     * @return
+     */
+    protected CassandraDirectory newDirectory(FileDataLayout fileDataLayout, String directoryId) {
+        return newDirectory(fileDataLayout, directoryId, null);
+    }
+
+    /**
+     * Creates an initialized directory on the test tables, using the
+     * specified session manager (if not {@code null}).
+     *
+     * @param fileDataLayout
+     * @param directoryId
+     * @param dirSessionManager
+     * @return
+     */
+    protected CassandraDirectory newDirectory(FileDataLayout fileDataLayout, String directoryId,
+            SessionManager dirSessionManager) {
+        CassandraDirectory dir = new CassandraDirectory(cassandraHostsAndPorts, cassandraUser,
+                cassandraPassword, cassandraKeyspace);
+        directories.add(dir);
+        if (dirSessionManager != null) {
+            // drop the directory's own session manager
+            dir.destroy();
+            dir.setSessionManager(dirSessionManager);
+        }
+        if (directoryId != null) {
+            dir.setTableMetadata(TABLE_METADATA_NS).setTableFiledata(TABLE_FILEDATA_NS)
+                    .setDirectoryId(directoryId);
+        } else {
+            dir.setTableMetadata(TABLE_METADATA).setTableFiledata(
+                    fileDataLayout == FileDataLayout.CLUSTERED ? TABLE_FILEDATA_V2
+                            : TABLE_FILEDATA);
+        }
+        dir.setTableGeneration(TABLE_GENERATION).setFileDataLayout(fileDataLayout);
+        dir.init();
+        return dir;
+    }
+
+    protected CassandraDirectory newDirectory() {
+        return newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null);
+    }
+
+    /**
+     * Creates a {@link RecordingSessionManager}, destroyed after each test.
+     */
+    protected RecordingSessionManager newRecordingSessionManager() {
+        RecordingSessionManager sm = new RecordingSessionManager();
+        sm.init();
+        sessionManagers.add(sm);
+        return sm;
+    }
+
+    /**
+     * Session manager whose sessions record the queries they execute (one
+     * entry per round trip) and can fail or delay asynchronous executions.
+     */
+    protected static class RecordingSessionManager extends SessionManager {
+        public final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        private volatile String failQuery;
+        private final AtomicInteger failAfter = new AtomicInteger();
+        private volatile String delayQuery;
+        private volatile long delayMs;
+        private final AtomicInteger delayCount = new AtomicInteger();
+        private final AtomicInteger inflight = new AtomicInteger(), maxInflight = new AtomicInteger();
+        private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+        /**
+         * Asynchronous executions of queries containing {@code queryPart}
+         * fail, after {@code successes} of them have been executed.
+         */
+        public void failAsync(String queryPart, int successes) {
+            failAfter.set(successes);
+            failQuery = queryPart;
+        }
+
+        /**
+         * Asynchronous executions of queries containing {@code queryPart} are
+         * sent after {@code delayMs}; {@link #getInflight()} and
+         * {@link #getMaxInflight()} count them until they complete.
+         */
+        public void delayAsync(String queryPart, long delayMs) {
+            delayAsync(queryPart, delayMs, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Like {@link #delayAsync(String, long)}, for the next {@code count}
+         * asynchronous executions of matching queries only.
+         */
+        public void delayAsync(String queryPart, long delayMs, int count) {
+            this.delayMs = delayMs;
+            delayCount.set(count);
+            delayQuery = queryPart;
+        }
+
+        public int getInflight() {
+            return inflight.get();
+        }
+
+        public int getMaxInflight() {
+            return maxInflight.get();
+        }
+
+        @Override
+        public void destroy() {
+            scheduler.shutdownNow();
+            super.destroy();
+        }
+
+        public int count(String queryPart) {
+            int count = 0;
+            synchronized (queries) {
+                for (String query : queries) {
+                    if (query.contains(queryPart)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public Session getSession(String hostsAndPorts, String username, String password,
+                String keyspace) {
+            final Session session = super.getSession(hostsAndPorts, username, password, keyspace);
+            return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                    new Class<?>[] { Session.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Throwable {
+                            String name = method.getName();
+                            if ((name.equals("execute") || name.equals("executeAsync"))
+                                    && args != null && args.length > 0) {
+                                String query = args[0] instanceof Statement
+                                        ? queryOf((Statement) args[0]) : String.valueOf(args[0]);
+                                queries.add(query);
+                                String failQuery = RecordingSessionManager.this.failQuery;
+                                if (name.equals("executeAsync") && failQuery != null
+                                        && query.contains(failQuery)
+                                        && failAfter.getAndDecrement() <= 0) {
+                                    // fails asynchronously, like a failed write would
+                                    return session.executeAsync(new SimpleStatement(
+                                            "SELECT * FROM cassdir_test_no_such_table"));
+                                }
+                                String delayQuery = RecordingSessionManager.this.delayQuery;
+                                if (name.equals("executeAsync") && delayQuery != null
+                                        && query.contains(delayQuery)
+                                        && delayCount.getAndDecrement() > 0) {
+                                    return delayed(session, (Statement) args[0]);
+                                }
+                            }
+                            try {
+                                return method.invoke(session, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+        }
+
+        private ResultSetFuture delayed(final Session session, final Statement stm) {
+            final SettableFuture<ResultSet> result = SettableFuture.create();
+            int n = inflight.incrementAndGet();
+            synchronized (maxInflight) {
+                maxInflight.set(Math.max(maxInflight.get(), n));
+            }
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ResultSet rs = null;
+                    Throwable error = null;
+                    try {
+                        rs = session.executeAsync(stm).getUninterruptibly();
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    // no longer in flight once completed
+                    inflight.decrementAndGet();
+                    if (error != null) {
+                        result.setException(error);
+                    } else {
+                        result.set(rs);
+                    }
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+            return (ResultSetFuture) Proxy.newProxyInstance(ResultSetFuture.class.getClassLoader(),
+                    new Class<?>[] { ResultSetFuture.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Throwable {
+                            if (method.getName().equals("getUninterruptibly")) {
+                                try {
+                                    return args == null ? Uninterruptibles
+                                            .getUninterruptibly(result) : Uninterruptibles
+                                            .getUninterruptibly(result, (Long) args[0],
+                                                    (TimeUnit) args[1]);
+                                } catch (ExecutionException e) {
+                                    throw e.getCause();
+                                }
+                            }
+                            if (method.getName().equals("cancel")) {
+                                // declared by ResultSetFuture itself
+                                return result.cancel((Boolean) args[0]);
+                            }
+                            try {
+                                return method.invoke(result, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+        }
+
+        private static String queryOf(Statement stm) {
+            if (stm instanceof BoundStatement) {
+                return ((BoundStatement) stm).preparedStatement().getQueryString();
+            }
+            if (stm instanceof RegularStatement) {
+                return ((RegularStatement) stm).getQueryString();
+            }
+            if (stm instanceof BatchStatement) {
+                StringBuilder sb = new StringBuilder("BATCH");
+                for (Statement child : ((BatchStatement) stm).getStatements()) {
+                    sb.append("; ").append(queryOf(child));
+                }
+                return sb.toString();
+            }
+            return stm.toString();
+        }
+    }
+
+    /**
+     * Fetches all rows of a table.
+     */
+    protected static List<Row> selectAll(String table) {
+        return session.execute("SELECT * FROM " + table).all();
+    }
+
+    /**
+     * Number of rows of a table.
+     */
+    protected static int countRows(String table) {
+        int count = 0;
+        for (@SuppressWarnings("unused")
+        Row row : session.execute("SELECT * FROM " + table)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Deterministic test content, that differs from block to block.
+     */
+    protected static byte[] content(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed + (i >>> 8) * 7 + (i >>> 16) * 13);
+        }
+        return data;
+    }
+
+    protected static void writeFile(CassandraDirectory dir, String name, byte[] data)
+            throws Exception {
+        IndexOutput out = dir.createOutput(name, IOContext.DEFAULT);
+        try {
+            out.writeBytes(data, data.length);
+        } finally {
+            out.close();
+        }
+    }
+
+    protected static byte[] readFile(CassandraDirectory dir, String name) throws Exception {
+        IndexInput in = dir.openInput(name, IOContext.DEFAULT);
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readBytes(data, 0, data.length);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of reads served by the off-heap block cache and the disk cache.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class BlockCacheReadTest extends BaseCassandraDirTest {
+
+    private final static int FILE_SIZE = 4 * CassandraDirectory.BLOCK_SIZE + 100;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private CassandraDirectory newCachedDirectory() {
+        CassandraDirectory dir = newDirectory();
+        dir.setBlockCacheSize(16 * 1024 * 1024).init();
+        return dir;
+    }
+
+    private CassandraDirectory newDiskCachedDirectory() throws Exception {
+        File cacheDir = tmp.newFolder();
+        CassandraDirectory dir = newDirectory();
+        dir.setDiskCacheDir(cacheDir.getAbsolutePath()).setDiskCacheSize(16 * 1024 * 1024)
+                .init();
+        return dir;
+    }
+
+    @Test
+    public void testReadFromCache() throws Exception {
+        CassandraDirectory dir = newCachedDirectory();
+        byte[] data = content(FILE_SIZE, 8);
+        writeFile(dir, "f", data);
+
+        assertArrayEquals(data, readFile(dir, "f"));
+        long hits = dir.getBlockCache().getHits();
+        assertArrayEquals(data, readFile(dir, "f"));
+        assertTrue(dir.getBlockCache().getHits() >= hits + 5);
+    }
+
+    @Test
+    public void testClonesKeepTheirBlock() throws Exception {
+        CassandraDirectory dir = newCachedDirectory();
+        byte[] data = content(FILE_SIZE, 9);
+        writeFile(dir, "f", data);
+        // fills the block cache
+        readFile(dir, "f");
+
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            assertEquals(data[0], in.readByte());
+            IndexInput clone = in.clone();
+            IndexInput slice = in.slice("slice", 10, 100);
+
+            // the parent moves on to other (cached) blocks
+            for (int blockNum = 1; blockNum < 5; blockNum++) {
+                in.seek(blockNum * (long) CassandraDirectory.BLOCK_SIZE);
+                assertEquals(data[blockNum * CassandraDirectory.BLOCK_SIZE], in.readByte());
+            }
+
+            byte[] buffer = new byte[1000];
+            clone.readBytes(buffer, 0, buffer.length);
+            assertArrayEquals(Arrays.copyOfRange(data, 1, 1001), buffer);
+            buffer = new byte[100];
+            slice.readBytes(buffer, 0, buffer.length);
+            assertArrayEquals(Arrays.copyOfRange(data, 10, 110), buffer);
+
+            // and a clone of a clone
+            in.seek(0);
+            in.readByte();
+            IndexInput clone2 = in.clone();
+            in.seek(2L * CassandraDirectory.BLOCK_SIZE);
+            in.readByte();
+            clone2.readBytes(buffer, 0, buffer.length);
+            assertArrayEquals(Arrays.copyOfRange(data, 1, 101), buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testReadFromDiskCache() throws Exception {
+        CassandraDirectory dir = newDiskCachedDirectory();
+        byte[] data = content(FILE_SIZE, 10);
+        writeFile(dir, "f", data);
+
+        assertArrayEquals(data, readFile(dir, "f"));
+        long hits = dir.getDiskCache().getHits();
+        assertArrayEquals(data, readFile(dir, "f"));
+        // blocks fetched by read-ahead are not looked up in the disk cache
+        assertTrue(dir.getDiskCache().getHits() > hits);
+    }
+
+    @Test
+    public void testClonesKeepTheirDiskCachedBlock() throws Exception {
+        CassandraDirectory dir = newDiskCachedDirectory();
+        byte[] data = content(FILE_SIZE, 11);
+        writeFile(dir, "f", data);
+        readFile(dir, "f");
+
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            assertEquals(data[0], in.readByte());
+            IndexInput clone = in.clone();
+            for (int blockNum = 1; blockNum < 5; blockNum++) {
+                in.seek(blockNum * (long) CassandraDirectory.BLOCK_SIZE);
+                assertEquals(data[blockNum * CassandraDirectory.BLOCK_SIZE], in.readByte());
+            }
+            byte[] buffer = new byte[1000];
+            clone.readBytes(buffer, 0, buffer.length);
+            assertArrayEquals(Arrays.copyOfRange(data, 1, 1001), buffer);
+        } finally {
+            in.close();
+        }
+    }
+}
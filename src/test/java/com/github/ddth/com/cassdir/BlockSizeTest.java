@@ -0,0 +1,127 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MergeInfo;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+
+/**
+ * Tests of per-file block sizes
+ * ({@link CassandraDirectory#setBlockSizePolicy(BlockSizePolicy)}).
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class BlockSizeTest extends BaseCassandraDirTest {
+
+    private final static int SMALL_BLOCK_SIZE = 4 * 1024;
+    private final static int LARGE_BLOCK_SIZE = 256 * 1024;
+    private final static IOContext MERGE_CONTEXT = new IOContext(new MergeInfo(1000,
+            1024 * 1024, false, 1));
+
+    private static void writeFile(CassandraDirectory dir, String name, byte[] data,
+            IOContext ioContext) throws Exception {
+        IndexOutput out = dir.createOutput(name, ioContext);
+        try {
+            out.writeBytes(data, data.length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Map<String, Row> metadataRows() {
+        Map<String, Row> result = new HashMap<String, Row>();
+        for (Row row : selectAll(TABLE_METADATA)) {
+            result.put(row.getString("filename"), row);
+        }
+        return result;
+    }
+
+    private static void assertReads(CassandraDirectory dir, String name, byte[] data,
+            int blockSize) throws Exception {
+        assertArrayEquals(data, readFile(dir, name));
+        // values straddling block boundaries
+        IndexInput in = dir.openInput(name, IOContext.DEFAULT);
+        try {
+            for (long pos = blockSize - 3; pos + 8 <= data.length; pos += blockSize) {
+                in.seek(pos);
+                long expected = 0;
+                for (int i = 0; i < 8; i++) {
+                    expected = (expected << 8) | (data[(int) pos + i] & 0xFF);
+                }
+                assertEquals(expected, in.readLong());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testPerFileBlockSizes() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setBlockSizePolicy(new BlockSizePolicy().setBlockSize(SMALL_BLOCK_SIZE, "tip")
+                .setBlockSize(LARGE_BLOCK_SIZE, IOContext.Context.MERGE));
+        byte[] tip = content(10 * SMALL_BLOCK_SIZE + 5, 1);
+        byte[] merged = content(LARGE_BLOCK_SIZE + 1000, 2);
+        byte[] doc = content(CassandraDirectory.BLOCK_SIZE + 1000, 3);
+        byte[] mergedTip = content(3 * SMALL_BLOCK_SIZE, 4);
+        writeFile(dir, "_0.tip", tip, IOContext.DEFAULT);
+        writeFile(dir, "_1.fdt", merged, MERGE_CONTEXT);
+        writeFile(dir, "_0.doc", doc, IOContext.DEFAULT);
+        // extension wins over context
+        writeFile(dir, "_1.tip", mergedTip, MERGE_CONTEXT);
+
+        Map<String, Row> rows = metadataRows();
+        assertEquals(SMALL_BLOCK_SIZE, rows.get("_0.tip").getInt("blocksize"));
+        assertEquals(LARGE_BLOCK_SIZE, rows.get("_1.fdt").getInt("blocksize"));
+        assertEquals(CassandraDirectory.BLOCK_SIZE, rows.get("_0.doc").getInt("blocksize"));
+        assertEquals(SMALL_BLOCK_SIZE, rows.get("_1.tip").getInt("blocksize"));
+        assertEquals(11 + 2 + 2 + 3, countRows(TABLE_FILEDATA));
+
+        // readers use the stored block size, whatever their own policy
+        CassandraDirectory reader = newDirectory();
+        for (CassandraDirectory d : new CassandraDirectory[] { dir, reader }) {
+            assertReads(d, "_0.tip", tip, SMALL_BLOCK_SIZE);
+            assertReads(d, "_1.fdt", merged, LARGE_BLOCK_SIZE);
+            assertReads(d, "_0.doc", doc, CassandraDirectory.BLOCK_SIZE);
+            assertReads(d, "_1.tip", mergedTip, SMALL_BLOCK_SIZE);
+        }
+
+        // all blocks are removed with the file
+        dir.deleteFile("_0.tip");
+        dir.awaitBlockPurges();
+        assertEquals(2 + 2 + 3, countRows(TABLE_FILEDATA));
+    }
+
+    @Test
+    public void testLegacyRowsWithoutBlockSize() throws Exception {
+        CassandraDirectory writer = newDirectory();
+        byte[] data = content(3 * CassandraDirectory.BLOCK_SIZE + 100, 1);
+        writeFile(writer, "_0.tim", data);
+        // as written by versions before per-file block sizes
+        session.execute("UPDATE " + TABLE_METADATA + " SET blocksize=? WHERE filename=?", null,
+                "_0.tim");
+        assertTrue(metadataRows().get("_0.tim").isNull("blocksize"));
+
+        // read with the fixed block size, not the reader's policy
+        CassandraDirectory reader = newDirectory();
+        reader.setBlockSizePolicy(new BlockSizePolicy().setDefaultBlockSize(SMALL_BLOCK_SIZE)
+                .setBlockSize(SMALL_BLOCK_SIZE, "tim"));
+        assertEquals(data.length, reader.fileLength("_0.tim"));
+        assertReads(reader, "_0.tim", data, CassandraDirectory.BLOCK_SIZE);
+
+        reader.deleteFile("_0.tim");
+        reader.awaitBlockPurges();
+        assertEquals(0, countRows(TABLE_FILEDATA));
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Lock;
+import org.junit.Test;
+
+/**
+ * Tests of locks: contention between directories and lease expiry.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class CassandraLockTest extends BaseCassandraDirTest {
+
+    private final static String LOCK_NAME = IndexWriter.WRITE_LOCK_NAME;
+
+    @Test
+    public void testContention() throws Exception {
+        CassandraDirectory dir1 = newDirectory();
+        CassandraDirectory dir2 = newDirectory();
+        Lock lock1 = dir1.makeLock(LOCK_NAME);
+        Lock lock2 = dir2.makeLock(LOCK_NAME);
+
+        assertTrue(lock1.obtain());
+        assertFalse(lock2.obtain());
+        assertTrue(lock2.isLocked());
+
+        lock1.close();
+        assertFalse(lock2.isLocked());
+        assertTrue(lock2.obtain());
+        assertFalse(lock1.obtain());
+        lock2.close();
+    }
+
+    @Test
+    public void testStaleCloseKeepsOtherHoldersLock() throws Exception {
+        CassandraDirectory dir1 = newDirectory();
+        dir1.setLockLeaseMs(1000).init();
+        CassandraDirectory dir2 = newDirectory();
+        Lock lock1 = dir1.makeLock(LOCK_NAME);
+        Lock lock2 = dir2.makeLock(LOCK_NAME);
+
+        assertTrue(lock1.obtain());
+        // dir1 "crashes": its heartbeat stops and the lease expires
+        dir1.destroy();
+        Thread.sleep(2500);
+        assertTrue(lock2.obtain());
+
+        // releasing the lost lock must not remove dir2's
+        dir1.init();
+        lock1.close();
+        assertTrue(dir1.makeLock(LOCK_NAME).isLocked());
+        lock2.close();
+    }
+
+    @Test
+    public void testHeartbeatRenewsLease() throws Exception {
+        CassandraDirectory dir1 = newDirectory();
+        dir1.setLockLeaseMs(1000).init();
+        CassandraDirectory dir2 = newDirectory();
+        Lock lock1 = dir1.makeLock(LOCK_NAME);
+
+        assertTrue(lock1.obtain());
+        Thread.sleep(2500);
+        assertFalse(dir2.makeLock(LOCK_NAME).obtain());
+        lock1.close();
+    }
+
+    @Test
+    public void testLockIsNotAFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "a", content(10, 6));
+        long generation = dir.getGeneration();
+        String[] files = dir.listAll();
+
+        Lock lock = dir.makeLock(LOCK_NAME);
+        assertTrue(lock.obtain());
+        assertEquals(Arrays.asList(files), Arrays.asList(dir.listAll()));
+        assertEquals(Arrays.asList(files), Arrays.asList(newDirectory().listAll()));
+        assertEquals(generation, dir.getGeneration());
+
+        lock.close();
+        assertEquals(generation, dir.getGeneration());
+    }
+
+    @Test
+    public void testObtainOneRoundTrip() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        Lock lock = dir.makeLock(LOCK_NAME);
+
+        sm.queries.clear();
+        assertTrue(lock.obtain());
+        assertEquals(sm.queries.toString(), 1, sm.queries.size());
+
+        sm.queries.clear();
+        lock.close();
+        assertEquals(sm.queries.toString(), 1, sm.queries.size());
+    }
+}
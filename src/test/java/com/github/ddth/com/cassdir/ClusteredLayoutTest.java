@@ -0,0 +1,103 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+
+/**
+ * Tests of the {@link FileDataLayout#CLUSTERED} layout's range reads, and of
+ * {@link FileDataMigrationTool}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class ClusteredLayoutTest extends BaseCassandraDirTest {
+
+    private final static int BLOCK_SIZE = CassandraDirectory.BLOCK_SIZE;
+    private final static String LOAD_RANGE = "FROM " + TABLE_FILEDATA_V2
+            + " WHERE fileid=? AND blocknum>=? AND blocknum<?";
+    private final static String LOAD_BLOCK = "FROM " + TABLE_FILEDATA_V2
+            + " WHERE fileid=? AND blocknum=?";
+
+    @Test
+    public void testRangeReadAhead() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.CLUSTERED, null, sm);
+        byte[] data = content(40 * BLOCK_SIZE + 100, 1);
+        writeFile(dir, "f", data);
+        assertEquals(41, countRows(TABLE_FILEDATA_V2));
+
+        sm.queries.clear();
+        assertArrayEquals(data, readFile(dir, "f"));
+        // a few single-block loads until the scan is detected, then blocks
+        // come in ranges, each a single query
+        int rangeReads = sm.count(LOAD_RANGE), blockLoads = sm.count(LOAD_BLOCK);
+        assertTrue(sm.queries.toString(), rangeReads > 0);
+        assertTrue(sm.queries.toString(), rangeReads + blockLoads < 41);
+        assertEquals(blockLoads, dir.getBlockReads());
+    }
+
+    @Test
+    public void testRangeReadFetchSize() throws Exception {
+        CassandraDirectory dir = newDirectory(FileDataLayout.CLUSTERED, null);
+        dir.setRangeReadFetchSize(2).setReadAheadMaxBlocks(8).init();
+        byte[] data = content(20 * BLOCK_SIZE, 2);
+        writeFile(dir, "f", data);
+        // ranges larger than the page size come in several pages
+        assertArrayEquals(data, readFile(dir, "f"));
+    }
+
+    @Test
+    public void testMigration() throws Exception {
+        CassandraDirectory source = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null);
+        byte[] data1 = content(3 * BLOCK_SIZE + 10, 1);
+        byte[] data2 = content(BLOCK_SIZE, 2);
+        writeFile(source, "f1", data1);
+        writeFile(source, "f2", data2);
+
+        FileDataMigrationTool tool = new FileDataMigrationTool(session)
+                .setTableMetadata(TABLE_METADATA).setTableSource(TABLE_FILEDATA)
+                .setTableTarget(TABLE_FILEDATA_V2).setConcurrency(2);
+        assertEquals(5, tool.migrate());
+        assertEquals(2, tool.getNumFiles());
+        assertEquals(5, tool.getNumBlocks());
+        // stored bytes, block headers included
+        long storedBytes = 0;
+        for (Row row : selectAll(TABLE_FILEDATA)) {
+            storedBytes += row.getBytes("blockdata").remaining();
+        }
+        assertEquals(storedBytes, tool.getNumBytes());
+        assertEquals(5, countRows(TABLE_FILEDATA_V2));
+        // the source is left untouched
+        assertEquals(5, countRows(TABLE_FILEDATA));
+
+        // same metadata, clustered data
+        CassandraDirectory target = newDirectory(FileDataLayout.CLUSTERED, null);
+        assertArrayEquals(data1, readFile(target, "f1"));
+        assertArrayEquals(data2, readFile(target, "f2"));
+    }
+
+    @Test
+    public void testMigrationTargetRequired() throws Exception {
+        FileDataMigrationTool tool = new FileDataMigrationTool(session)
+                .setTableMetadata(TABLE_METADATA).setTableSource(TABLE_FILEDATA);
+        try {
+            tool.migrate();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tool.setTableTarget(TABLE_FILEDATA);
+        try {
+            tool.migrate();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
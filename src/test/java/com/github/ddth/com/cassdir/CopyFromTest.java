@@ -0,0 +1,131 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+
+/**
+ * Tests of {@link CassandraDirectory#copyFrom(org.apache.lucene.store.Directory, String, String, IOContext)}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class CopyFromTest extends BaseCassandraDirTest {
+
+    private final static int SMALL_BLOCK_SIZE = 4 * 1024;
+    private final static String WRITE_BLOCK = "UPDATE " + TABLE_FILEDATA_NS + " SET blockdata";
+
+    private static String fileId(String dirId, String name) {
+        for (Row row : selectAll(TABLE_METADATA_NS)) {
+            if (dirId.equals(row.getString("dirid")) && name.equals(row.getString("filename"))) {
+                return row.getString("fileid");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stored blocks of a file, by block number.
+     */
+    private static Map<Integer, ByteBuffer> storedBlocks(String dirId, String name) {
+        String fileId = fileId(dirId, name);
+        Map<Integer, ByteBuffer> result = new TreeMap<Integer, ByteBuffer>();
+        for (Row row : selectAll(TABLE_FILEDATA_NS)) {
+            if (dirId.equals(row.getString("dirid")) && row.getString("fileid").equals(fileId)) {
+                result.put(row.getInt("blocknum"), row.getBytes("blockdata"));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testBlockLevelCopy() throws Exception {
+        CassandraDirectory source = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "src");
+        source.setBlockSizePolicy(new BlockSizePolicy().setBlockSize(SMALL_BLOCK_SIZE, "tip"));
+        CassandraDirectory target = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "dst");
+        byte[] data = content(10 * SMALL_BLOCK_SIZE + 5, 1);
+        writeFile(source, "_0.tip", data);
+
+        target.copyFrom(source, "_0.tip", "_1.tip", IOContext.DEFAULT);
+        // blocks are copied as stored, not read through an input
+        assertEquals(0, source.getBlockReads());
+        Map<Integer, ByteBuffer> blocks = storedBlocks("src", "_0.tip");
+        assertEquals(11, blocks.size());
+        assertEquals(blocks, storedBlocks("dst", "_1.tip"));
+        assertEquals(data.length, target.fileLength("_1.tip"));
+        assertArrayEquals(data, readFile(target, "_1.tip"));
+        // the source is left untouched
+        assertArrayEquals(data, readFile(source, "_0.tip"));
+    }
+
+    @Test
+    public void testCopyFromFilterDirectory() throws Exception {
+        CassandraDirectory source = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "src");
+        CassandraDirectory target = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "dst");
+        byte[] data = content(3 * CassandraDirectory.BLOCK_SIZE + 5, 1);
+        writeFile(source, "f", data);
+
+        FilterDirectory wrapper = new FilterDirectory(source) {
+        };
+        target.copyFrom(wrapper, "f", "g", IOContext.DEFAULT);
+        assertEquals(0, source.getBlockReads());
+        assertEquals(storedBlocks("src", "f"), storedBlocks("dst", "g"));
+        assertArrayEquals(data, readFile(target, "g"));
+    }
+
+    @Test
+    public void testCopyFromOtherDirectory() throws Exception {
+        CassandraDirectory target = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "dst");
+        byte[] data = content(2 * CassandraDirectory.BLOCK_SIZE + 5, 1);
+        RAMDirectory source = new RAMDirectory();
+        try {
+            IndexOutput out = source.createOutput("f", IOContext.DEFAULT);
+            try {
+                out.writeBytes(data, data.length);
+            } finally {
+                out.close();
+            }
+            target.copyFrom(source, "f", "g", IOContext.DEFAULT);
+        } finally {
+            source.close();
+        }
+        assertArrayEquals(data, readFile(target, "g"));
+    }
+
+    @Test
+    public void testFailedCopyIsCleanedUp() throws Exception {
+        CassandraDirectory source = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "src");
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory target = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "dst", sm);
+        target.setCopyMaxInflight(1);
+        byte[] data = content(5 * CassandraDirectory.BLOCK_SIZE, 1);
+        writeFile(source, "f", data);
+
+        // the third block write fails
+        sm.failAsync(WRITE_BLOCK, 2);
+        try {
+            target.copyFrom(source, "f", "g", IOContext.DEFAULT);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        target.awaitBlockPurges();
+        assertEquals(0, target.listAll().length);
+        // only the source's blocks are left
+        assertEquals(5, countRows(TABLE_FILEDATA_NS));
+        assertArrayEquals(data, readFile(source, "f"));
+    }
+}
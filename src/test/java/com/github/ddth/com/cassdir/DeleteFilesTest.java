@@ -0,0 +1,163 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.ddth.cacheadapter.guava.GuavaCacheFactory;
+
+/**
+ * Tests of file deletion: {@link CassandraDirectory#deleteFiles(java.util.Collection)}
+ * and background removal of deleted files' blocks.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class DeleteFilesTest extends BaseCassandraDirTest {
+
+    private final static int FILE_SIZE = 3 * CassandraDirectory.BLOCK_SIZE + 10;
+
+    private GuavaCacheFactory cacheFactory;
+
+    @After
+    public void destroyCacheFactory() {
+        if (cacheFactory != null) {
+            cacheFactory.destroy();
+        }
+    }
+
+    @Test
+    public void testDeleteFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "a", content(FILE_SIZE, 1));
+        writeFile(dir, "b", content(FILE_SIZE, 2));
+        long generation = dir.getGeneration();
+
+        dir.deleteFile("a");
+        // missing files are ignored
+        dir.deleteFile("no-such-file");
+        assertEquals(Arrays.asList("b"), Arrays.asList(dir.listAll()));
+        assertTrue(dir.getGeneration() != generation);
+
+        dir.awaitBlockPurges();
+        assertEquals(4, countRows(TABLE_FILEDATA));
+        assertArrayEquals(content(FILE_SIZE, 2), readFile(dir, "b"));
+    }
+
+    @Test
+    public void testDeleteFiles() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setInlineFileThreshold(1024).init();
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            // small (inline) and multi-block files
+            writeFile(dir, "f" + i, content(i % 2 == 0 ? 100 : FILE_SIZE, i));
+            names.add("f" + i);
+        }
+        writeFile(dir, "keep", content(FILE_SIZE, 9));
+        names.add("no-such-file");
+
+        dir.deleteFiles(names);
+        assertEquals(Arrays.asList("keep"), Arrays.asList(dir.listAll()));
+        dir.awaitBlockPurges();
+        assertEquals(1, countRows(TABLE_METADATA));
+        assertEquals(4, countRows(TABLE_FILEDATA));
+        assertArrayEquals(content(FILE_SIZE, 9), readFile(dir, "keep"));
+    }
+
+    @Test
+    public void testDeleteFilesBatchedInNamespace() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "ns1", sm);
+        CassandraDirectory other = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, "ns2");
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 150; i++) {
+            writeFile(dir, "f" + i, content(10, i));
+            names.add("f" + i);
+        }
+        writeFile(other, "f0", content(10, 0));
+
+        sm.queries.clear();
+        dir.deleteFiles(names);
+        // 100 metadata deletes per batch
+        assertEquals(sm.queries.toString(), 2, sm.count("DELETE FROM " + TABLE_METADATA_NS));
+        assertEquals(0, dir.listAll().length);
+        assertEquals(Arrays.asList("f0"), Arrays.asList(other.listAll()));
+        dir.awaitBlockPurges();
+        assertEquals(1, countRows(TABLE_FILEDATA_NS));
+    }
+
+    @Test
+    public void testClusteredWholeFileRemoval() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.CLUSTERED, null, sm);
+        writeFile(dir, "a", content(FILE_SIZE, 3));
+
+        sm.queries.clear();
+        dir.deleteFile("a");
+        dir.awaitBlockPurges();
+        // one partition delete for all blocks of the file
+        assertEquals(sm.queries.toString(), 1, sm.count("DELETE FROM " + TABLE_FILEDATA_V2));
+        assertEquals(0, countRows(TABLE_FILEDATA_V2));
+    }
+
+    @Test
+    public void testDeleteFilesPartialFailure() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setDeleteMaxInflight(1).init();
+        for (int i = 0; i < 3; i++) {
+            writeFile(dir, "f" + i, content(FILE_SIZE, i));
+        }
+
+        // the first delete succeeds, the others fail
+        sm.failAsync("DELETE FROM " + TABLE_METADATA, 1);
+        try {
+            dir.deleteFiles(Arrays.asList("f0", "f1", "f2"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        String[] files = dir.listAll();
+        assertEquals(Arrays.toString(files), 2, files.length);
+        dir.awaitBlockPurges();
+        assertEquals(8, countRows(TABLE_FILEDATA));
+        for (String name : files) {
+            assertArrayEquals(content(FILE_SIZE, name.charAt(1) - '0'), readFile(dir, name));
+        }
+    }
+
+    @Test
+    public void testListedInlineFilesHaveNoBlocks() throws Exception {
+        cacheFactory = new GuavaCacheFactory();
+        cacheFactory.init();
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setCacheFactory(cacheFactory).setCacheName("cassdir_test").setInlineFileThreshold(1024)
+                .init();
+        for (int i = 0; i < 4; i++) {
+            writeFile(dir, "small" + i, content(100 * (i + 1), i));
+        }
+        writeFile(dir, "large", content(FILE_SIZE, 9));
+        // cached metadata is now metadata-only, as listed
+        dir.listAll();
+
+        sm.queries.clear();
+        dir.deleteFile("small0");
+        dir.deleteFiles(Arrays.asList("small1", "small2", "small3", "large"));
+        dir.awaitBlockPurges();
+        assertEquals(0, dir.listAll().length);
+        // no deletes (tombstones) of blocks inline files never had
+        assertEquals(sm.queries.toString(), 4, sm.count("DELETE FROM " + TABLE_FILEDATA));
+        assertEquals(0, countRows(TABLE_FILEDATA));
+    }
+}
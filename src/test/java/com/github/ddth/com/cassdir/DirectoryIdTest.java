@@ -0,0 +1,127 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.Lock;
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.ddth.cacheadapter.guava.GuavaCacheFactory;
+
+/**
+ * Tests of namespaced directories ({@link CassandraDirectory#setDirectoryId(String)}):
+ * directories sharing the same tables (and cache) are isolated from each
+ * other.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class DirectoryIdTest extends BaseCassandraDirTest {
+
+    private GuavaCacheFactory cacheFactory;
+
+    @After
+    public void destroyCacheFactory() {
+        if (cacheFactory != null) {
+            cacheFactory.destroy();
+        }
+    }
+
+    /**
+     * Namespaced directory; all directories of a test share the same cache.
+     */
+    private CassandraDirectory newDirectory(String directoryId) {
+        if (cacheFactory == null) {
+            cacheFactory = new GuavaCacheFactory();
+            cacheFactory.init();
+        }
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, directoryId);
+        dir.setCacheFactory(cacheFactory).setCacheName("cassdir_test").init();
+        return dir;
+    }
+
+    private static String[] sorted(String[] names) {
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Test
+    public void testIsolation() throws Exception {
+        CassandraDirectory dirA = newDirectory("a");
+        CassandraDirectory dirB = newDirectory("b");
+        byte[] dataA = content(2 * CassandraDirectory.BLOCK_SIZE + 10, 1);
+        byte[] dataB = content(CassandraDirectory.BLOCK_SIZE + 20, 2);
+        writeFile(dirA, "f", dataA);
+        writeFile(dirA, "onlyA", content(100, 3));
+        writeFile(dirB, "f", dataB);
+
+        // same file name, own content and length
+        assertArrayEquals(new String[] { "f", "onlyA" }, sorted(dirA.listAll()));
+        assertArrayEquals(new String[] { "f" }, dirB.listAll());
+        assertArrayEquals(dataA, readFile(dirA, "f"));
+        assertArrayEquals(dataB, readFile(dirB, "f"));
+        assertEquals(dataB.length, dirB.fileLength("f"));
+        try {
+            dirB.openInput("onlyA", IOContext.DEFAULT);
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+
+        // changes to a directory are not seen by the other one
+        long generationB = dirB.getGeneration();
+        dirA.renameFile("onlyA", "renamed");
+        dirA.deleteFile("f");
+        dirA.awaitBlockPurges();
+        assertArrayEquals(new String[] { "renamed" }, dirA.listAll());
+        assertArrayEquals(new String[] { "f" }, dirB.listAll());
+        assertArrayEquals(dataB, readFile(dirB, "f"));
+        assertEquals(generationB, dirB.getGeneration());
+        assertEquals(2 + 1, countRows(TABLE_FILEDATA_NS));
+        assertEquals(0, countRows(TABLE_METADATA));
+        assertEquals(0, countRows(TABLE_FILEDATA));
+    }
+
+    @Test
+    public void testSameDirectoryId() throws Exception {
+        CassandraDirectory dir1 = newDirectory("a");
+        CassandraDirectory dir2 = newDirectory("a");
+        byte[] data = content(CassandraDirectory.BLOCK_SIZE + 10, 1);
+        writeFile(dir1, "f", data);
+        assertArrayEquals(new String[] { "f" }, dir2.listAll());
+        assertArrayEquals(data, readFile(dir2, "f"));
+    }
+
+    @Test
+    public void testLocksPerDirectory() throws Exception {
+        Lock lockA = newDirectory("a").makeLock(IndexWriter.WRITE_LOCK_NAME);
+        Lock lockB = newDirectory("b").makeLock(IndexWriter.WRITE_LOCK_NAME);
+        Lock otherLockA = newDirectory("a").makeLock(IndexWriter.WRITE_LOCK_NAME);
+        try {
+            assertTrue(lockA.obtain());
+            assertTrue(lockB.obtain());
+            assertFalse(otherLockA.obtain());
+            // locks are not listed as files
+            assertEquals(0, newDirectory("a").listAll().length);
+        } finally {
+            lockA.close();
+            lockB.close();
+        }
+    }
+
+    @Test
+    public void testEmptyDirectoryId() {
+        CassandraDirectory dir = newDirectory();
+        assertNull(dir.setDirectoryId("").getDirectoryId());
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.lucene.store.Lock;
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.ddth.cacheadapter.guava.GuavaCacheFactory;
+
+/**
+ * Tests of the directory's generation ({@link CassandraDirectory#getGeneration()})
+ * and of listings cached at a generation ({@link CassandraDirectory#listAll(long)}).
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class GenerationTest extends BaseCassandraDirTest {
+
+    private final static long HOUR_MICROS = 3600 * 1000 * 1000L;
+
+    private GuavaCacheFactory cacheFactory;
+
+    @After
+    public void destroyCacheFactory() {
+        if (cacheFactory != null) {
+            cacheFactory.destroy();
+        }
+    }
+
+    private CassandraDirectory newCachedDirectory(RecordingSessionManager sm) {
+        if (cacheFactory == null) {
+            cacheFactory = new GuavaCacheFactory();
+            cacheFactory.init();
+        }
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setCacheFactory(cacheFactory).setCacheName("cassdir_test").init();
+        return dir;
+    }
+
+    /**
+     * Stores a generation, as written by another instance.
+     */
+    private static void storeGeneration(long generation) {
+        session.execute("UPDATE " + TABLE_GENERATION
+                + " USING TIMESTAMP ? SET generation=? WHERE dirname=?", generation, generation,
+                TABLE_METADATA);
+    }
+
+    @Test
+    public void testEveryChangeIncreasesGeneration() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        assertEquals(0, dir.getGeneration());
+
+        long generation = 0;
+        writeFile(dir, "a", content(100, 1));
+        assertTrue(dir.getGeneration() > generation);
+        generation = dir.getGeneration();
+
+        dir.renameFile("a", "b");
+        assertTrue(dir.getGeneration() > generation);
+        generation = dir.getGeneration();
+
+        dir.deleteFile("b");
+        assertTrue(dir.getGeneration() > generation);
+        generation = dir.getGeneration();
+
+        writeFile(dir, "c", content(100, 2));
+        writeFile(dir, "d", content(100, 3));
+        generation = dir.getGeneration();
+        dir.deleteFiles(Arrays.asList("c", "d"));
+        assertTrue(dir.getGeneration() > generation);
+    }
+
+    @Test
+    public void testGenerationFromStoredValue() throws Exception {
+        // written by a writer whose clock is ahead of ours
+        long ahead = System.currentTimeMillis() * 1000 + HOUR_MICROS;
+        storeGeneration(ahead);
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "a", content(100, 1));
+        assertTrue(dir.getGeneration() > ahead);
+        long generation = dir.getGeneration();
+
+        // another writer takes over (obtaining the write lock) after this one
+        // went on without us
+        storeGeneration(generation + HOUR_MICROS);
+        Lock lock = dir.makeLock("write.lock");
+        assertTrue(lock.obtain());
+        try {
+            dir.deleteFile("a");
+        } finally {
+            lock.close();
+        }
+        assertTrue(dir.getGeneration() > generation + HOUR_MICROS);
+    }
+
+    @Test
+    public void testConcurrentChangesNeverGoBack() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "a", content(100, 1));
+        long generation = dir.getGeneration();
+
+        // a late write of an older change is ignored
+        storeGeneration(generation - 1);
+        assertEquals(generation, dir.getGeneration());
+    }
+
+    @Test
+    public void testListAllAtGeneration() throws Exception {
+        CassandraDirectory writer = newCachedDirectory(newRecordingSessionManager());
+        writeFile(writer, "a", content(100, 1));
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory poller = newCachedDirectory(sm);
+
+        long generation = poller.getGeneration();
+        assertArrayEquals(new String[] { "a" }, poller.listAll(generation));
+        sm.queries.clear();
+        assertArrayEquals(new String[] { "a" }, poller.listAll(generation));
+        assertEquals(sm.queries.toString(), 0, sm.queries.size());
+
+        // changes do not invalidate the listing cached at a generation...
+        writeFile(writer, "b", content(100, 2));
+        assertArrayEquals(new String[] { "a" }, poller.listAll(generation));
+        assertEquals(sm.queries.toString(), 0, sm.queries.size());
+
+        // ...pollers see a new generation, and list once
+        long newGeneration = poller.getGeneration();
+        assertTrue(newGeneration > generation);
+        String[] files = poller.listAll(newGeneration);
+        Arrays.sort(files);
+        assertArrayEquals(new String[] { "a", "b" }, files);
+        assertEquals(sm.queries.toString(), 1, sm.count(TABLE_METADATA));
+        sm.queries.clear();
+        poller.listAll(newGeneration);
+        assertEquals(sm.queries.toString(), 0, sm.queries.size());
+
+        // without a generation, only the generation is read
+        files = poller.listAll();
+        Arrays.sort(files);
+        assertArrayEquals(new String[] { "a", "b" }, files);
+        assertEquals(sm.queries.toString(), 1, sm.queries.size());
+        assertEquals(sm.queries.toString(), 1, sm.count(TABLE_GENERATION));
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.junit.Test;
+
+/**
+ * Tests of hedged block reads ({@link CassandraDirectory#setHedgedReads(boolean)}).
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class HedgedReadTest extends BaseCassandraDirTest {
+
+    private final static int BLOCK_SIZE = CassandraDirectory.BLOCK_SIZE;
+    private final static String LOAD_BLOCK = "FROM " + TABLE_FILEDATA
+            + " WHERE fileid=? AND blocknum=?";
+
+    private RecordingSessionManager sm;
+    private byte[] data;
+
+    /**
+     * Writes a file of {@code numBlocks} blocks with a hedging directory.
+     */
+    private CassandraDirectory newHedgingDirectory(int numBlocks) throws Exception {
+        sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setHedgedReads(true);
+        data = content(numBlocks * BLOCK_SIZE, 1);
+        writeFile(dir, "f", data);
+        sm.queries.clear();
+        return dir;
+    }
+
+    /**
+     * Reads a byte of each block in {@code [fromBlock, toBlock)}, one block
+     * load each (positional reads do not read ahead).
+     */
+    private void readBlocks(CassandraDirectory dir, int fromBlock, int toBlock)
+            throws Exception {
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            RandomAccessInput ra = in.randomAccessSlice(0, in.length());
+            for (int blockNum = fromBlock; blockNum < toBlock; blockNum++) {
+                long pos = blockNum * (long) BLOCK_SIZE + blockNum;
+                assertEquals(data[(int) pos], ra.readByte(pos));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testSlowPrimaryIsHedgedOnce() throws Exception {
+        CassandraDirectory dir = newHedgingDirectory(1);
+        // too few samples for a percentile: hedge delay is the max delay
+        dir.setHedgeMinDelayMs(1).setHedgeMaxDelayMs(100);
+        sm.delayAsync(LOAD_BLOCK, 2000, 1);
+
+        long start = System.nanoTime();
+        readBlocks(dir, 0, 1);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsedMs), elapsedMs >= 100 && elapsedMs < 1500);
+        assertEquals(sm.queries.toString(), 2, sm.count(LOAD_BLOCK));
+        assertEquals(1, dir.getBlockReads());
+        assertEquals(1, dir.getHedgedBlockReads());
+        assertEquals(1, dir.getHedgeWins());
+    }
+
+    @Test
+    public void testFastPrimaryIsNotHedged() throws Exception {
+        CassandraDirectory dir = newHedgingDirectory(3);
+        dir.setHedgeMinDelayMs(200).setHedgeMaxDelayMs(200);
+        sm.delayAsync(LOAD_BLOCK, 20);
+
+        readBlocks(dir, 0, 3);
+        assertEquals(sm.queries.toString(), 3, sm.count(LOAD_BLOCK));
+        assertEquals(0, dir.getHedgedBlockReads());
+    }
+
+    @Test
+    public void testHedgeDelayFromPercentile() throws Exception {
+        // enough fast reads for the percentile to be used instead of the max
+        // delay
+        CassandraDirectory dir = newHedgingDirectory(101);
+        dir.setHedgeMinDelayMs(1).setHedgeMaxDelayMs(5000).setHedgeDelayPercentile(0.9);
+        readBlocks(dir, 0, 100);
+        assertEquals(0, dir.getHedgedBlockReads());
+
+        sm.delayAsync(LOAD_BLOCK, 1000, 1);
+        long start = System.nanoTime();
+        readBlocks(dir, 100, 101);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(String.valueOf(elapsedMs), elapsedMs < 800);
+        assertEquals(1, dir.getHedgedBlockReads());
+        assertEquals(1, dir.getHedgeWins());
+    }
+
+    @Test
+    public void testHedgeRatioCap() throws Exception {
+        // every request is slow: every read wants a hedge
+        CassandraDirectory dir = newHedgingDirectory(40);
+        dir.setHedgeMinDelayMs(1).setHedgeMaxDelayMs(1).setHedgeMaxRatio(0.25);
+        sm.delayAsync(LOAD_BLOCK, 20);
+
+        readBlocks(dir, 0, 40);
+        assertEquals(40, dir.getBlockReads());
+        // 25% of block reads, plus a burst of 10
+        assertEquals(40 / 4 + 10, dir.getHedgedBlockReads());
+        assertEquals(sm.queries.toString(), 40 + 20, sm.count(LOAD_BLOCK));
+
+        dir.setHedgeMaxRatio(0.0);
+        readBlocks(dir, 0, 10);
+        assertEquals(20, dir.getHedgedBlockReads());
+    }
+
+    @Test
+    public void testFailedHedgeFallsBackToPrimary() throws Exception {
+        CassandraDirectory dir = newHedgingDirectory(1);
+        dir.setHedgeMinDelayMs(1).setHedgeMaxDelayMs(50);
+        // slow primary, then a hedge that fails at once
+        sm.failAsync(LOAD_BLOCK, 1);
+        sm.delayAsync(LOAD_BLOCK, 300, 1);
+
+        readBlocks(dir, 0, 1);
+        assertEquals(sm.queries.toString(), 2, sm.count(LOAD_BLOCK));
+        assertEquals(1, dir.getHedgedBlockReads());
+        assertEquals(0, dir.getHedgeWins());
+    }
+}
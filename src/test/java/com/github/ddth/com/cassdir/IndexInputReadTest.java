@@ -0,0 +1,214 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.util.Arrays;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Test;
+
+/**
+ * Tests of {@link CassandraDirectory.CassandraIndexInput}'s reads: bulk and
+ * primitive reads straddling block boundaries, reads past EOF.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class IndexInputReadTest extends BaseCassandraDirTest {
+
+    private final static int BLOCK_SIZE = CassandraDirectory.BLOCK_SIZE;
+
+    private final static long LONG_VALUE = 0x0102030405060708L;
+    private final static int INT_VALUE = 0x0A0B0C0D;
+    private final static short SHORT_VALUE = (short) 0xBEEF;
+
+    /*
+     * Layout of the test file: at the end of block n (n = 1..7), a value
+     * straddles the boundary to block n + 1, preceded by filler.
+     */
+    private static long boundary(int n) {
+        return n * (long) BLOCK_SIZE;
+    }
+
+    private static void fillTo(IndexOutput out, long pos) throws Exception {
+        while (out.getFilePointer() < pos) {
+            out.writeByte((byte) out.getFilePointer());
+        }
+    }
+
+    private static void writeTestFile(CassandraDirectory dir) throws Exception {
+        IndexOutput out = dir.createOutput("f", IOContext.DEFAULT);
+        try {
+            fillTo(out, boundary(1) - 3);
+            out.writeLong(LONG_VALUE);
+            fillTo(out, boundary(2) - 1);
+            out.writeInt(INT_VALUE);
+            fillTo(out, boundary(3) - 1);
+            out.writeShort(SHORT_VALUE);
+            fillTo(out, boundary(4) - 2);
+            out.writeVInt(Integer.MAX_VALUE);
+            fillTo(out, boundary(5) - 4);
+            out.writeVLong(Long.MAX_VALUE);
+            fillTo(out, boundary(6) - 5);
+            out.writeString("straddling a block boundary");
+            fillTo(out, boundary(7) + 10);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void assertValues(IndexInput in) throws Exception {
+        in.seek(boundary(1) - 3);
+        assertEquals(LONG_VALUE, in.readLong());
+        in.seek(boundary(2) - 1);
+        assertEquals(INT_VALUE, in.readInt());
+        in.seek(boundary(3) - 1);
+        assertEquals(SHORT_VALUE, in.readShort());
+        in.seek(boundary(4) - 2);
+        assertEquals(Integer.MAX_VALUE, in.readVInt());
+        in.seek(boundary(5) - 4);
+        assertEquals(Long.MAX_VALUE, in.readVLong());
+        in.seek(boundary(6) - 5);
+        assertEquals("straddling a block boundary", in.readString());
+
+        // bulk read spanning several blocks, from and to mid-block
+        long from = boundary(1) - 100;
+        byte[] bytes = new byte[3 * BLOCK_SIZE + 200];
+        in.seek(from);
+        in.readBytes(bytes, 0, bytes.length);
+        assertEquals(from + bytes.length, in.getFilePointer());
+        assertEquals((byte) (LONG_VALUE >>> 56), bytes[100 - 3]);
+        assertEquals((byte) LONG_VALUE, bytes[100 + 4]);
+    }
+
+    private void testStraddlingValues(CassandraDirectory dir) throws Exception {
+        writeTestFile(dir);
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            assertValues(in);
+            // again, from the blocks already loaded
+            assertValues(in);
+            // same bytes as a plain bulk read of the whole file
+            byte[] all = readFile(dir, "f");
+            byte[] bytes = new byte[1000];
+            in.seek(boundary(4) - 500);
+            in.readBytes(bytes, 0, bytes.length);
+            assertArrayEquals(Arrays.copyOfRange(all, (int) boundary(4) - 500,
+                    (int) boundary(4) + 500), bytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testStraddlingValues() throws Exception {
+        testStraddlingValues(newDirectory());
+    }
+
+    @Test
+    public void testStraddlingValuesFromBlockCache() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setBlockCacheSize(16 * 1024 * 1024).init();
+        testStraddlingValues(dir);
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            assertValues(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testStraddlingValuesInSlice() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeTestFile(dir);
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            long offset = boundary(1) - 3;
+            IndexInput slice = in.slice("slice", offset, boundary(3) - offset);
+            assertEquals(LONG_VALUE, slice.readLong());
+            slice.seek(boundary(2) - 1 - offset);
+            assertEquals(INT_VALUE, slice.readInt());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertEOF(IndexInput in, int numBytes) throws Exception {
+        long pos = in.getFilePointer();
+        try {
+            switch (numBytes) {
+            case 1:
+                in.readByte();
+                break;
+            case 4:
+                in.readInt();
+                break;
+            case 8:
+                in.readLong();
+                break;
+            default:
+                in.readBytes(new byte[numBytes], 0, numBytes);
+            }
+            fail("Expected EOFException at " + pos);
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReadPastEOF() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        int length = 2 * BLOCK_SIZE + 10;
+        byte[] data = content(length, 1);
+        writeFile(dir, "f", data);
+
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            in.seek(length);
+            assertEOF(in, 1);
+            in.seek(length - 7);
+            assertEOF(in, 8);
+            in.seek(length - 3);
+            assertEOF(in, 4);
+            in.seek(BLOCK_SIZE);
+            assertEOF(in, BLOCK_SIZE + 11);
+            // whatever the failed reads did, the input still reads
+            in.seek(length - 1);
+            assertEquals(data[length - 1], in.readByte());
+            assertEOF(in, 1);
+
+            // a slice ends at its own length, in the middle of a block
+            IndexInput slice = in.slice("slice", BLOCK_SIZE - 5, 10);
+            slice.seek(6);
+            assertEOF(slice, 8);
+            slice.seek(10);
+            assertEOF(slice, 1);
+            slice.seek(0);
+            byte[] bytes = new byte[10];
+            slice.readBytes(bytes, 0, bytes.length);
+            assertArrayEquals(Arrays.copyOfRange(data, BLOCK_SIZE - 5, BLOCK_SIZE + 5), bytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "empty", new byte[0]);
+        IndexInput in = dir.openInput("empty", IOContext.DEFAULT);
+        try {
+            assertEquals(0, in.length());
+            assertEOF(in, 1);
+            in.readBytes(new byte[0], 0, 0);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Test;
+
+/**
+ * Tests of {@link CassandraDirectory.CassandraIndexOutput}: window of
+ * asynchronous block writes, {@code sync()} barrier, metadata published once
+ * at close, failed writes.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class IndexOutputTest extends BaseCassandraDirTest {
+
+    private final static int FILE_SIZE = 5 * CassandraDirectory.BLOCK_SIZE + 10;
+
+    @Test
+    public void testMetadataPublishedOnceAtClose() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        byte[] data = content(FILE_SIZE, 1);
+
+        sm.queries.clear();
+        IndexOutput out = dir.createOutput("f", IOContext.DEFAULT);
+        try {
+            out.writeBytes(data, data.length);
+            // not visible until closed
+            assertFalse(Arrays.asList(dir.listAll()).contains("f"));
+            try {
+                dir.fileLength("f");
+                fail("Expected FileNotFoundException");
+            } catch (FileNotFoundException e) {
+                // expected
+            }
+        } finally {
+            out.close();
+        }
+        assertEquals(sm.queries.toString(), 1, sm.count("UPDATE " + TABLE_METADATA));
+        assertEquals(sm.queries.toString(), 6, sm.count("UPDATE " + TABLE_FILEDATA));
+
+        assertEquals(FILE_SIZE, dir.fileLength("f"));
+        assertArrayEquals(data, readFile(dir, "f"));
+    }
+
+    @Test
+    public void testFailedWriteLeavesNoFile() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        byte[] data = content(FILE_SIZE, 2);
+
+        // the 3rd block write fails
+        sm.failAsync("UPDATE " + TABLE_FILEDATA, 2);
+        IndexOutput out = dir.createOutput("f", IOContext.DEFAULT);
+        boolean failed = false;
+        try {
+            out.writeBytes(data, data.length);
+        } catch (IOException e) {
+            // may surface at a later write...
+            failed = true;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // ...or at close
+            failed = true;
+        }
+        assertTrue(failed);
+        // closed even though it failed: a retried close is a no-op
+        out.close();
+
+        dir.awaitBlockPurges();
+        assertFalse(Arrays.asList(dir.listAll()).contains("f"));
+        assertEquals(0, countRows(TABLE_METADATA));
+        assertEquals(0, countRows(TABLE_FILEDATA));
+        assertEquals(0, sm.count("UPDATE " + TABLE_METADATA));
+    }
+
+    @Test
+    public void testWindowOfInflightWrites() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setWriteMaxInflight(2).init();
+        byte[] data = content(FILE_SIZE, 3);
+
+        sm.delayAsync("UPDATE " + TABLE_FILEDATA, 50);
+        writeFile(dir, "f", data);
+        // writes are pipelined, but never more than the window
+        assertEquals(2, sm.getMaxInflight());
+        assertEquals(0, sm.getInflight());
+        assertArrayEquals(data, readFile(dir, "f"));
+    }
+
+    @Test
+    public void testSyncWaitsForPendingWrites() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        byte[] data = content(FILE_SIZE, 4);
+
+        sm.delayAsync("UPDATE " + TABLE_FILEDATA, 100);
+        IndexOutput out = dir.createOutput("f", IOContext.DEFAULT);
+        try {
+            out.writeBytes(data, data.length);
+            assertTrue(sm.getInflight() > 0);
+            dir.sync(Collections.singleton("f"));
+            assertEquals(0, sm.getInflight());
+            assertEquals(5, countRows(TABLE_FILEDATA));
+        } finally {
+            out.close();
+        }
+        assertArrayEquals(data, readFile(dir, "f"));
+    }
+
+    @Test
+    public void testWriteErrorSurfacesAtSync() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        byte[] data = content(2 * CassandraDirectory.BLOCK_SIZE, 5);
+
+        sm.failAsync("UPDATE " + TABLE_FILEDATA, 0);
+        IndexOutput out = dir.createOutput("f", IOContext.DEFAULT);
+        try {
+            out.writeBytes(data, data.length);
+            dir.sync(Collections.singleton("f"));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected: the first block write failed
+        }
+        try {
+            out.close();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected: the error is sticky
+        }
+        dir.awaitBlockPurges();
+        assertFalse(Arrays.asList(dir.listAll()).contains("f"));
+        assertEquals(0, countRows(TABLE_METADATA));
+    }
+}
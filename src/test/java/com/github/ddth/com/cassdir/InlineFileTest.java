@@ -0,0 +1,114 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+
+/**
+ * Tests of empty files and files stored inline in the metadata table.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class InlineFileTest extends BaseCassandraDirTest {
+
+    private static Row metadataRow(String filename) {
+        List<Row> rows = selectAll(TABLE_METADATA);
+        for (Row row : rows) {
+            if (filename.equals(row.getString(CassandraDirectory.COL_FILE_NAME))) {
+                return row;
+            }
+        }
+        throw new AssertionError("No metadata row for [" + filename + "]");
+    }
+
+    @Test
+    public void testEmptyFileInliningDisabled() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "empty", new byte[0]);
+
+        assertEquals(0, dir.fileLength("empty"));
+        assertEquals(0, readFile(dir, "empty").length);
+        assertTrue(metadataRow("empty").isNull(CassandraDirectory.COL_FILE_DATA));
+        assertEquals(0, countRows(TABLE_FILEDATA));
+    }
+
+    @Test
+    public void testEmptyFileInliningEnabled() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setInlineFileThreshold(1024).init();
+        writeFile(dir, "empty", new byte[0]);
+
+        assertEquals(0, dir.fileLength("empty"));
+        assertEquals(0, readFile(dir, "empty").length);
+        assertEquals(0, countRows(TABLE_FILEDATA));
+    }
+
+    @Test
+    public void testInlineFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setInlineFileThreshold(1024).init();
+        byte[] data = content(1024, 1);
+        writeFile(dir, "small", data);
+
+        assertFalse(metadataRow("small").isNull(CassandraDirectory.COL_FILE_DATA));
+        assertEquals(0, countRows(TABLE_FILEDATA));
+        assertArrayEquals(data, readFile(dir, "small"));
+
+        // a fresh directory reads the file from storage, not from its caches
+        CassandraDirectory other = newDirectory();
+        other.setInlineFileThreshold(1024).init();
+        assertEquals(data.length, other.fileLength("small"));
+        assertArrayEquals(data, readFile(other, "small"));
+    }
+
+    @Test
+    public void testFileOverThreshold() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setInlineFileThreshold(1024).init();
+        byte[] data = content(1025, 2);
+        writeFile(dir, "large", data);
+
+        assertTrue(metadataRow("large").isNull(CassandraDirectory.COL_FILE_DATA));
+        assertEquals(1, countRows(TABLE_FILEDATA));
+        assertArrayEquals(data, readFile(dir, "large"));
+    }
+
+    @Test
+    public void testOverwriteInlineFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setInlineFileThreshold(1024).init();
+        byte[] large = content(3 * CassandraDirectory.BLOCK_SIZE + 10, 3);
+        writeFile(dir, "file", content(100, 3));
+        writeFile(dir, "file", large);
+
+        // the inline data of the previous file is gone
+        assertTrue(metadataRow("file").isNull(CassandraDirectory.COL_FILE_DATA));
+        CassandraDirectory other = newDirectory();
+        other.setInlineFileThreshold(1024).init();
+        assertEquals(large.length, other.fileLength("file"));
+        assertArrayEquals(large, readFile(other, "file"));
+    }
+
+    @Test
+    public void testRenameOntoInlineFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setInlineFileThreshold(1024).init();
+        byte[] large = content(3 * CassandraDirectory.BLOCK_SIZE + 10, 4);
+        writeFile(dir, "small", content(100, 4));
+        writeFile(dir, "large", large);
+        dir.renameFile("large", "small");
+
+        assertTrue(metadataRow("small").isNull(CassandraDirectory.COL_FILE_DATA));
+        CassandraDirectory other = newDirectory();
+        other.setInlineFileThreshold(1024).init();
+        assertArrayEquals(large, readFile(other, "small"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.ddth.cacheadapter.guava.GuavaCacheFactory;
+
+/**
+ * Tests of {@link CassandraDirectory#listAll()}: a single scan of metadata
+ * columns, and inline files listed along with the others.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class ListAllTest extends BaseCassandraDirTest {
+
+    private final static int INLINE_THRESHOLD = 1024;
+
+    private GuavaCacheFactory cacheFactory;
+
+    @After
+    public void destroyCacheFactory() {
+        if (cacheFactory != null) {
+            cacheFactory.destroy();
+        }
+    }
+
+    private CassandraDirectory newCachedDirectory(RecordingSessionManager sm) {
+        if (cacheFactory == null) {
+            cacheFactory = new GuavaCacheFactory();
+            cacheFactory.init();
+        }
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setCacheFactory(cacheFactory).setCacheName("cassdir_test")
+                .setInlineFileThreshold(INLINE_THRESHOLD).setListAllFetchSize(3).init();
+        return dir;
+    }
+
+    @Test
+    public void testSingleScanOfMetadataColumns() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newCachedDirectory(sm);
+        for (int i = 0; i < 10; i++) {
+            writeFile(dir, "f" + i, content(i * 300, i));
+        }
+        // another instance, with a cold cache
+        RecordingSessionManager sm2 = newRecordingSessionManager();
+        cacheFactory.createCache("cassdir_test").deleteAll();
+        CassandraDirectory dir2 = newCachedDirectory(sm2);
+
+        sm2.queries.clear();
+        String[] files = dir2.listAll();
+        Arrays.sort(files);
+        assertArrayEquals(new String[] { "f0", "f1", "f2", "f3", "f4", "f5", "f6", "f7", "f8",
+                "f9" }, files);
+        // generation, then metadata
+        assertEquals(sm2.queries.toString(), 2, sm2.queries.size());
+        assertEquals(sm2.queries.toString(), 1, sm2.count(TABLE_METADATA));
+        // only the write time of inline data, not the data itself
+        assertFalse(sm2.queries.get(1), sm2.queries.get(1).contains(",filedata"));
+
+        // lengths come from the listing
+        sm2.queries.clear();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 300, dir2.fileLength("f" + i));
+        }
+        assertEquals(sm2.queries.toString(), 0, sm2.queries.size());
+
+        // the listing itself is cached, at the current generation
+        dir2.listAll();
+        assertEquals(sm2.queries.toString(), 0, sm2.count(TABLE_METADATA));
+    }
+
+    @Test
+    public void testInlineFilesAfterListing() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newCachedDirectory(sm);
+        byte[] small = content(100, 1), large = content(3 * CassandraDirectory.BLOCK_SIZE, 2);
+        writeFile(dir, "small", small);
+        writeFile(dir, "large", large);
+        cacheFactory.createCache("cassdir_test").deleteAll();
+        dir.listAll();
+
+        // inline data is loaded (once) when the file is opened
+        sm.queries.clear();
+        assertArrayEquals(small, readFile(dir, "small"));
+        assertEquals(sm.queries.toString(), 1, sm.queries.size());
+        assertEquals(sm.queries.toString(), 1, sm.count("filedata"));
+        sm.queries.clear();
+        assertArrayEquals(small, readFile(dir, "small"));
+        assertEquals(sm.queries.toString(), 0, sm.queries.size());
+
+        // metadata of larger files is not read again
+        sm.queries.clear();
+        assertArrayEquals(large, readFile(dir, "large"));
+        assertEquals(sm.queries.toString(), 0, sm.count("SELECT filename"));
+    }
+
+    @Test
+    public void testRenameInlineFileAfterListing() throws Exception {
+        CassandraDirectory dir = newCachedDirectory(newRecordingSessionManager());
+        byte[] small = content(100, 3);
+        writeFile(dir, "small", small);
+        // not known from a recent publish
+        CassandraDirectory dir2 = newCachedDirectory(newRecordingSessionManager());
+        cacheFactory.createCache("cassdir_test").deleteAll();
+        dir2.listAll();
+
+        dir2.renameFile("small", "renamed");
+        cacheFactory.createCache("cassdir_test").deleteAll();
+        assertArrayEquals(small, readFile(dir2, "renamed"));
+    }
+
+    @Test
+    public void testWarmupSkipsInlineFiles() throws Exception {
+        CassandraDirectory dir = newCachedDirectory(newRecordingSessionManager());
+        writeFile(dir, "small.tip", content(100, 4));
+        writeFile(dir, "large.tip", content(2 * CassandraDirectory.BLOCK_SIZE, 5));
+        cacheFactory.createCache("cassdir_test").deleteAll();
+        dir.setBlockCacheSize(16 * 1024 * 1024).init();
+
+        WarmupStats stats = dir.warmup(new WarmupPolicy().setPreloadExtensions("tip"));
+        assertEquals(0, stats.getFailedFiles());
+        assertEquals(2, stats.getBlocks());
+    }
+}
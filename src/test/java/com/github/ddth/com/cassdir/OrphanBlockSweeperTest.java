@@ -0,0 +1,122 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Test;
+
+import com.datastax.driver.core.Row;
+
+/**
+ * Tests of {@link OrphanBlockSweeper}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class OrphanBlockSweeperTest extends BaseCassandraDirTest {
+
+    private final static int FILE_SIZE = 3 * CassandraDirectory.BLOCK_SIZE + 10;
+    private final static long HOUR_MS = 3600 * 1000L;
+
+    private final static String OLD_ORPHAN = "0000000000000000000000000000000a";
+    private final static String RECENT_ORPHAN = "0000000000000000000000000000000b";
+
+    /**
+     * Writes blocks of a file that has no metadata, as if written
+     * {@code ageMs} ago.
+     */
+    private static void writeOrphan(String table, String fileId, int numBlocks, long ageMs) {
+        long timestamp = (System.currentTimeMillis() - ageMs) * 1000;
+        for (int i = 0; i < numBlocks; i++) {
+            session.execute("INSERT INTO " + table
+                    + " (fileid, blocknum, blockdata) VALUES (?, ?, ?) USING TIMESTAMP ?",
+                    fileId, i, ByteBuffer.wrap(content(10, i)), timestamp);
+        }
+    }
+
+    private static int countBlocks(String table, String fileId) {
+        int count = 0;
+        for (Row row : selectAll(table)) {
+            if (fileId.equals(row.getString("fileid"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void testSweep(FileDataLayout layout, String table) throws Exception {
+        CassandraDirectory dir = newDirectory(layout, null);
+        byte[] data = content(FILE_SIZE, 1);
+        writeFile(dir, "live", data);
+        IndexOutput open = dir.createOutput("open", IOContext.DEFAULT);
+        open.writeBytes(data, data.length);
+        writeOrphan(table, OLD_ORPHAN, 3, 2 * HOUR_MS);
+        writeOrphan(table, RECENT_ORPHAN, 2, 0);
+
+        // dry-run by default: orphans are found, not removed
+        OrphanBlockSweeper sweeper = dir.newOrphanBlockSweeper().setSplits(16)
+                .setGracePeriodMs(HOUR_MS);
+        assertEquals(1, sweeper.sweep());
+        assertEquals(3, sweeper.getOrphanBlocks());
+        assertEquals(0, sweeper.getDeletes());
+        assertEquals(3, countBlocks(table, OLD_ORPHAN));
+
+        sweeper = dir.newOrphanBlockSweeper().setSplits(7).setGracePeriodMs(HOUR_MS)
+                .setDryRun(false);
+        assertEquals(1, sweeper.sweep());
+        assertEquals(0, sweeper.getFailedDeletes());
+        assertEquals(0, countBlocks(table, OLD_ORPHAN));
+        assertEquals(2, countBlocks(table, RECENT_ORPHAN));
+
+        // without grace period, recent orphans go too, but not the blocks of
+        // the file being written
+        sweeper = dir.newOrphanBlockSweeper().setSplits(5).setGracePeriodMs(0).setDryRun(false);
+        assertEquals(1, sweeper.sweep());
+        assertEquals(0, countBlocks(table, RECENT_ORPHAN));
+
+        open.close();
+        assertArrayEquals(data, readFile(dir, "open"));
+        assertArrayEquals(data, readFile(dir, "live"));
+    }
+
+    @Test
+    public void testSweep() throws Exception {
+        testSweep(FileDataLayout.PARTITION_PER_BLOCK, TABLE_FILEDATA);
+    }
+
+    @Test
+    public void testSweepClustered() throws Exception {
+        testSweep(FileDataLayout.CLUSTERED, TABLE_FILEDATA_V2);
+    }
+
+    @Test
+    public void testExcludedFileIds() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeOrphan(TABLE_FILEDATA, OLD_ORPHAN, 3, 2 * HOUR_MS);
+        writeOrphan(TABLE_FILEDATA, RECENT_ORPHAN, 2, 2 * HOUR_MS);
+
+        OrphanBlockSweeper sweeper = dir.newOrphanBlockSweeper().setGracePeriodMs(HOUR_MS)
+                .setDryRun(false).setExcludedFileIds(Collections.singleton(OLD_ORPHAN));
+        assertEquals(1, sweeper.sweep());
+        assertEquals(3, countBlocks(TABLE_FILEDATA, OLD_ORPHAN));
+        assertEquals(0, countBlocks(TABLE_FILEDATA, RECENT_ORPHAN));
+    }
+
+    @Test
+    public void testNoOrphans() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "live", content(FILE_SIZE, 2));
+
+        OrphanBlockSweeper sweeper = dir.newOrphanBlockSweeper().setGracePeriodMs(0)
+                .setDryRun(false);
+        assertEquals(0, sweeper.sweep());
+        assertEquals(1, sweeper.getReferencedFiles());
+        assertEquals(4, sweeper.getRowsScanned());
+        assertEquals(4, countRows(TABLE_FILEDATA));
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.junit.Test;
+
+/**
+ * Tests of positional reads ({@link CassandraDirectory.CassandraRandomAccessInput}).
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class RandomAccessInputTest extends BaseCassandraDirTest {
+
+    private final static int BLOCK_SIZE = CassandraDirectory.BLOCK_SIZE;
+
+    /* more blocks than the input's block table holds */
+    private final static int FILE_SIZE = 10 * BLOCK_SIZE + 100;
+
+    private static void assertReads(RandomAccessInput in, ByteBuffer expected, long pos)
+            throws Exception {
+        int p = (int) pos;
+        assertEquals(expected.get(p), in.readByte(pos));
+        if (p + 2 <= expected.limit()) {
+            assertEquals(expected.getShort(p), in.readShort(pos));
+        }
+        if (p + 4 <= expected.limit()) {
+            assertEquals(expected.getInt(p), in.readInt(pos));
+        }
+        if (p + 8 <= expected.limit()) {
+            assertEquals(expected.getLong(p), in.readLong(pos));
+        }
+    }
+
+    private static void assertEOF(RandomAccessInput in, long pos, int numBytes) throws Exception {
+        try {
+            switch (numBytes) {
+            case 1:
+                in.readByte(pos);
+                break;
+            case 2:
+                in.readShort(pos);
+                break;
+            case 4:
+                in.readInt(pos);
+                break;
+            default:
+                in.readLong(pos);
+            }
+            fail("Expected EOFException at " + pos);
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAcrossBlockBoundaries() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        byte[] data = content(FILE_SIZE, 1);
+        writeFile(dir, "f", data);
+        ByteBuffer expected = ByteBuffer.wrap(data);
+
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            RandomAccessInput ra = in.randomAccessSlice(0, in.length());
+            for (int blockNum = 1; blockNum <= 10; blockNum++) {
+                for (int d = -8; d <= 1; d++) {
+                    assertReads(ra, expected, blockNum * (long) BLOCK_SIZE + d);
+                }
+            }
+            // back to blocks evicted from the input's block table
+            assertReads(ra, expected, 5);
+            assertReads(ra, expected, BLOCK_SIZE - 3);
+
+            // a slice starting mid-block
+            long offset = BLOCK_SIZE - 10;
+            ra = in.randomAccessSlice(offset, 3 * BLOCK_SIZE);
+            expected = ByteBuffer.wrap(data, (int) offset, 3 * BLOCK_SIZE).slice();
+            for (long pos : new long[] { 0, 6, 7, 9, 10, BLOCK_SIZE + 5, 3 * BLOCK_SIZE - 8 }) {
+                assertReads(ra, expected, pos);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testReadPastEOF() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        writeFile(dir, "f", content(FILE_SIZE, 2));
+
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            RandomAccessInput ra = in.randomAccessSlice(0, in.length());
+            assertEOF(ra, FILE_SIZE, 1);
+            assertEOF(ra, FILE_SIZE - 1, 2);
+            assertEOF(ra, FILE_SIZE - 3, 4);
+            assertEOF(ra, FILE_SIZE - 7, 8);
+            assertEOF(ra, -1, 1);
+            ra.readLong(FILE_SIZE - 8);
+
+            // bounded by the slice, not by the file
+            ra = in.randomAccessSlice(BLOCK_SIZE - 2, 4);
+            ra.readInt(0);
+            assertEOF(ra, 1, 4);
+            assertEOF(ra, 4, 1);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void testConcurrentReads(CassandraDirectory dir) throws Exception {
+        byte[] data = content(FILE_SIZE, 3);
+        writeFile(dir, "f", data);
+        final ByteBuffer expected = ByteBuffer.wrap(data);
+
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            final RandomAccessInput ra = in.randomAccessSlice(0, in.length());
+            Thread[] threads = new Thread[4];
+            final Throwable[] error = new Throwable[1];
+            for (int t = 0; t < threads.length; t++) {
+                final long seed = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            Random random = new Random(seed);
+                            for (int i = 0; i < 2000; i++) {
+                                // around block boundaries, all over the file
+                                long pos = (random.nextInt(10) + 1) * (long) BLOCK_SIZE
+                                        + random.nextInt(16) - 8;
+                                assertReads(ra, expected, pos);
+                            }
+                        } catch (Throwable e) {
+                            error[0] = e;
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (error[0] != null) {
+                throw new AssertionError(error[0]);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        testConcurrentReads(newDirectory());
+    }
+
+    @Test
+    public void testConcurrentReadsFromBlockCache() throws Exception {
+        // entries are reloaded from the block cache into their own buffer
+        CassandraDirectory dir = newDirectory();
+        dir.setBlockCacheSize(16 * 1024 * 1024).init();
+        testConcurrentReads(dir);
+        assertTrue(dir.getBlockCache().getHits() > 11);
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.junit.Test;
+
+/**
+ * Tests of {@link CassandraDirectory.CassandraIndexInput}'s read-ahead
+ * ({@link CassandraDirectory#setReadAheadMaxBlocks(int)},
+ * {@link CassandraDirectory#setReadAheadMaxInflight(int)}).
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class ReadAheadTest extends BaseCassandraDirTest {
+
+    private final static int BLOCK_SIZE = CassandraDirectory.BLOCK_SIZE;
+    private final static String LOAD_BLOCK = "FROM " + TABLE_FILEDATA
+            + " WHERE fileid=? AND blocknum=?";
+
+    private RecordingSessionManager sm;
+    private byte[] data;
+
+    /**
+     * Writes a file of {@code numBlocks} blocks; read-ahead fetches (the only
+     * asynchronous block loads) are delayed, so that they are counted in
+     * flight.
+     */
+    private CassandraDirectory newDirectory(int numBlocks, long readAheadDelayMs)
+            throws Exception {
+        sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        data = content(numBlocks * BLOCK_SIZE, 1);
+        writeFile(dir, "f", data);
+        sm.queries.clear();
+        sm.delayAsync(LOAD_BLOCK, readAheadDelayMs);
+        return dir;
+    }
+
+    private void assertReadsBlock(IndexInput in, int blockNum) throws Exception {
+        long pos = blockNum * (long) BLOCK_SIZE + blockNum;
+        in.seek(pos);
+        assertEquals(data[(int) pos], in.readByte());
+    }
+
+    @Test
+    public void testSequentialScan() throws Exception {
+        CassandraDirectory dir = newDirectory(20, 20);
+        assertArrayEquals(data, readFile(dir, "f"));
+
+        // each block is loaded once, most of them read ahead
+        assertEquals(sm.queries.toString(), 20, sm.count(LOAD_BLOCK));
+        assertTrue(String.valueOf(dir.getBlockReads()), dir.getBlockReads() <= 3);
+        assertTrue(sm.getMaxInflight() >= 2);
+        assertTrue(sm.getMaxInflight() <= CassandraDirectory.DEFAULT_READ_AHEAD_MAX_BLOCKS);
+    }
+
+    @Test
+    public void testRandomAccessNoReadAhead() throws Exception {
+        CassandraDirectory dir = newDirectory(20, 20);
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            for (int blockNum : new int[] { 10, 3, 15, 7, 0, 12, 19, 5 }) {
+                assertReadsBlock(in, blockNum);
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(sm.queries.toString(), 8, sm.count(LOAD_BLOCK));
+        assertEquals(0, sm.getMaxInflight());
+    }
+
+    @Test
+    public void testWindowGrowsAndShrinks() throws Exception {
+        CassandraDirectory dir = newDirectory(40, 20);
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            // window grows to the max (8 blocks) on sequential access
+            for (int blockNum = 0; blockNum < 10; blockNum++) {
+                assertReadsBlock(in, blockNum);
+            }
+            // then halves at each jump: 1 load + 4, 2, 1, 0 read-ahead fetches
+            int[] jumps = { 30, 20, 10, 0 };
+            int[] expectedLoads = { 5, 3, 2, 1 };
+            for (int i = 0; i < jumps.length; i++) {
+                sm.queries.clear();
+                assertReadsBlock(in, jumps[i]);
+                assertEquals(sm.queries.toString(), expectedLoads[i], sm.count(LOAD_BLOCK));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testPerInputCap() throws Exception {
+        CassandraDirectory dir = newDirectory(20, 50);
+        dir.setReadAheadMaxBlocks(3);
+        assertArrayEquals(data, readFile(dir, "f"));
+        assertTrue(sm.getMaxInflight() <= 3);
+        assertEquals(sm.queries.toString(), 20, sm.count(LOAD_BLOCK));
+    }
+
+    @Test
+    public void testDirectoryInflightCap() throws Exception {
+        CassandraDirectory dir = newDirectory(20, 50);
+        dir.setReadAheadMaxInflight(3);
+        IndexInput in1 = dir.openInput("f", IOContext.DEFAULT);
+        IndexInput in2 = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            // two concurrent scans share the directory's budget
+            byte[] buffer1 = new byte[data.length], buffer2 = new byte[data.length];
+            for (int blockNum = 0; blockNum < 20; blockNum++) {
+                in1.readBytes(buffer1, blockNum * BLOCK_SIZE, BLOCK_SIZE);
+                in2.readBytes(buffer2, blockNum * BLOCK_SIZE, BLOCK_SIZE);
+            }
+            assertArrayEquals(data, buffer1);
+            assertArrayEquals(data, buffer2);
+        } finally {
+            in1.close();
+            in2.close();
+        }
+        assertTrue(sm.getMaxInflight() >= 1);
+        assertTrue(String.valueOf(sm.getMaxInflight()), sm.getMaxInflight() <= 3);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        CassandraDirectory dir = newDirectory(10, 20);
+        dir.setReadAheadMaxBlocks(0);
+        assertArrayEquals(data, readFile(dir, "f"));
+        assertEquals(10, dir.getBlockReads());
+        assertEquals(0, sm.getMaxInflight());
+    }
+}
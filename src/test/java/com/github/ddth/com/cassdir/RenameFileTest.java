@@ -0,0 +1,81 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link CassandraDirectory#renameFile(String, String)}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class RenameFileTest extends BaseCassandraDirTest {
+
+    @Test
+    public void testRename() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        byte[] data = content(100000, 3);
+        writeFile(dir, "pending_segments_1", data);
+        long generation = dir.getGeneration();
+
+        dir.renameFile("pending_segments_1", "segments_1");
+
+        List<String> files = Arrays.asList(dir.listAll());
+        assertEquals(Arrays.asList("segments_1"), files);
+        assertTrue(dir.getGeneration() > generation);
+        assertEquals(1, countRows(TABLE_METADATA));
+        assertArrayEquals(data, readFile(dir, "segments_1"));
+
+        // a fresh directory sees the same
+        CassandraDirectory other = newDirectory();
+        assertEquals(files, Arrays.asList(other.listAll()));
+        assertArrayEquals(data, readFile(other, "segments_1"));
+    }
+
+    @Test
+    public void testRenameInlineFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        dir.setInlineFileThreshold(1024).init();
+        byte[] data = content(100, 4);
+        writeFile(dir, "a", data);
+        dir.renameFile("a", "b");
+
+        CassandraDirectory other = newDirectory();
+        other.setInlineFileThreshold(1024).init();
+        assertEquals(Arrays.asList("b"), Arrays.asList(other.listAll()));
+        assertArrayEquals(data, readFile(other, "b"));
+    }
+
+    @Test
+    public void testRenameOneRoundTrip() throws Exception {
+        RecordingSessionManager sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        writeFile(dir, "pending_segments_1", content(10, 5));
+
+        sm.queries.clear();
+        dir.renameFile("pending_segments_1", "segments_1");
+        assertEquals(sm.queries.toString(), 1, sm.queries.size());
+        String batch = sm.queries.get(0);
+        assertTrue(batch, batch.startsWith("BATCH"));
+        assertTrue(batch, batch.contains(TABLE_GENERATION));
+    }
+
+    @Test
+    public void testRenameMissingFile() throws Exception {
+        CassandraDirectory dir = newDirectory();
+        try {
+            dir.renameFile("missing", "other");
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.junit.Test;
+
+/**
+ * Tests that {@link CassandraDirectory.CassandraIndexInput}'s clones and
+ * slices share the parent's current block instead of reloading it.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class SharedBlocksTest extends BaseCassandraDirTest {
+
+    private final static int BLOCK_SIZE = CassandraDirectory.BLOCK_SIZE;
+    private final static String LOAD_BLOCK = "FROM " + TABLE_FILEDATA
+            + " WHERE fileid=? AND blocknum=?";
+
+    private RecordingSessionManager sm;
+    private byte[] data;
+
+    private CassandraDirectory newRecordingDirectory() throws Exception {
+        sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setReadAheadMaxBlocks(0);
+        data = content(4 * BLOCK_SIZE + 100, 1);
+        writeFile(dir, "f", data);
+        sm.queries.clear();
+        return dir;
+    }
+
+    private byte[] read(IndexInput in, int length) throws Exception {
+        byte[] result = new byte[length];
+        in.readBytes(result, 0, length);
+        return result;
+    }
+
+    private byte[] expected(long from, int length) {
+        return Arrays.copyOfRange(data, (int) from, (int) from + length);
+    }
+
+    @Test
+    public void testClonesShareBlock() throws Exception {
+        CassandraDirectory dir = newRecordingDirectory();
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            long pos = 2 * BLOCK_SIZE + 10;
+            in.seek(pos);
+            assertEquals(data[(int) pos], in.readByte());
+            assertEquals(1, sm.count(LOAD_BLOCK));
+
+            // many clones, as Lucene makes per enum: no reload
+            IndexInput[] clones = new IndexInput[100];
+            for (int i = 0; i < clones.length; i++) {
+                clones[i] = in.clone();
+                assertEquals(pos + 1, clones[i].getFilePointer());
+                assertArrayEquals(expected(pos + 1, 100), read(clones[i], 100));
+            }
+            assertEquals(sm.queries.toString(), 1, sm.count(LOAD_BLOCK));
+
+            // positions are independent
+            assertArrayEquals(expected(pos + 1, 10), read(in, 10));
+            assertEquals(pos + 101, clones[0].getFilePointer());
+
+            // a clone moving on loads its own block, others keep theirs
+            clones[0].seek(BLOCK_SIZE);
+            assertArrayEquals(expected(BLOCK_SIZE, 10), read(clones[0], 10));
+            assertEquals(2, sm.count(LOAD_BLOCK));
+            assertArrayEquals(expected(pos + 101, 10), read(clones[1], 10));
+            assertEquals(2, sm.count(LOAD_BLOCK));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testSlicesShareBlock() throws Exception {
+        CassandraDirectory dir = newRecordingDirectory();
+        IndexInput in = dir.openInput("f", IOContext.DEFAULT);
+        try {
+            in.seek(BLOCK_SIZE + 5);
+            in.readByte();
+            assertEquals(1, sm.count(LOAD_BLOCK));
+
+            // slice starting in the parent's current block: no reload
+            IndexInput slice = in.slice("slice", BLOCK_SIZE + 100, 1000);
+            assertArrayEquals(expected(BLOCK_SIZE + 100, 1000), read(slice, 1000));
+            IndexInput subSlice = slice.slice("sub", 10, 100);
+            assertArrayEquals(expected(BLOCK_SIZE + 110, 100), read(subSlice, 100));
+            IndexInput sliceClone = subSlice.clone();
+            sliceClone.seek(0);
+            assertArrayEquals(expected(BLOCK_SIZE + 110, 100), read(sliceClone, 100));
+            assertEquals(sm.queries.toString(), 1, sm.count(LOAD_BLOCK));
+
+            // slice in another block loads it, spanning into the next one
+            slice = in.slice("slice", 3 * BLOCK_SIZE - 10, 20);
+            assertArrayEquals(expected(3 * BLOCK_SIZE - 10, 20), read(slice, 20));
+            assertEquals(3, sm.count(LOAD_BLOCK));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.ddth.com.cassdir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.ddth.com.cassdir.internal.OffHeapBlockCache;
+
+/**
+ * Tests of {@link CassandraDirectory#warmup(WarmupPolicy)}: preloading,
+ * pinning and header/footer prefetching.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class WarmupTest extends BaseCassandraDirTest {
+
+    private final static int BLOCK_SIZE = CassandraDirectory.BLOCK_SIZE;
+    private final static String LOAD_BLOCK = "FROM " + TABLE_FILEDATA
+            + " WHERE fileid=? AND blocknum=?";
+
+    private RecordingSessionManager sm;
+
+    private CassandraDirectory newCachingDirectory(long blockCacheSize) throws Exception {
+        sm = newRecordingSessionManager();
+        CassandraDirectory dir = newDirectory(FileDataLayout.PARTITION_PER_BLOCK, null, sm);
+        dir.setBlockCacheSize(blockCacheSize).init();
+        return dir;
+    }
+
+    @Test
+    public void testWarmup() throws Exception {
+        CassandraDirectory dir = newCachingDirectory(32 * 1024 * 1024);
+        byte[] tim = content(3 * BLOCK_SIZE + 100, 1);
+        byte[] doc = content(2 * BLOCK_SIZE, 2);
+        byte[] dvd = content(3 * BLOCK_SIZE + 2000, 3);
+        writeFile(dir, "_0.tim", tim);
+        writeFile(dir, "_0.doc", doc);
+        writeFile(dir, "_0.dvd", dvd);
+        writeFile(dir, "_0.fdt", content(BLOCK_SIZE, 4));
+
+        WarmupPolicy policy = new WarmupPolicy().setPinExtensions("tim")
+                .setPreloadExtensions(".doc").setPrefetchExtensions("dvd");
+        sm.queries.clear();
+        WarmupStats stats = dir.warmup(policy);
+        assertTrue(stats.isDone());
+        assertEquals(3, stats.getTotalFiles());
+        assertEquals(3, stats.getFiles());
+        assertEquals(0, stats.getFailedFiles());
+        // tim: 4 blocks, doc: 2 blocks, dvd: first and last blocks only
+        assertEquals(8, stats.getBlocks());
+        assertEquals(8, stats.getBlocksLoaded());
+        assertEquals(8, sm.count(LOAD_BLOCK));
+        assertEquals(4, stats.getBlocksPinned());
+        OffHeapBlockCache blockCache = dir.getBlockCache();
+        assertTrue(blockCache.getPinnedBytes() >= 4 * BLOCK_SIZE);
+
+        // preloaded files are read from the block cache
+        sm.queries.clear();
+        assertArrayEquals(tim, readFile(dir, "_0.tim"));
+        assertArrayEquals(doc, readFile(dir, "_0.doc"));
+        assertEquals(sm.queries.toString(), 0, sm.count(LOAD_BLOCK));
+        assertEquals(0, dir.getBlockReads());
+
+        // files already warmed up are skipped
+        stats = dir.warmup(policy);
+        assertEquals(0, stats.getTotalFiles());
+        assertEquals(0, stats.getBlocks());
+
+        // explicitly listed files are warmed up again, from the cache
+        sm.queries.clear();
+        stats = dir.warmup(policy, Arrays.asList("_0.doc", "_0.fdt"));
+        assertEquals(1, stats.getTotalFiles());
+        assertEquals(2, stats.getBlocks());
+        assertEquals(0, stats.getBlocksLoaded());
+        assertEquals(0, sm.count(LOAD_BLOCK));
+    }
+
+    @Test
+    public void testPinnedBlocksAreNotEvicted() throws Exception {
+        // 16 stripes of 32 slots of 16Kb: a block takes 5 slots, at most 3
+        // pinned blocks per stripe
+        CassandraDirectory dir = newCachingDirectory(8 * 1024 * 1024);
+        dir.setReadAheadMaxBlocks(0);
+        byte[] pinned = content(2 * BLOCK_SIZE, 1);
+        byte[] other = content(150 * BLOCK_SIZE, 2);
+        writeFile(dir, "_0.tip", pinned);
+        writeFile(dir, "_0.fdt", other);
+
+        WarmupStats stats = dir.warmup(new WarmupPolicy().setPinExtensions("tip"));
+        assertEquals(2, stats.getBlocksPinned());
+
+        // more blocks than the cache holds
+        assertArrayEquals(other, readFile(dir, "_0.fdt"));
+        assertTrue(dir.getBlockCache().getEvictions() > 0);
+
+        long blockReads = dir.getBlockReads();
+        assertArrayEquals(pinned, readFile(dir, "_0.tip"));
+        assertEquals(blockReads, dir.getBlockReads());
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.ddth.com.cassdir.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.lucene.index.CorruptIndexException;
+import org.junit.Test;
+
+import com.github.ddth.com.cassdir.BlockCodec;
+
+/**
+ * Tests of {@link BlockFormat}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class BlockFormatTest {
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] compressibleBytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+        return data;
+    }
+
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] result = new byte[buf.remaining()];
+        buf.duplicate().get(result);
+        return result;
+    }
+
+    private static byte[] encode(BlockCodec codec, byte[] data) throws IOException {
+        byte[] out = new byte[BlockFormat.maxEncodedLength(data.length)];
+        int length = BlockFormat.encode(codec, data, data.length, out);
+        return Arrays.copyOf(out, length);
+    }
+
+    private static void assertRoundTrip(BlockCodec codec, byte[] data) throws IOException {
+        byte[] block = encode(codec, data);
+        ByteBuffer decoded = BlockFormat.decode(ByteBuffer.wrap(block), "test");
+        assertTrue(decoded.isReadOnly());
+        assertEquals(0, decoded.position());
+        assertTrue(Arrays.equals(data, toArray(decoded)));
+        // direct buffers and non-zero positions
+        ByteBuffer direct = ByteBuffer.allocateDirect(block.length + 3);
+        direct.position(3);
+        direct.put(block).position(3);
+        assertTrue(Arrays.equals(data, toArray(BlockFormat.decode(direct, "test"))));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (BlockCodec codec : BlockCodec.values()) {
+            for (int length : new int[] { 0, 1, 100, 16 * 1024, 64 * 1024, 100 * 1000 }) {
+                assertRoundTrip(codec, compressibleBytes(length));
+                assertRoundTrip(codec, randomBytes(length, length));
+            }
+        }
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        byte[] data = compressibleBytes(10000);
+        byte[] block = encode(BlockCodec.LZ4, data);
+        assertEquals(BlockFormat.MAGIC, block[0]);
+        assertEquals(BlockCodec.LZ4.id(), block[1]);
+        assertEquals(data.length, ByteBuffer.wrap(block).getInt(2));
+        assertEquals(block.length - BlockFormat.HEADER_SIZE, ByteBuffer.wrap(block).getInt(6));
+        assertTrue(block.length < data.length / 2);
+
+        block = encode(BlockCodec.DEFLATE, data);
+        assertEquals(BlockCodec.DEFLATE.id(), block[1]);
+    }
+
+    @Test
+    public void testIncompressibleStoredAsIs() throws IOException {
+        byte[] data = randomBytes(10000, 1);
+        for (BlockCodec codec : BlockCodec.values()) {
+            byte[] block = encode(codec, data);
+            assertEquals(BlockCodec.NONE.id(), block[1]);
+            assertEquals(BlockFormat.HEADER_SIZE + data.length, block.length);
+        }
+    }
+
+    @Test
+    public void testLegacyBlock() throws IOException {
+        // blocks written by 0.1.1 and earlier: raw data, no header
+        byte[] legacy = randomBytes(BlockFormat.LEGACY_BLOCK_SIZE, 2);
+        legacy[0] = BlockFormat.MAGIC;
+        ByteBuffer decoded = BlockFormat.decode(ByteBuffer.wrap(legacy), "test");
+        assertTrue(decoded.isReadOnly());
+        assertTrue(Arrays.equals(legacy, toArray(decoded)));
+    }
+
+    @Test
+    public void testPaddedToAvoidLegacySize() throws IOException {
+        // stored as-is, header + data would be exactly a legacy block
+        byte[] data = randomBytes(BlockFormat.LEGACY_BLOCK_SIZE - BlockFormat.HEADER_SIZE, 3);
+        for (BlockCodec codec : BlockCodec.values()) {
+            byte[] block = encode(codec, data);
+            assertEquals(BlockFormat.LEGACY_BLOCK_SIZE + 1, block.length);
+            assertEquals(BlockFormat.MAGIC, block[0]);
+            assertTrue(Arrays.equals(data,
+                    toArray(BlockFormat.decode(ByteBuffer.wrap(block), "test"))));
+        }
+        assertEquals(BlockFormat.LEGACY_BLOCK_SIZE + 1,
+                BlockFormat.maxEncodedLength(data.length));
+    }
+
+    private static void assertCorrupt(byte[] block) throws IOException {
+        try {
+            BlockFormat.decode(ByteBuffer.wrap(block), "test");
+            fail("Expected CorruptIndexException");
+        } catch (CorruptIndexException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCorruptBlocks() throws IOException {
+        byte[] block = encode(BlockCodec.LZ4, compressibleBytes(10000));
+
+        assertCorrupt(new byte[0]);
+        assertCorrupt(Arrays.copyOf(block, BlockFormat.HEADER_SIZE - 1));
+        byte[] badMagic = block.clone();
+        badMagic[0] = 0;
+        assertCorrupt(badMagic);
+        byte[] badCodec = block.clone();
+        badCodec[1] = 99;
+        assertCorrupt(badCodec);
+        // truncated data
+        assertCorrupt(Arrays.copyOf(block, block.length - 1));
+        byte[] badLength = block.clone();
+        ByteBuffer.wrap(badLength).putInt(6, -1);
+        assertCorrupt(badLength);
+    }
+}
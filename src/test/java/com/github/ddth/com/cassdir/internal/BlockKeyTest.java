@@ -0,0 +1,68 @@
+package com.github.ddth.com.cassdir.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link BlockKey}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class BlockKeyTest {
+
+    @Test
+    public void testParseFileId() {
+        long[] id = new long[2];
+        assertTrue(BlockKey.parseFileId("0123456789abcdefFEDCBA9876543210", id));
+        assertArrayEquals(new long[] { 0x0123456789abcdefL, 0xfedcba9876543210L }, id);
+
+        assertTrue(BlockKey.parseFileId("1f", id));
+        assertArrayEquals(new long[] { 0, 0x1f }, id);
+
+        assertTrue(BlockKey.parseFileId("1" + "0000000000000000", id));
+        assertArrayEquals(new long[] { 1, 0 }, id);
+    }
+
+    @Test
+    public void testParseInvalidFileId() {
+        long[] id = new long[2];
+        assertFalse(BlockKey.parseFileId(null, id));
+        assertFalse(BlockKey.parseFileId("", id));
+        assertFalse(BlockKey.parseFileId("0123456789abcdef0123456789abcdef0", id));
+        assertFalse(BlockKey.parseFileId("not-hex", id));
+        assertNull(BlockKey.of("not-hex", 0));
+    }
+
+    @Test
+    public void testEqualsHashCode() {
+        BlockKey key = BlockKey.of("abcdef", 3);
+        assertEquals(new BlockKey(0, 0xabcdef, 3), key);
+        assertEquals(new BlockKey(0, 0xabcdef, 3).hashCode(), key.hashCode());
+        assertEquals(BlockKey.hash(0, 0xabcdef, 3), key.hashCode());
+        // leading zeros do not matter
+        assertEquals(key, BlockKey.of("00abcdef", 3));
+
+        assertFalse(key.equals(BlockKey.of("abcdef", 4)));
+        assertFalse(key.equals(BlockKey.of("abcdee", 3)));
+        assertFalse(key.equals(new BlockKey(1, 0xabcdef, 3)));
+        assertFalse(key.equals("abcdef"));
+    }
+
+    @Test
+    public void testHashSpread() {
+        // blocks of a file spread over stripes (high bits of the hash)
+        int[] stripes = new int[16];
+        for (int blockNum = 0; blockNum < 1600; blockNum++) {
+            stripes[(BlockKey.of("abcdef", blockNum).hashCode() >>> 16) & 15]++;
+        }
+        for (int count : stripes) {
+            assertTrue(count > 50 && count < 150);
+        }
+    }
+}
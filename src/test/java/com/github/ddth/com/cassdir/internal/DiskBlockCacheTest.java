@@ -0,0 +1,363 @@
+package com.github.ddth.com.cassdir.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link DiskBlockCache}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class DiskBlockCacheTest {
+
+    private final static String FILE_ID = "0123456789abcdef0123456789abcdef";
+    private final static int MAX_BLOCK_SIZE = 1024;
+    /* slot header + max block size */
+    private final static int SLOT_SIZE = 64 + MAX_BLOCK_SIZE;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private DiskBlockCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        dir = tmp.newFolder("cache");
+    }
+
+    @After
+    public void teardown() {
+        if (cache != null) {
+            cache.destroy();
+        }
+    }
+
+    /* one stripe of 8 slots */
+    private DiskBlockCache openCache() throws Exception {
+        if (cache != null) {
+            cache.destroy();
+        }
+        cache = new DiskBlockCache(dir, 8 * SLOT_SIZE, MAX_BLOCK_SIZE, 1);
+        cache.init();
+        return cache;
+    }
+
+    private static byte[] block(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] get(DiskBlockCache cache, String fileId, int blockNum) {
+        ByteBuffer dst = ByteBuffer.allocate(MAX_BLOCK_SIZE);
+        int length = cache.get(fileId, blockNum, dst);
+        if (length < 0) {
+            assertEquals(0, dst.position());
+            return null;
+        }
+        assertEquals(length, dst.position());
+        byte[] result = new byte[length];
+        dst.flip();
+        dst.get(result);
+        return result;
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        DiskBlockCache cache = openCache();
+        byte[] small = block(100, 1), full = block(MAX_BLOCK_SIZE, 2);
+        assertTrue(cache.put(FILE_ID, 0, ByteBuffer.wrap(small)));
+        assertTrue(cache.put(FILE_ID, 1, ByteBuffer.wrap(full)));
+        assertTrue(cache.put(FILE_ID, 2, ByteBuffer.allocate(0)));
+
+        assertArrayEquals(small, get(cache, FILE_ID, 0));
+        assertArrayEquals(full, get(cache, FILE_ID, 1));
+        assertArrayEquals(new byte[0], get(cache, FILE_ID, 2));
+        assertNull(get(cache, FILE_ID, 3));
+        assertEquals(3, cache.getNumBlocks());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testPutDirectBuffer() throws Exception {
+        DiskBlockCache cache = openCache();
+        byte[] data = block(500, 3);
+        ByteBuffer direct = ByteBuffer.allocateDirect(600);
+        direct.position(50);
+        direct.put(data);
+        direct.position(50);
+        direct.limit(550);
+        assertTrue(cache.put(FILE_ID, 0, direct));
+        assertEquals(50, direct.position());
+
+        // CRC of data from a direct buffer survives a restart
+        cache = openCache();
+        assertArrayEquals(data, get(cache, FILE_ID, 0));
+        assertEquals(0, cache.getCorrupted());
+    }
+
+    @Test
+    public void testGetTooSmallBuffer() throws Exception {
+        DiskBlockCache cache = openCache();
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(block(100, 4)));
+
+        ByteBuffer dst = ByteBuffer.allocate(99);
+        assertEquals(-1, cache.get(FILE_ID, 0, dst));
+        assertEquals(0, dst.position());
+        assertArrayEquals(block(100, 4), get(cache, FILE_ID, 0));
+    }
+
+    @Test
+    public void testTooLargeBlockAndInvalidFileId() throws Exception {
+        DiskBlockCache cache = openCache();
+        assertFalse(cache.put(FILE_ID, 0, ByteBuffer.wrap(block(MAX_BLOCK_SIZE + 1, 5))));
+        assertFalse(cache.put("not-a-hex-id", 0, ByteBuffer.wrap(block(10, 5))));
+        assertEquals(-1, cache.get("not-a-hex-id", 0, ByteBuffer.allocate(MAX_BLOCK_SIZE)));
+        assertEquals(0, cache.getNumBlocks());
+    }
+
+    @Test
+    public void testEvictionSecondChance() throws Exception {
+        DiskBlockCache cache = openCache();
+        for (int i = 0; i < 8; i++) {
+            assertTrue(cache.put(FILE_ID, i, ByteBuffer.wrap(block(100, i))));
+        }
+        assertEquals(0, cache.getEvictions());
+        // block 0 is referenced, so block 1 is the next victim
+        assertArrayEquals(block(100, 0), get(cache, FILE_ID, 0));
+        assertTrue(cache.put(FILE_ID, 8, ByteBuffer.wrap(block(100, 8))));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(8, cache.getNumBlocks());
+        assertArrayEquals(block(100, 0), get(cache, FILE_ID, 0));
+        assertNull(get(cache, FILE_ID, 1));
+        assertArrayEquals(block(100, 8), get(cache, FILE_ID, 8));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        DiskBlockCache cache = openCache();
+        String otherId = "fedcba9876543210fedcba9876543210";
+        for (int i = 0; i < 3; i++) {
+            cache.put(FILE_ID, i, ByteBuffer.wrap(block(10, i)));
+            cache.put(otherId, i, ByteBuffer.wrap(block(10, i)));
+        }
+        cache.remove(otherId, 0);
+        cache.removeFile(FILE_ID, 3);
+        assertEquals(2, cache.getNumBlocks());
+        assertNull(get(cache, FILE_ID, 1));
+        assertNull(get(cache, otherId, 0));
+        assertArrayEquals(block(10, 1), get(cache, otherId, 1));
+
+        // removed blocks stay removed after a restart
+        cache = openCache();
+        assertEquals(2, cache.getNumBlocks());
+        assertNull(get(cache, FILE_ID, 1));
+    }
+
+    @Test
+    public void testParsedFileId() throws Exception {
+        DiskBlockCache cache = openCache();
+        long[] key = new long[2];
+        assertTrue(BlockKey.parseFileId(FILE_ID, key));
+        for (int i = 0; i < 8; i++) {
+            assertTrue(cache.put(key[0], key[1], i, ByteBuffer.wrap(block(10, i))));
+        }
+        // removals in the middle of probe sequences keep the other blocks
+        // reachable
+        cache.remove(key[0], key[1], 3);
+        cache.remove(FILE_ID, 6);
+        for (int i = 0; i < 8; i++) {
+            ByteBuffer dst = ByteBuffer.allocate(MAX_BLOCK_SIZE);
+            assertEquals(i == 3 || i == 6 ? -1 : 10, cache.get(key[0], key[1], i, dst));
+        }
+        assertArrayEquals(block(10, 7), get(cache, FILE_ID, 7));
+        cache.removeFile(key[0], key[1], 8);
+        assertEquals(0, cache.getNumBlocks());
+    }
+
+    private static boolean isMapped(File file) throws Exception {
+        for (String line : Files.readAllLines(new File("/proc/self/maps").toPath(),
+                Charset.forName("UTF-8"))) {
+            if (line.endsWith(file.getAbsolutePath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testDestroyUnmaps() throws Exception {
+        DiskBlockCache cache = openCache();
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(block(100, 1)));
+        File segment = new File(dir, "blocks-" + MAX_BLOCK_SIZE + "-0.dat");
+        boolean procMaps = new File("/proc/self/maps").canRead();
+        if (procMaps) {
+            assertTrue(isMapped(segment));
+        }
+        cache.destroy();
+        this.cache = null;
+        if (procMaps) {
+            assertFalse(isMapped(segment));
+        }
+        // no access to released mappings
+        assertEquals(-1, cache.get(FILE_ID, 0, ByteBuffer.allocate(MAX_BLOCK_SIZE)));
+        assertFalse(cache.put(FILE_ID, 1, ByteBuffer.wrap(block(100, 1))));
+        cache.remove(FILE_ID, 0);
+
+        // still recoverable
+        cache = openCache();
+        assertArrayEquals(block(100, 1), get(cache, FILE_ID, 0));
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        DiskBlockCache cache = openCache();
+        for (int i = 0; i < 5; i++) {
+            cache.put(FILE_ID, i, ByteBuffer.wrap(block(100 + i, i)));
+        }
+        // replaced block: only the latest copy is recovered
+        cache.put(FILE_ID, 2, ByteBuffer.wrap(block(10, 99)));
+
+        cache = openCache();
+        assertEquals(5, cache.getNumBlocks());
+        for (int i = 0; i < 5; i++) {
+            byte[] expected = i == 2 ? block(10, 99) : block(100 + i, i);
+            assertArrayEquals(expected, get(cache, FILE_ID, i));
+            // verified blocks are served again
+            assertArrayEquals(expected, get(cache, FILE_ID, i));
+        }
+        assertEquals(0, cache.getCorrupted());
+    }
+
+    @Test
+    public void testRecoveryWithMoreStripes() throws Exception {
+        DiskBlockCache cache = openCache();
+        for (int i = 0; i < 8; i++) {
+            cache.put(FILE_ID, i, ByteBuffer.wrap(block(100, i)));
+        }
+        cache.destroy();
+
+        // blocks in slots now owned by another stripe are dropped, the rest
+        // are served
+        this.cache = cache = new DiskBlockCache(dir, 8 * SLOT_SIZE, MAX_BLOCK_SIZE, 4);
+        cache.init();
+        int found = 0;
+        for (int i = 0; i < 8; i++) {
+            byte[] data = get(cache, FILE_ID, i);
+            if (data != null) {
+                assertArrayEquals(block(100, i), data);
+                found++;
+            }
+        }
+        assertEquals(cache.getNumBlocks(), found);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(cache.put(FILE_ID, i, ByteBuffer.wrap(block(100, i + 1))));
+        }
+        for (int i = 0; i < 8; i++) {
+            byte[] data = get(cache, FILE_ID, i);
+            if (data != null) {
+                assertArrayEquals(block(100, i + 1), data);
+            }
+        }
+    }
+
+    @Test
+    public void testCrcMismatch() throws Exception {
+        DiskBlockCache cache = openCache();
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(block(100, 6)));
+        cache.put(FILE_ID, 1, ByteBuffer.wrap(block(100, 7)));
+        cache.destroy();
+        this.cache = null;
+
+        // flip a data byte of the first slot
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, "blocks-" + MAX_BLOCK_SIZE
+                + "-0.dat"), "rw");
+        try {
+            raf.seek(64 + 10);
+            int b = raf.read();
+            raf.seek(64 + 10);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+
+        cache = openCache();
+        assertEquals(2, cache.getNumBlocks());
+        assertNull(get(cache, FILE_ID, 0));
+        assertEquals(1, cache.getCorrupted());
+        assertEquals(1, cache.getNumBlocks());
+        assertArrayEquals(block(100, 7), get(cache, FILE_ID, 1));
+
+        // the dropped slot is reused
+        assertTrue(cache.put(FILE_ID, 0, ByteBuffer.wrap(block(100, 6))));
+        assertArrayEquals(block(100, 6), get(cache, FILE_ID, 0));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        final DiskBlockCache cache = new DiskBlockCache(dir, 64 * SLOT_SIZE, MAX_BLOCK_SIZE, 4);
+        this.cache = cache;
+        cache.init();
+        final int numBlocks = 100;
+        Thread[] threads = new Thread[4];
+        final Throwable[] error = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ByteBuffer dst = ByteBuffer.allocate(MAX_BLOCK_SIZE);
+                        for (int i = 0; i < 5000; i++) {
+                            int blockNum = (i * 31 + seed) % numBlocks;
+                            int length = 100 + blockNum * 9;
+                            if (i % 3 == 0) {
+                                cache.put(FILE_ID, blockNum, ByteBuffer.wrap(block(length,
+                                        blockNum)));
+                            }
+                            dst.clear();
+                            if (cache.get(FILE_ID, blockNum, dst) >= 0) {
+                                byte[] data = new byte[dst.position()];
+                                dst.flip();
+                                dst.get(data);
+                                assertArrayEquals(block(length, blockNum), data);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (error[0] != null) {
+            throw new AssertionError(error[0]);
+        }
+        assertEquals(4 * 5000, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getNumBlocks() <= 64);
+    }
+}
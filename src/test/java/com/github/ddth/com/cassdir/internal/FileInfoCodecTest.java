@@ -0,0 +1,137 @@
+package com.github.ddth.com.cassdir.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.ddth.com.cassdir.CassandraDirectory;
+import com.github.ddth.com.cassdir.FileInfo;
+
+/**
+ * Tests of {@link FileInfoCodec}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class FileInfoCodecTest {
+
+    private final static String FILE_ID = "0123456789abcdef0123456789abcdef";
+
+    private static void assertFileInfo(FileInfo expected, FileInfo actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.id(), actual.id());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.blockSize(), actual.blockSize());
+        assertArrayEquals(expected.data(), actual.data());
+        assertEquals(expected.isMetadataOnly(), actual.isMetadataOnly());
+        assertEquals(expected.isInline(), actual.isInline());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        FileInfo fileInfo = FileInfo.newInstance("_0.cfs", FILE_ID, 123456789012L, 16384, null);
+        assertFileInfo(fileInfo, FileInfoCodec.decode(FileInfoCodec.encode(fileInfo)));
+    }
+
+    @Test
+    public void testRoundTripInline() {
+        FileInfo fileInfo = FileInfo.newInstance("segments_1", FILE_ID, 3, 0,
+                new byte[] { 1, 2, 3 });
+        FileInfo decoded = FileInfoCodec.decode(FileInfoCodec.encode(fileInfo));
+        assertFileInfo(fileInfo, decoded);
+        // no block size: default
+        assertEquals(CassandraDirectory.BLOCK_SIZE, decoded.blockSize());
+
+        // empty inline file is not "no data"
+        fileInfo = FileInfo.newInstance("empty", FILE_ID, 0, 0, new byte[0]);
+        assertFileInfo(fileInfo, FileInfoCodec.decode(FileInfoCodec.encode(fileInfo)));
+    }
+
+    @Test
+    public void testRoundTripMetadataOnly() {
+        FileInfo fileInfo = FileInfo.newInstance("_0.si", FILE_ID, 100, 0, new byte[100])
+                .asMetadataOnly();
+        assertNull(fileInfo.data());
+        FileInfo decoded = FileInfoCodec.decode(FileInfoCodec.encode(fileInfo));
+        assertFileInfo(fileInfo, decoded);
+        assertTrue(decoded.isMetadataOnly());
+        // still known to be inline
+        assertTrue(decoded.isInline());
+        // data makes it complete again
+        assertFalse(decoded.withData(new byte[1]).isMetadataOnly());
+
+        fileInfo = FileInfo.newInstance("_0.cfs", FILE_ID, 100000, 0, null).asMetadataOnly();
+        decoded = FileInfoCodec.decode(FileInfoCodec.encode(fileInfo));
+        assertTrue(decoded.isMetadataOnly());
+        assertFalse(decoded.isInline());
+    }
+
+    @Test
+    public void testRoundTripUnicodeName() {
+        FileInfo fileInfo = FileInfo.newInstance("t\u00EAn-\u6587\u4EF6", FILE_ID, 1, 0, null);
+        assertFileInfo(fileInfo, FileInfoCodec.decode(FileInfoCodec.encode(fileInfo)));
+    }
+
+    @Test
+    public void testListRoundTripOmitsData() {
+        List<FileInfo> fileInfos = new ArrayList<FileInfo>();
+        for (int i = 0; i < 100; i++) {
+            fileInfos.add(FileInfo.newInstance("_" + i + ".cfs", FILE_ID, i * 1000L, i,
+                    i % 2 == 0 ? new byte[i] : null));
+        }
+        byte[] encoded = FileInfoCodec.encodeList(7, fileInfos);
+        List<FileInfo> decoded = FileInfoCodec.decodeList(encoded, 7);
+        assertEquals(fileInfos.size(), decoded.size());
+        for (int i = 0; i < fileInfos.size(); i++) {
+            assertFileInfo(fileInfos.get(i).asMetadataOnly(), decoded.get(i));
+        }
+        // inline data is not part of the encoded list
+        assertEquals(encoded.length,
+                FileInfoCodec.encodeList(7, Arrays.asList(stripData(fileInfos))).length);
+        // read at another generation
+        assertNull(FileInfoCodec.decodeList(encoded, 8));
+
+        assertEquals(0, FileInfoCodec.decodeList(
+                FileInfoCodec.encodeList(0, new ArrayList<FileInfo>()), 0).size());
+    }
+
+    private static FileInfo[] stripData(List<FileInfo> fileInfos) {
+        FileInfo[] result = new FileInfo[fileInfos.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = fileInfos.get(i).withData(null);
+        }
+        return result;
+    }
+
+    @Test
+    public void testInvalidValues() {
+        FileInfo fileInfo = FileInfo.newInstance("f", FILE_ID, 1, 0, null);
+        byte[] encoded = FileInfoCodec.encode(fileInfo);
+
+        // not a byte[], e.g. cached by an older version
+        assertNull(FileInfoCodec.decode(fileInfo));
+        assertNull(FileInfoCodec.decode(null));
+        assertNull(FileInfoCodec.decodeList("f", 0));
+        // unknown version
+        byte[] badVersion = encoded.clone();
+        badVersion[0] = 99;
+        assertNull(FileInfoCodec.decode(badVersion));
+        // truncated
+        assertNull(FileInfoCodec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertNull(FileInfoCodec.decode(new byte[0]));
+        // a single entry is not a list, and vice versa
+        assertNull(FileInfoCodec.decodeList(encoded, 0));
+        assertNull(FileInfoCodec.decode(FileInfoCodec.encodeList(0, Arrays.asList(fileInfo))));
+
+        byte[] list = FileInfoCodec.encodeList(0, Arrays.asList(fileInfo, fileInfo));
+        assertNull(FileInfoCodec.decodeList(Arrays.copyOf(list, list.length - 1), 0));
+    }
+}
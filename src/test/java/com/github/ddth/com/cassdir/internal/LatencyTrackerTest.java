@@ -0,0 +1,85 @@
+package com.github.ddth.com.cassdir.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link LatencyTracker}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class LatencyTrackerTest {
+
+    private static long millis(long ms) {
+        return TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    private static void assertApprox(long expectedNanos, long actualNanos) {
+        // upper bound of a log-scaled bucket: at most ~25% above the sample
+        assertTrue(actualNanos + " < " + expectedNanos, actualNanos >= expectedNanos);
+        assertTrue(actualNanos + " > 1.25 * " + expectedNanos,
+                actualNanos <= expectedNanos * 5 / 4);
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        assertEquals(0, tracker.getCount());
+        assertEquals(-1, tracker.getPercentile(0.95));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyTracker tracker = new LatencyTracker(1000);
+        // 90 fast samples, 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            tracker.record(millis(2));
+        }
+        for (int i = 0; i < 10; i++) {
+            tracker.record(millis(100));
+        }
+        assertEquals(100, tracker.getCount());
+        assertApprox(millis(2), tracker.getPercentile(0.5));
+        assertApprox(millis(2), tracker.getPercentile(0.9));
+        assertApprox(millis(100), tracker.getPercentile(0.95));
+        assertApprox(millis(100), tracker.getPercentile(1.0));
+        // out of range percentiles are clamped
+        assertApprox(millis(100), tracker.getPercentile(2.0));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        LatencyTracker tracker = new LatencyTracker(10);
+        for (int i = 0; i < 10; i++) {
+            tracker.record(millis(100));
+        }
+        for (int i = 0; i < 5; i++) {
+            tracker.record(millis(1));
+        }
+        // both generations count
+        assertEquals(15, tracker.getCount());
+        assertApprox(millis(100), tracker.getPercentile(0.95));
+
+        // a full new generation: old samples age out
+        for (int i = 0; i < 5; i++) {
+            tracker.record(millis(1));
+        }
+        assertEquals(10, tracker.getCount());
+        assertApprox(millis(1), tracker.getPercentile(1.0));
+    }
+
+    @Test
+    public void testSmallAndLargeValues() {
+        LatencyTracker tracker = new LatencyTracker(10);
+        tracker.record(0);
+        tracker.record(-5);
+        assertEquals(0, tracker.getPercentile(1.0));
+        tracker.record(TimeUnit.SECONDS.toNanos(100));
+        assertApprox(TimeUnit.SECONDS.toNanos(100), tracker.getPercentile(1.0));
+    }
+}
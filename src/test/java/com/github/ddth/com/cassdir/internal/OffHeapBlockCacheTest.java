@@ -0,0 +1,299 @@
+package com.github.ddth.com.cassdir.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link OffHeapBlockCache}.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.1.2
+ */
+public class OffHeapBlockCacheTest {
+
+    private final static String FILE_ID = "0123456789abcdef0123456789abcdef";
+    private final static int SLOT_SIZE = 1024;
+
+    /* one stripe of 8 slots */
+    private static OffHeapBlockCache newCache() {
+        return new OffHeapBlockCache(8 * SLOT_SIZE, SLOT_SIZE, 1);
+    }
+
+    private static byte[] block(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] get(OffHeapBlockCache cache, String fileId, int blockNum) {
+        ByteBuffer dst = ByteBuffer.allocate(8 * SLOT_SIZE);
+        int length = cache.get(fileId, blockNum, dst);
+        if (length < 0) {
+            assertEquals(0, dst.position());
+            return null;
+        }
+        assertEquals(length, dst.position());
+        byte[] result = new byte[length];
+        dst.flip();
+        dst.get(result);
+        return result;
+    }
+
+    @Test
+    public void testPutGet() {
+        OffHeapBlockCache cache = newCache();
+        byte[] small = block(100, 1), chained = block(3 * SLOT_SIZE + 10, 2);
+        assertTrue(cache.put(FILE_ID, 0, ByteBuffer.wrap(small)));
+        assertTrue(cache.put(FILE_ID, 1, ByteBuffer.wrap(chained)));
+        assertTrue(cache.put(FILE_ID, 2, ByteBuffer.allocate(0)));
+
+        assertArrayEquals(small, get(cache, FILE_ID, 0));
+        assertArrayEquals(chained, get(cache, FILE_ID, 1));
+        assertArrayEquals(new byte[0], get(cache, FILE_ID, 2));
+        assertEquals(null, get(cache, FILE_ID, 3));
+        assertEquals(3, cache.getNumBlocks());
+        assertEquals(6 * SLOT_SIZE, cache.getUsedBytes());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testGetAtPosition() {
+        OffHeapBlockCache cache = newCache();
+        byte[] data = block(SLOT_SIZE + 1, 3);
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(data));
+
+        ByteBuffer dst = ByteBuffer.allocate(SLOT_SIZE * 2 + 10);
+        dst.position(10);
+        assertEquals(data.length, cache.get(FILE_ID, 0, dst));
+        assertEquals(10 + data.length, dst.position());
+        byte[] result = new byte[data.length];
+        dst.position(10);
+        dst.get(result);
+        assertArrayEquals(data, result);
+    }
+
+    @Test
+    public void testGetTooSmallBuffer() {
+        OffHeapBlockCache cache = newCache();
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(block(SLOT_SIZE, 4)));
+
+        ByteBuffer dst = ByteBuffer.allocate(SLOT_SIZE - 1);
+        assertEquals(-1, cache.get(FILE_ID, 0, dst));
+        assertEquals(0, dst.position());
+        assertTrue(cache.contains(FILE_ID, 0));
+    }
+
+    @Test
+    public void testInvalidFileId() {
+        OffHeapBlockCache cache = newCache();
+        assertFalse(cache.put("not-a-hex-id", 0, ByteBuffer.wrap(block(10, 5))));
+        assertEquals(-1, cache.get("not-a-hex-id", 0, ByteBuffer.allocate(SLOT_SIZE)));
+        assertFalse(cache.put(null, 0, ByteBuffer.wrap(block(10, 5))));
+    }
+
+    @Test
+    public void testParsedFileId() {
+        OffHeapBlockCache cache = newCache();
+        long[] key = new long[2];
+        assertTrue(BlockKey.parseFileId(FILE_ID, key));
+        byte[] data = block(100, 6);
+        assertTrue(cache.put(key[0], key[1], 0, ByteBuffer.wrap(data), true));
+        assertArrayEquals(data, get(cache, FILE_ID, 0));
+        assertTrue(cache.contains(key[0], key[1], 0));
+        assertTrue(cache.pin(key[0], key[1], 0));
+        assertEquals(SLOT_SIZE, cache.getPinnedBytes());
+
+        ByteBuffer dst = ByteBuffer.allocate(SLOT_SIZE);
+        assertEquals(data.length, cache.get(key[0], key[1], 0, dst));
+        cache.put(FILE_ID, 1, ByteBuffer.wrap(data));
+        cache.removeFile(key[0], key[1], 2);
+        assertEquals(0, cache.getNumBlocks());
+        assertEquals(0, cache.getPinnedBytes());
+    }
+
+    @Test
+    public void testSlabsSizedToCapacity() {
+        // less than a slab per stripe: the slab holds only the stripe's slots
+        OffHeapBlockCache cache = new OffHeapBlockCache(3 * SLOT_SIZE, SLOT_SIZE, 1);
+        assertEquals(0, cache.getAllocatedBytes());
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(block(10, 1)));
+        assertEquals(3 * SLOT_SIZE, cache.getAllocatedBytes());
+
+        // a full slab, then the remaining slot
+        int slotsPerSlab = 4 * 1024 * 1024 / SLOT_SIZE;
+        cache = new OffHeapBlockCache((slotsPerSlab + 1) * SLOT_SIZE, SLOT_SIZE, 1);
+        for (int i = 0; i <= slotsPerSlab; i++) {
+            assertTrue(cache.put(FILE_ID, i, ByteBuffer.wrap(block(10, i))));
+        }
+        assertEquals(0, cache.getEvictions());
+        assertEquals(cache.getCapacity(), cache.getAllocatedBytes());
+        assertArrayEquals(block(10, slotsPerSlab), get(cache, FILE_ID, slotsPerSlab));
+        cache.clear();
+        assertEquals(0, cache.getAllocatedBytes());
+    }
+
+    @Test
+    public void testStripesShareLoad() {
+        // 16 stripes of 64 slots: a file's blocks spread over the stripes
+        // evenly enough that half the capacity fits without eviction
+        OffHeapBlockCache cache = new OffHeapBlockCache(16 * 64 * SLOT_SIZE, SLOT_SIZE, 16);
+        for (int i = 0; i < 16 * 32; i++) {
+            assertTrue(cache.put(FILE_ID, i, ByteBuffer.wrap(block(10, i))));
+        }
+        assertEquals(0, cache.getEvictions());
+        assertEquals(16 * 32, cache.getNumBlocks());
+        assertTrue(cache.getAllocatedBytes() <= cache.getCapacity());
+    }
+
+    @Test
+    public void testReplace() {
+        OffHeapBlockCache cache = newCache();
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(block(3 * SLOT_SIZE, 6)));
+        byte[] data = block(10, 7);
+        cache.put(FILE_ID, 0, ByteBuffer.wrap(data));
+        assertArrayEquals(data, get(cache, FILE_ID, 0));
+        assertEquals(1, cache.getNumBlocks());
+        assertEquals(SLOT_SIZE, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testEvictionSecondChance() {
+        OffHeapBlockCache cache = newCache();
+        for (int i = 0; i < 8; i++) {
+            assertTrue(cache.put(FILE_ID, i, ByteBuffer.wrap(block(SLOT_SIZE, i))));
+        }
+        assertEquals(0, cache.getEvictions());
+        // block 0 is referenced, so block 1 is the next victim
+        assertArrayEquals(block(SLOT_SIZE, 0), get(cache, FILE_ID, 0));
+        assertTrue(cache.put(FILE_ID, 8, ByteBuffer.wrap(block(SLOT_SIZE, 8))));
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(8, cache.getNumBlocks());
+        assertTrue(cache.contains(FILE_ID, 0));
+        assertFalse(cache.contains(FILE_ID, 1));
+        assertArrayEquals(block(SLOT_SIZE, 8), get(cache, FILE_ID, 8));
+    }
+
+    @Test
+    public void testEvictionKeepsCapacity() {
+        OffHeapBlockCache cache = newCache();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = block(1 + (i % 3) * SLOT_SIZE, i);
+            assertTrue(cache.put(FILE_ID, i, ByteBuffer.wrap(data)));
+            assertTrue(cache.getUsedBytes() <= cache.getCapacity());
+        }
+        assertTrue(cache.getEvictions() > 0);
+        // surviving blocks are intact
+        for (int i = 0; i < 100; i++) {
+            byte[] data = get(cache, FILE_ID, i);
+            if (data != null) {
+                assertArrayEquals(block(1 + (i % 3) * SLOT_SIZE, i), data);
+            }
+        }
+    }
+
+    @Test
+    public void testTooLargeBlock() {
+        OffHeapBlockCache cache = newCache();
+        assertFalse(cache.put(FILE_ID, 0, ByteBuffer.wrap(block(8 * SLOT_SIZE + 1, 9))));
+        assertEquals(0, cache.getNumBlocks());
+    }
+
+    @Test
+    public void testPinned() {
+        OffHeapBlockCache cache = newCache();
+        assertTrue(cache.put(FILE_ID, 0, ByteBuffer.wrap(block(SLOT_SIZE, 0)), true));
+        assertTrue(cache.put(FILE_ID, 1, ByteBuffer.wrap(block(SLOT_SIZE, 1))));
+        assertTrue(cache.pin(FILE_ID, 1));
+        assertEquals(2 * SLOT_SIZE, cache.getPinnedBytes());
+        for (int i = 2; i < 50; i++) {
+            cache.put(FILE_ID, i, ByteBuffer.wrap(block(SLOT_SIZE, i)));
+        }
+        assertTrue(cache.contains(FILE_ID, 0));
+        assertTrue(cache.contains(FILE_ID, 1));
+
+        // at most half of the slots can be pinned
+        cache.pin(FILE_ID, 49);
+        cache.pin(FILE_ID, 48);
+        assertFalse(cache.pin(FILE_ID, 47));
+        assertEquals(4 * SLOT_SIZE, cache.getPinnedBytes());
+
+        cache.remove(FILE_ID, 0);
+        assertFalse(cache.contains(FILE_ID, 0));
+        assertEquals(3 * SLOT_SIZE, cache.getPinnedBytes());
+    }
+
+    @Test
+    public void testRemoveFileAndClear() {
+        OffHeapBlockCache cache = newCache();
+        String otherId = "fedcba9876543210fedcba9876543210";
+        for (int i = 0; i < 3; i++) {
+            cache.put(FILE_ID, i, ByteBuffer.wrap(block(10, i)));
+            cache.put(otherId, i, ByteBuffer.wrap(block(10, i)));
+        }
+        cache.removeFile(FILE_ID, 3);
+        assertEquals(3, cache.getNumBlocks());
+        assertFalse(cache.contains(FILE_ID, 1));
+        assertTrue(cache.contains(otherId, 1));
+
+        cache.clear();
+        assertEquals(0, cache.getNumBlocks());
+        assertEquals(0, cache.getUsedBytes());
+        assertFalse(cache.contains(otherId, 1));
+        assertTrue(cache.put(otherId, 1, ByteBuffer.wrap(block(10, 1))));
+        assertArrayEquals(block(10, 1), get(cache, otherId, 1));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        final OffHeapBlockCache cache = new OffHeapBlockCache(64 * SLOT_SIZE, SLOT_SIZE, 4);
+        final int numBlocks = 100;
+        Thread[] threads = new Thread[4];
+        final Throwable[] error = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ByteBuffer dst = ByteBuffer.allocate(2 * SLOT_SIZE);
+                        for (int i = 0; i < 5000; i++) {
+                            int blockNum = (i * 31 + seed) % numBlocks;
+                            int length = 100 + blockNum * 10;
+                            if (i % 3 == 0) {
+                                cache.put(FILE_ID, blockNum, ByteBuffer.wrap(block(length,
+                                        blockNum)));
+                            }
+                            dst.clear();
+                            if (cache.get(FILE_ID, blockNum, dst) >= 0) {
+                                byte[] data = new byte[dst.position()];
+                                dst.flip();
+                                dst.get(data);
+                                assertArrayEquals(block(length, blockNum), data);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (error[0] != null) {
+            throw new AssertionError(error[0]);
+        }
+        assertEquals(4 * 5000, cache.getHits() + cache.getMisses());
+    }
+}